@@ -0,0 +1,92 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.DurationFormatter;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares DurationFormatter with the String-based formatting it replaced
+ *
+ * Each method formats the same range of durations, as the stopwatch and pace
+ * displays do once per tick. Time and allocated bytes are reported per call.
+ */
+public class DurationFormatterBenchmark {
+    private static final int kCalls = 200000;
+    private static final int kWarmups = 5;
+    private static final int kRuns = 10;
+
+    // Keeps the JIT from discarding results
+    private long sink;
+
+    @Test
+    public void format_compareWithConvertTime() {
+        final DurationFormatter formatter = new DurationFormatter();
+        final Runnable legacy = () -> {
+            for (int i = 0; i < kCalls; i++) sink += legacyConvertTime(i).length();
+        };
+        final Runnable toString = () -> {
+            for (int i = 0; i < kCalls; i++) sink += DurationFormatter.toString(i).length();
+        };
+        final Runnable format = () -> {
+            for (int i = 0; i < kCalls; i++) sink += formatter.format(i);
+        };
+
+        System.out.println("method                      ns/call   bytes/call");
+        measure("legacy convertTime", legacy);
+        measure("DurationFormatter.toString", toString);
+        final double[] formatCost = measure("DurationFormatter.format", format);
+
+        // Timings vary from machine to machine; allocations do not.
+        if (formatCost[1] >= 0) Assert.assertTrue(formatCost[1] < 1);
+    }
+
+    /** Returns the mean {nanoseconds, allocated bytes} of one call; bytes are -1 if unknown */
+    private static double[] measure(String name, Runnable work) {
+        for (int i = 0; i < kWarmups; i++) work.run();
+
+        final com.sun.management.ThreadMXBean threads = threadBean();
+        final long threadId = Thread.currentThread().getId();
+        final long bytesBefore = threads == null ? 0 : threads.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        for (int i = 0; i < kRuns; i++) work.run();
+        final long elapsed = System.nanoTime() - start;
+        final long bytes = threads == null
+                ? -1 : threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        final double calls = (double) kCalls * kRuns;
+        final double[] cost = {elapsed / calls, bytes < 0 ? -1 : bytes / calls};
+        System.out.printf("%-28s%7.1f   %10.1f%n", name, cost[0], cost[1]);
+        return cost;
+    }
+
+    /** The formatting that Stopwatch.convertTime used to do */
+    private static String legacyConvertTime(double seconds) {
+        String hours = String.valueOf(Math.floor(seconds / 3600));
+        long minutes = (long) Math.floor((seconds % 3600) / 60);
+        long secs = (long) Math.floor(seconds % 60);
+
+        String format = "";
+        if (!hours.equals("0.0")) {
+            format += hours + ":";
+        }
+        format += String.format("%02d:%02d", minutes, secs);
+
+        return format;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            Object bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                return (com.sun.management.ThreadMXBean) bean;
+            }
+        } catch (NoClassDefFoundError e) {
+            // The JVM does not report allocations.
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package com.marcusposey.cadtra;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.marcusposey.cadtra.model.Account;
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.Json;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the shared Gson and its adapters with the reflective Gson that
+ * the app used to create for each call
+ *
+ * Each method encodes or decodes a history of kLogs logs, which is what the
+ * history screen handles. Times are reported per history, from the fastest
+ * of several runs so that pauses on a busy machine do not skew them.
+ */
+public class GsonAdapterBenchmark {
+    private static final int kLogs = 300;
+    private static final int kCalls = 20;
+    private static final int kWarmups = 5;
+    private static final int kRuns = 30;
+
+    private static final Type kListType = new TypeToken<List<RunLog>>() {}.getType();
+
+    // Keeps the JIT from discarding results
+    private long sink;
+
+    @Test
+    public void history_compareWithReflection() {
+        List<RunLog> logs = new ArrayList<>(kLogs);
+        for (int i = 1; i <= kLogs; i++) logs.add(RunLogCodecTest.createLog(i, 1500));
+        final String json = Json.getGson().toJson(logs);
+        final Gson reflective = new Gson();
+
+        System.out.println("method                          ms/history");
+        final double newGsonWrite = measure("new Gson().toJson",
+                () -> sink += new Gson().toJson(logs).length());
+        final double reflectiveWrite = measure("reflective toJson",
+                () -> sink += reflective.toJson(logs).length());
+        final double adapterWrite = measure("Json.getGson().toJson",
+                () -> sink += Json.getGson().toJson(logs).length());
+        final double newGsonRead = measure("new Gson().fromJson",
+                () -> sink += new Gson().<List<RunLog>>fromJson(json, kListType).size());
+        final double reflectiveRead = measure("reflective fromJson",
+                () -> sink += reflective.<List<RunLog>>fromJson(json, kListType).size());
+        final double adapterRead = measure("Json.getGson().fromJson",
+                () -> sink += Json.getGson().<List<RunLog>>fromJson(json, kListType).size());
+
+        System.out.printf("speedup over new Gson(): write %.2fx, read %.2fx%n",
+                newGsonWrite / adapterWrite, newGsonRead / adapterRead);
+        System.out.printf("speedup over reflection: write %.2fx, read %.2fx%n",
+                reflectiveWrite / adapterWrite, reflectiveRead / adapterRead);
+    }
+
+    @Test
+    public void account_compareWithReflection() {
+        final String json = "{\"id\":12,\"email\":\"runner@example.com\",\"name\":\"Runner\","
+                + "\"avatar\":\"https://example.com/a.png\",\"since\":\"2017-08-01T00:00:00Z\","
+                + "\"country\":\"USA\"}";
+        final Gson reflective = new Gson();
+
+        System.out.println("method                          ms/account");
+        final double newGsonRead = measure("new Gson().fromJson",
+                () -> sink += new Gson().fromJson(json, Account.class).hashCode());
+        final double reflectiveRead = measure("reflective fromJson",
+                () -> sink += reflective.fromJson(json, Account.class).hashCode());
+        final double adapterRead = measure("Json.getGson().fromJson",
+                () -> sink += Json.getGson().fromJson(json, Account.class).hashCode());
+
+        System.out.printf("speedup over new Gson(): %.2fx; over reflection: %.2fx%n",
+                newGsonRead / adapterRead, reflectiveRead / adapterRead);
+    }
+
+    /** Returns the milliseconds taken by one call of work in the fastest run */
+    private static double measure(String name, Runnable work) {
+        for (int i = 0; i < kWarmups * kCalls; i++) work.run();
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < kRuns; run++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < kCalls; i++) work.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        final double ms = best / 1e6 / kCalls;
+        System.out.printf("%-32s%9.4f%n", name, ms);
+        return ms;
+    }
+}
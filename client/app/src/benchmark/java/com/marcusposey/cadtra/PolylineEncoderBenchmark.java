@@ -0,0 +1,71 @@
+package com.marcusposey.cadtra;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.PolyUtil;
+import com.marcusposey.cadtra.model.PolylineEncoder;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Compares PolylineEncoder with PolyUtil.encode
+ *
+ * PolyUtil.encode does all of its work when the session stops. The streaming
+ * encoder spreads that work across location updates, so the cost that matters
+ * at stop time is only getEncodedPath().
+ */
+public class PolylineEncoderBenchmark {
+    private static final int[] kRouteSizes = {10000, 50000, 100000};
+    private static final int kWarmups = 3;
+    private static final int kRuns = 5;
+
+    @Test
+    public void encode_compareWithPolyUtil() {
+        System.out.println("points   PolyUtil.encode   stream add (total)   stream stop"
+                + "   chars (exact)   chars (2m)");
+        for (int size : kRouteSizes) {
+            SyntheticTrack track = new SyntheticTrack(size, 1.5, 3, size);
+            final List<LatLng> route = track.toLatLngs();
+
+            String expected = null;
+            long polyUtilNs = 0, addNs = 0, stopNs = 0;
+            for (int run = 0; run < kWarmups + kRuns; run++) {
+                long start = System.nanoTime();
+                expected = PolyUtil.encode(route);
+                final long polyUtil = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                PolylineEncoder encoder = new PolylineEncoder();
+                for (int i = 0; i < size; i++) {
+                    encoder.add(track.latitudes[i], track.longitudes[i]);
+                }
+                final long add = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                final String actual = encoder.getEncodedPath();
+                final long stop = System.nanoTime() - start;
+
+                Assert.assertEquals(expected, actual);
+                if (run >= kWarmups) {
+                    polyUtilNs += polyUtil;
+                    addNs += add;
+                    stopNs += stop;
+                }
+            }
+
+            PolylineEncoder simplified = new PolylineEncoder(PolylineEncoder.kDefaultTolerance);
+            for (int i = 0; i < size; i++) {
+                simplified.add(track.latitudes[i], track.longitudes[i]);
+            }
+            final int simplifiedLength = simplified.getEncodedPath().length();
+
+            System.out.printf("%6d   %12.2fms   %15.2fms   %9.3fms   %13d   %10d%n", size,
+                    polyUtilNs / 1e6 / kRuns, addNs / 1e6 / kRuns, stopNs / 1e6 / kRuns,
+                    expected.length(), simplifiedLength);
+            Assert.assertTrue(simplifiedLength < expected.length());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.marcusposey.cadtra;
+
+import com.google.gson.Gson;
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.Json;
+import com.marcusposey.cadtra.net.RunLogCodec;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares RunLogCodec with the JSON encoding that RequestFactory used to send
+ *
+ * Logs with short and long routes are encoded and decoded both ways. Sizes
+ * are reported before and after gzip, which RequestFactory applies to large
+ * bodies, and times are reported per log.
+ */
+public class RunLogCodecBenchmark {
+    private static final int kWarmups = 3;
+    private static final int kRuns = 10;
+    // A fix every 3 m: a 5K and a half marathon
+    private static final int[] kRoutePoints = {1700, 7000};
+
+    private final Gson gson = Json.getGson();
+    // Keeps the JIT from discarding results
+    private long sink;
+
+    @Test
+    public void encode_compareWithJson() throws IOException {
+        System.out.println(" fixes  format   bytes   gzipped   encode us   decode us");
+        for (int points : kRoutePoints) {
+            final RunLog log = RunLogCodecTest.createLog(1, points);
+            final byte[] json = gson.toJson(log).getBytes(StandardCharsets.UTF_8);
+            final byte[] binary = RunLogCodec.encode(log);
+            final int calls = 2000000 / points;
+
+            final double jsonEncode = measure(calls, () -> sink += gson.toJson(log).length());
+            final double jsonDecode = measure(calls, () -> sink += gson.fromJson(
+                    new String(json, StandardCharsets.UTF_8), RunLog.class).getSplits().length);
+            final double binaryEncode = measure(calls, () -> sink += RunLogCodec.encode(log).length);
+            final double binaryDecode = measure(calls, () -> {
+                try {
+                    sink += RunLogCodec.decode(binary).getSplits().length;
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            System.out.printf("%6d  json    %6d    %6d    %8.1f    %8.1f%n", points,
+                    json.length, gzip(json).length, jsonEncode, jsonDecode);
+            System.out.printf("%6d  binary  %6d    %6d    %8.1f    %8.1f%n", points,
+                    binary.length, gzip(binary).length, binaryEncode, binaryDecode);
+
+            Assert.assertTrue(binary.length < json.length);
+            Assert.assertTrue(gzip(binary).length < gzip(json).length);
+        }
+    }
+
+    /** Returns the mean microseconds taken by one call of work */
+    private static double measure(int calls, Runnable work) {
+        for (int i = 0; i < kWarmups * calls; i++) work.run();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < kRuns * calls; i++) work.run();
+        return (System.nanoTime() - start) / 1e3 / (kRuns * calls);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
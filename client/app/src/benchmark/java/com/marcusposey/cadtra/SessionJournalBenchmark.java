@@ -0,0 +1,78 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.Fix;
+import com.marcusposey.cadtra.storage.SessionJournal;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Measures what journaling costs the location callback
+ *
+ * SessionJournal.addFix is compared with writing and syncing each fix
+ * before returning, which is what a naive journal would do. Times are the
+ * minimum of several runs, per fix.
+ */
+public class SessionJournalBenchmark {
+    private static final int kRuns = 5;
+    private static final int kFixes = 2000;
+    // Syncing is slow, so the naive journal writes fewer fixes.
+    private static final int kSyncedFixes = 200;
+
+    @Test
+    public void addFix_compareWithSyncedWrites() throws Exception {
+        File file = File.createTempFile("session", ".journal");
+        try {
+            final SyntheticTrack track = new SyntheticTrack(kFixes, 3, 2, 3);
+            Fix fix = new Fix();
+
+            double journalNanos = Double.MAX_VALUE;
+            for (int run = 0; run < kRuns; run++) {
+                SessionJournal journal = new SessionJournal(file);
+                journal.start(0);
+                journal.sync().get();
+                final long start = System.nanoTime();
+                for (int i = 0; i < kFixes; i++) {
+                    fix.set(track.latitudes[i], track.longitudes[i], i * 1000L, i, 5);
+                    journal.addFix(fix, i);
+                }
+                journalNanos = Math.min(journalNanos, (System.nanoTime() - start) / (double) kFixes);
+                journal.sync().get();
+                journal.finish();
+            }
+
+            double syncedNanos = Double.MAX_VALUE;
+            for (int run = 0; run < kRuns; run++) {
+                syncedNanos = Math.min(syncedNanos, measureSyncedWrites(file, track));
+            }
+
+            System.out.println("method                 us/fix");
+            System.out.printf("SessionJournal.addFix  %8.2f%n", journalNanos / 1000);
+            System.out.printf("write and sync         %8.2f%n", syncedNanos / 1000);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** Returns the nanoseconds taken to write and sync each fix */
+    private static double measureSyncedWrites(File file, SyntheticTrack track) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(stream);
+            final long start = System.nanoTime();
+            for (int i = 0; i < kSyncedFixes; i++) {
+                out.writeByte(2);
+                out.writeLong(i * 1000L);
+                out.writeLong(i);
+                out.writeDouble(track.latitudes[i]);
+                out.writeDouble(track.longitudes[i]);
+                out.writeFloat(5);
+                stream.getFD().sync();
+            }
+            return (System.nanoTime() - start) / (double) kSyncedFixes;
+        }
+    }
+}
@@ -3,13 +3,13 @@ package com.marcusposey.cadtra.activity;
 import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.Fragment;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Color;
-import android.graphics.drawable.Drawable;
-import android.location.Location;
+import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,42 +17,82 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.location.LocationListener;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.PolylineOptions;
-import com.google.maps.android.SphericalUtil;
 import com.marcusposey.cadtra.R;
-import com.marcusposey.cadtra.model.Stopwatch;
-import com.marcusposey.cadtra.net.TokenStore;
-
-import java.util.Observable;
-import java.util.Observer;
-
-/** Handles the current run session */
-public class ActiveSessionFragment extends Fragment implements LocationListener, OnMapReadyCallback,
-        Observer, GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
-
-    // Keeps track of time since starting the session, excluding paused breaks
-    private final Stopwatch stopwatch = new Stopwatch();
+import com.marcusposey.cadtra.model.DurationFormatter;
+import com.marcusposey.cadtra.model.Route;
+import com.marcusposey.cadtra.service.SessionSnapshot;
+import com.marcusposey.cadtra.service.TrackingService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the current run session
+ *
+ * The session itself is run by TrackingService, which keeps going when the
+ * screen is off. The fragment binds to it and redraws from the snapshots it
+ * publishes. Views are looked up once, and a label is only set when the
+ * value it shows changes.
+ */
+public class ActiveSessionFragment extends Fragment implements OnMapReadyCallback,
+        TrackingService.Listener {
+
+    // Minimum time between camera moves that follow the user's location
+    private static final long kCameraIntervalMs = 2000;
+
+    // Reused by showSnapshot so that updates do not create strings
+    private final DurationFormatter timeFormatter = new DurationFormatter();
+    private final DurationFormatter paceFormatter = new DurationFormatter();
+    private final DurationFormatter currentPaceFormatter = new DurationFormatter();
+    private final DurationFormatter splitFormatter = new DurationFormatter();
+
+    private TextView distanceDisplay;
+    private TextView timeDisplay;
+    private TextView paceDisplay;
+    private TextView currentPaceDisplay;
+    private TextView lastSplitDisplay;
+    private Button startStopButton;
+    private Button pauseResumeButton;
+    // The values the labels show; -1 if a label shows none
+    private long shownHundredths = -1;
+    private long shownSeconds = -1;
+    private long shownPace = -1;
+    private long shownCurrentPace = -1;
+    // The number of splits completed when lastSplitDisplay was set; -1 if it was not
+    private int shownSplitCount = -1;
 
     // The map on which a route is drawn and user's location is shown
     private GoogleMap routeMap;
-    private GoogleApiClient googleApiClient;
-
-    // A path of LatLng cords that indicate where the runner has traveled
-    private PolylineOptions path = new PolylineOptions();
+    private RouteOverlay routeOverlay;
+    // The route routeOverlay draws and how many of its points are drawn
+    private Route drawnRoute;
+    private int drawnPoints;
+    // Time, according to SystemClock.elapsedRealtime(), of the last camera move
+    private long lastCameraMove;
 
     private Activity activity;
 
     private SessionController controller;
+    // Null until the fragment is bound to the service
+    private TrackingService service;
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((TrackingService.LocalBinder) binder).getService();
+            controller.bind(service, startStopButton, pauseResumeButton);
+            service.setListener(ActiveSessionFragment.this);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+            controller.bind(null, null, null);
+        }
+    };
 
     public ActiveSessionFragment() {
         // Required empty public constructor
@@ -62,16 +102,20 @@ public class ActiveSessionFragment extends Fragment implements LocationListener,
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         activity = getActivity();
         View rootView = inflater.inflate(R.layout.fragment_active_session, container, false);
+        distanceDisplay = rootView.findViewById(R.id.distanceDisplay);
+        timeDisplay = rootView.findViewById(R.id.timeDisplay);
+        paceDisplay = rootView.findViewById(R.id.paceDisplay);
+        currentPaceDisplay = rootView.findViewById(R.id.currentPaceDisplay);
+        lastSplitDisplay = rootView.findViewById(R.id.lastSplitDisplay);
+        shownHundredths = shownSeconds = shownPace = shownCurrentPace = -1;
+        shownSplitCount = -1;
 
         MapFragment mapFragment = (MapFragment) getChildFragmentManager().findFragmentById(R.id.map);
         mapFragment.getMapAsync(this);
 
-        stopwatch.addObserver(this);
-        buildGoogleApiClient();
-
-        controller = new SessionController(this, stopwatch, e -> {
+        controller = new SessionController(this, e -> {
             if (e != null) {
-                Toast.makeText(getContext(), "failed to upload session", Toast.LENGTH_LONG)
+                Toast.makeText(getContext(), "failed to save session", Toast.LENGTH_LONG)
                         .show();
             } else {
                 displaySessionResults();
@@ -83,34 +127,27 @@ public class ActiveSessionFragment extends Fragment implements LocationListener,
         return rootView;
     }
 
-    private void initButtons(View view) {
-        Button startStop = view.findViewById(R.id.startStopButton);
-        startStop.setOnClickListener(controller::onStartStop);
-        Button pauseResume = view.findViewById(R.id.pauseResumeButton);
-        pauseResume.setOnClickListener(controller::onPauseResume);
+    @Override
+    public void onStart() {
+        super.onStart();
+        activity.bindService(new Intent(activity, TrackingService.class), connection,
+                Context.BIND_AUTO_CREATE);
     }
 
-    /** Builds a Google API client that is necessary to access location services */
-    private void buildGoogleApiClient() {
-        googleApiClient = new GoogleApiClient.Builder(getContext())
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(LocationServices.API)
-                .build();
-        googleApiClient.connect();
+    @Override
+    public void onStop() {
+        super.onStop();
+        if (service != null) service.setListener(null);
+        activity.unbindService(connection);
+        service = null;
+        controller.bind(null, null, null);
     }
 
-    /** Starts polling location data on a set interval */
-    @SuppressLint("MissingPermission") // Permissions are acquired in MainActivity.
-    @Override
-    public void onConnected(Bundle bundle) {
-        LocationRequest locationRequest = new LocationRequest();
-        locationRequest.setInterval(500);
-        locationRequest.setFastestInterval(500);
-        locationRequest.setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
-
-        LocationServices.FusedLocationApi.requestLocationUpdates(googleApiClient,
-                locationRequest, this);
+    private void initButtons(View view) {
+        startStopButton = view.findViewById(R.id.startStopButton);
+        startStopButton.setOnClickListener(controller::onStartStop);
+        pauseResumeButton = view.findViewById(R.id.pauseResumeButton);
+        pauseResumeButton.setOnClickListener(controller::onPauseResume);
     }
 
     /** Creates a blank map canvas to draw a route on */
@@ -122,87 +159,105 @@ public class ActiveSessionFragment extends Fragment implements LocationListener,
         routeMap.setMinZoomPreference(16);
         routeMap.getUiSettings().setMyLocationButtonEnabled(false);
         routeMap.setMyLocationEnabled(true);
+        routeOverlay = new RouteOverlay(routeMap);
+        if (service != null) onSessionChanged(service.getEngine().snapshot());
     }
 
     /**
-     * Records the current location and updates the user's position on the map
+     * Shows the latest state of the session
      *
-     * If a session is in progress, the location is added to the route on the map.
+     * New points of the route are drawn on the map, and the camera follows
+     * the user's location.
      */
     @Override
-    public void onLocationChanged(Location location) {
-        LatLng latLng = new LatLng(location.getLatitude(), location.getLongitude());
-
-        if (stopwatch.isRunning()) {
-            path.add(latLng);
-            double milesTraveled = SphericalUtil.computeLength(path.getPoints()) * 0.00062137;
-
-            TextView distanceDisplay = getActivity().findViewById(R.id.distanceDisplay);
-            distanceDisplay.setText(String.format("%.2f", milesTraveled));
-
-            routeMap.clear();
-            routeMap.addPolyline(path);
+    public void onSessionChanged(SessionSnapshot snapshot) {
+        showSnapshot(snapshot);
+        if (routeMap == null || service == null) return;
+
+        final Route route = service.getEngine().getRoute();
+        if (route != drawnRoute) {
+            // The session was reset or restored.
+            routeOverlay.clear();
+            drawnRoute = route;
+            drawnPoints = 0;
+        }
+        if (snapshot.getRouteSize() != drawnPoints) {
+            drawnPoints = snapshot.getRouteSize();
+            routeOverlay.update(route);
         }
 
-        routeMap.moveCamera(CameraUpdateFactory.newLatLng(latLng));
-        routeMap.animateCamera(CameraUpdateFactory.zoomTo(10));
+        final long now = SystemClock.elapsedRealtime();
+        if (snapshot.hasLocation()
+                && (lastCameraMove == 0 || now - lastCameraMove >= kCameraIntervalMs)) {
+            LatLng latLng = new LatLng(snapshot.getLatitude(), snapshot.getLongitude());
+            routeMap.animateCamera(CameraUpdateFactory.newLatLng(latLng));
+            lastCameraMove = now;
+        }
     }
 
     /** Gathers results from the completed session and displays them in their own activity */
     private void displaySessionResults() {
         Intent intent = new Intent(activity, ResultsActivity.class);
-        intent.putExtra(ResultsActivity.DISTANCE_EXTRA,
-                ((TextView) activity.findViewById(R.id.distanceDisplay)).getText().toString());
-        intent.putExtra(ResultsActivity.TIME_EXTRA,
-                ((TextView) activity.findViewById(R.id.timeDisplay)).getText().toString());
-        intent.putExtra(ResultsActivity.PACE_EXTRA,
-                ((TextView) activity.findViewById(R.id.paceDisplay)).getText().toString());
-
-        // Calling refresh from the ListActivity results in a crash, so
-        // we'll just do it here.
-        TokenStore.getInstance().refresh(activity);
+        intent.putExtra(ResultsActivity.DISTANCE_EXTRA, distanceDisplay.getText().toString());
+        intent.putExtra(ResultsActivity.TIME_EXTRA, timeDisplay.getText().toString());
+        intent.putExtra(ResultsActivity.PACE_EXTRA, paceDisplay.getText().toString());
         startActivity(intent);
     }
 
-    /** Clears current session progress */
+    /** Clears the finished session from the screen */
     private void resetSession() {
-        stopwatch.reset();
-        path = new PolylineOptions();
-        routeMap.clear();
+        startStopButton.setText(getString(R.string.Start));
+        pauseResumeButton.setText(getString(R.string.Pause));
+    }
 
-        TextView distanceView = activity.findViewById(R.id.distanceDisplay);
-        distanceView.setText("0.00"); // todo: use a string resource
+    /**
+     * Shows the distance, the elapsed time, the average and current paces,
+     * and the latest split of snapshot
+     */
+    private void showSnapshot(SessionSnapshot snapshot) {
+        final long hundredths = Math.round(snapshot.getMiles() * 100);
+        if (hundredths != shownHundredths) {
+            shownHundredths = hundredths;
+            distanceDisplay.setText(String.format("%.2f", hundredths / 100.0));
+        }
 
-        Button startStop = activity.findViewById(R.id.startStopButton);
-        startStop.setText(getString(R.string.Start));
+        final long seconds = TimeUnit.NANOSECONDS.toSeconds(snapshot.getElapsedNanos());
+        if (seconds != shownSeconds) {
+            shownSeconds = seconds;
+            timeDisplay.setText(timeFormatter.getChars(), 0, timeFormatter.format(seconds));
+        }
 
-        Button pauseResume = activity.findViewById(R.id.pauseResumeButton);
-        pauseResume.setText(getString(R.string.Pause));
-    }
+        shownPace = showPace(paceDisplay, paceFormatter, snapshot.getAveragePace(), shownPace);
+        shownCurrentPace = showPace(currentPaceDisplay, currentPaceFormatter,
+                snapshot.getCurrentPace(), shownCurrentPace);
 
-    /** Observer method that gets time updates from stopwatch */
-    @Override
-    public void update(Observable o, final Object arg) {
-        activity.runOnUiThread(() -> {
-            TextView timeDisplay = activity.findViewById(R.id.timeDisplay);
-            timeDisplay.setText((String) arg);
-
-            final double milesTraveled = SphericalUtil.computeLength(path.getPoints()) * 0.00062137;
-            final double secondsTaken = stopwatch.elapsedSeconds();
-            final String minutesPerMile = Stopwatch.convertTime(secondsTaken / milesTraveled);
-            TextView paceDisplay = activity.findViewById(R.id.paceDisplay);
-            paceDisplay.setText(milesTraveled < 0.01 ? "-" : minutesPerMile);
-        });
+        // A split only changes when another one is completed.
+        if (snapshot.getSplitCount() != shownSplitCount) {
+            shownSplitCount = snapshot.getSplitCount();
+            if (shownSplitCount == 0) {
+                lastSplitDisplay.setText("-");
+            } else {
+                lastSplitDisplay.setText(splitFormatter.getChars(), 0,
+                        splitFormatter.format(snapshot.getLastSplit()));
+            }
+        }
     }
 
-    /** Returns the current path of the user since they pressed start */
-    public PolylineOptions getPath() {
-        return path;
+    /**
+     * Shows a pace in whole seconds unless view shows it already
+     * @param shown the pace view shows; -1 if none
+     * @return the pace view shows now
+     */
+    private static long showPace(TextView view, DurationFormatter formatter, double pace,
+                                 long shown) {
+        final long seconds = Double.isNaN(pace) ? -1 : (long) pace;
+        if (seconds == shown) return shown;
+
+        if (seconds < 0) {
+            view.setText("-");
+        } else {
+            view.setText(formatter.getChars(), 0, formatter.format(seconds));
+        }
+        return seconds;
     }
-
-    @Override
-    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {}
-
-    @Override
-    public void onConnectionSuspended(int i) {}
 }
@@ -1,56 +1,127 @@
 package com.marcusposey.cadtra.activity;
 
-import android.app.ListActivity;
 import android.content.Context;
 import android.os.Bundle;
-import android.support.annotation.Nullable;
 import android.support.v4.util.Pair;
-import android.util.Log;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.widget.Toast;
 
-import com.google.gson.Gson;
 import com.marcusposey.cadtra.R;
-import com.marcusposey.cadtra.model.RunLog;
 import com.marcusposey.cadtra.model.RunLogAdapter;
-import com.marcusposey.cadtra.net.ApiRequest;
-import com.marcusposey.cadtra.net.RequestFactory;
+import com.marcusposey.cadtra.net.ApiClient;
+import com.marcusposey.cadtra.storage.HistoryRepository;
+
+import java.util.List;
+
+/**
+ * Displays a list of all previous runs, loading more as the user scrolls
+ *
+ * Cached runs are shown first. Runs that synced since the last visit are then
+ * downloaded and inserted above them.
+ */
+public class HistoryActivity extends AppCompatActivity {
+    // The next page is requested when the user scrolls within this many rows of the end.
+    private static final int kPrefetchRows = 5;
+
+    private HistoryRepository repository;
+    private RunLogAdapter adapter;
+    private LinearLayoutManager layoutManager;
+
+    // The in-flight request for run history, or null. Only one runs at a time.
+    private ApiClient.Call pageCall;
+    // True once every log has been added to the list
+    private boolean isComplete = false;
 
-/** Displays a list of all previous runs */
-public class HistoryActivity extends ListActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_history);
 
-        RunLog[] logs = retrieveHistory();
-        if (logs == null) {
-            Context ctx = getApplicationContext();
-            Toast.makeText(ctx, "Run history is empty", Toast.LENGTH_SHORT).show();
-            finish();
-        } else {
-            RunLogAdapter adapter = new RunLogAdapter(this, logs);
-            setListAdapter(adapter);
-        }
+        repository = new HistoryRepository(this);
+        adapter = new RunLogAdapter(this, this::showLog);
+        layoutManager = new LinearLayoutManager(this);
+
+        RecyclerView list = findViewById(R.id.historyList);
+        list.setHasFixedSize(true);
+        list.setLayoutManager(layoutManager);
+        list.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        list.setAdapter(adapter);
+        list.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView view, int dx, int dy) {
+                final int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= adapter.getItemCount() - kPrefetchRows) loadNextPage();
+            }
+        });
+
+        pageCall = ApiClient.getInstance().submit(
+                () -> RunLogAdapter.toRows(repository.getPage(0)), (rows, e) -> {
+            if (rows == null || rows.isEmpty()) {
+                Context ctx = getApplicationContext();
+                Toast.makeText(ctx, "Run history is empty", Toast.LENGTH_SHORT).show();
+                finish();
+            } else {
+                showPage(rows);
+                refresh();
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (pageCall != null) pageCall.cancel();
     }
 
-    /**
-     * Retrieves the user's run history from the server
-     *
-     * This is a blocking request which performs network calls on
-     * a separate thread.
-     */
-    @Nullable
-    private RunLog[] retrieveHistory() {
-        RequestFactory factory = new RequestFactory();
-        try {
-            Pair<Integer, String> resp = new ApiRequest()
-                    .execute(factory.runLogsGet())
-                    .get();
-            if (resp == null || resp.first != 200) return null;
-            return new Gson().fromJson(resp.second, RunLog[].class);
-        } catch (Exception e) {
-            Log.e(HistoryActivity.class.getSimpleName(), e.getMessage());
-            return null;
+    /** Opens the details of a log */
+    private void showLog(long logId) {
+        if (logId == 0) {
+            // Only logs downloaded from the server are stored with their routes.
+            Toast.makeText(this, "This run has not been uploaded yet", Toast.LENGTH_SHORT).show();
+            return;
         }
+        startActivity(RunDetailActivity.createIntent(this, logId));
+    }
+
+    /** Appends the next page of history to the list unless a request is in flight */
+    private void loadNextPage() {
+        if (pageCall != null || isComplete) return;
+
+        final int offset = adapter.getItemCount();
+        pageCall = ApiClient.getInstance().submit(
+                () -> RunLogAdapter.toRows(repository.getPage(offset)), (rows, e) -> {
+            if (rows == null) {
+                pageCall = null;
+                isComplete = true;
+            } else {
+                showPage(rows);
+            }
+        });
+    }
+
+    private void showPage(List<RunLogAdapter.Row> rows) {
+        pageCall = null;
+        if (rows.size() < HistoryRepository.kPageSize) isComplete = true;
+        adapter.append(rows);
+    }
+
+    /** Downloads runs that synced since the cache was last updated and adds them to the list */
+    private void refresh() {
+        final List<RunLogAdapter.Row> oldRows = adapter.getRows();
+        pageCall = ApiClient.getInstance().submit(() -> {
+            final int received = repository.refresh();
+            if (received == 0) return null;
+
+            List<RunLogAdapter.Row> newRows =
+                    RunLogAdapter.toRows(repository.getNewest(oldRows.size() + received));
+            return new Pair<>(newRows, RunLogAdapter.diff(oldRows, newRows));
+        }, (Pair<List<RunLogAdapter.Row>, DiffUtil.DiffResult> update, Exception e) -> {
+            pageCall = null;
+            if (update != null) adapter.replace(update.first, update.second);
+        });
     }
 }
@@ -11,8 +11,13 @@ import android.os.Bundle;
 import android.Manifest;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.Toast;
 
 import com.marcusposey.cadtra.R;
+import com.marcusposey.cadtra.model.Account;
+import com.marcusposey.cadtra.net.ApiClient;
+import com.marcusposey.cadtra.net.RequestFactory;
+import com.marcusposey.cadtra.storage.AccountCache;
 
 /**
  * Manages app permissions and the active session fragment
@@ -27,6 +32,8 @@ public class MainActivity extends AppCompatActivity {
     private final int SIGN_IN_REQUEST = 2;
 
     private ActiveSessionFragment activeSession;
+    // Revalidates the cached account that sign in trusted, if it did
+    private ApiClient.Call revalidationCall;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -36,10 +43,39 @@ public class MainActivity extends AppCompatActivity {
         getSupportActionBar().setDisplayOptions(ActionBar.DISPLAY_SHOW_CUSTOM);
         getSupportActionBar().setCustomView(R.layout.actionbar_main);
 
+        signIn();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (revalidationCall != null) revalidationCall.cancel();
+    }
+
+    /** Starts the sign in activity; its result arrives in onActivityResult */
+    private void signIn() {
         Intent signIn = new Intent(this, SignInActivity.class);
         startActivityForResult(signIn, SIGN_IN_REQUEST);
     }
 
+    /**
+     * Checks the cached account with the server while the session screen is in use
+     *
+     * A changed account replaces the cached one as it arrives. If the server
+     * no longer gives the user an account, the user signs in again. Network
+     * failures leave the cached account in place.
+     */
+    private void revalidateAccount() {
+        revalidationCall = new Account.Factory(new RequestFactory(), AccountCache.getInstance(this))
+                .fromNetwork((account, e) -> {
+                    revalidationCall = null;
+                    if (account != null || e != null) return;
+
+                    Toast.makeText(this, "Authentication failed", Toast.LENGTH_SHORT).show();
+                    signIn();
+                });
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.app_bar_menu, menu);
@@ -100,6 +136,9 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == SIGN_IN_REQUEST && resultCode == Activity.RESULT_OK) {
+            if (data != null && data.getBooleanExtra(SignInActivity.CACHED_ACCOUNT_EXTRA, false)) {
+                revalidateAccount();
+            }
             requestLocationPermission();
         }
     }
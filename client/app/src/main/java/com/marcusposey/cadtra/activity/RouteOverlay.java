@@ -0,0 +1,66 @@
+package com.marcusposey.cadtra.activity;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+import com.marcusposey.cadtra.model.Route;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws a growing Route on a map
+ *
+ * The route is split into Polyline chunks of at most kChunkSize points. When
+ * the route grows, only the newest chunk is handed new points, so each redraw
+ * costs the same no matter how long the run gets. Other overlays on the map
+ * are left alone.
+ */
+class RouteOverlay {
+    // The maximum number of points drawn by a single Polyline
+    private static final int kChunkSize = 256;
+
+    private final GoogleMap map;
+    private final List<Polyline> chunks = new ArrayList<>();
+
+    // The chunk that new points are added to
+    private Polyline current;
+    // The index in the route of the first point in the current chunk
+    private int chunkStart;
+
+    RouteOverlay(GoogleMap map) {
+        this.map = map;
+    }
+
+    /** Draws points that were added to route since the last update */
+    void update(Route route) {
+        final List<LatLng> points = route.getPoints();
+        final int size = points.size();
+        if (size == 0) return;
+
+        if (current == null) current = addChunk();
+        while (size - chunkStart > kChunkSize) {
+            // The current chunk is full. Its last point also begins the next
+            // chunk so that the line stays connected.
+            current.setPoints(points.subList(chunkStart, chunkStart + kChunkSize));
+            chunkStart += kChunkSize - 1;
+            current = addChunk();
+        }
+        current.setPoints(points.subList(chunkStart, size));
+    }
+
+    /** Removes the route from the map */
+    void clear() {
+        for (Polyline chunk : chunks) chunk.remove();
+        chunks.clear();
+        current = null;
+        chunkStart = 0;
+    }
+
+    private Polyline addChunk() {
+        Polyline chunk = map.addPolyline(new PolylineOptions());
+        chunks.add(chunk);
+        return chunk;
+    }
+}
@@ -0,0 +1,146 @@
+package com.marcusposey.cadtra.activity;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v4.util.Pair;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.MapFragment;
+import com.google.android.gms.maps.OnMapReadyCallback;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+import com.marcusposey.cadtra.R;
+import com.marcusposey.cadtra.model.DecodedRoute;
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.ApiClient;
+import com.marcusposey.cadtra.storage.HistoryRepository;
+import com.marcusposey.cadtra.storage.LocalExecutor;
+import com.marcusposey.cadtra.storage.RouteCache;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Shows one run from the history: its route on a map and its results
+ *
+ * The log is read and its polyline decoded on a background thread, and the
+ * decoded route is kept in the RouteCache. The route is drawn with only as
+ * many points as the zoom level can show; the points for a new level are
+ * selected off the main thread when the camera stops moving.
+ */
+public class RunDetailActivity extends AppCompatActivity implements OnMapReadyCallback {
+    public static final String LOG_ID_EXTRA = "LOG_ID";
+
+    // Space, in pixels, between the route and the edges of the map
+    private static final int kBoundsPadding = 64;
+
+    private long logId;
+    // Null until they are ready
+    private GoogleMap map;
+    private DecodedRoute route;
+    // True once the map has been laid out, which fitting bounds needs
+    private boolean isMapLoaded = false;
+
+    private Polyline line;
+    // The whole zoom level line was simplified for; -1 if it has not been drawn
+    private int drawnLevel = -1;
+
+    // Reads the log and decodes its route
+    private ApiClient.Call loadCall;
+    // Simplifies the route for the current zoom level
+    private ApiClient.Call simplifyCall;
+
+    /** Returns an intent that shows the log with the given server id */
+    public static Intent createIntent(Context context, long logId) {
+        return new Intent(context, RunDetailActivity.class).putExtra(LOG_ID_EXTRA, logId);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_run_detail);
+        logId = getIntent().getLongExtra(LOG_ID_EXTRA, 0);
+
+        MapFragment mapFragment = (MapFragment) getFragmentManager().findFragmentById(R.id.detailMap);
+        mapFragment.getMapAsync(this);
+
+        final HistoryRepository repository = new HistoryRepository(this);
+        loadCall = LocalExecutor.getInstance().submit(() -> {
+            final RunLog log = repository.getLog(logId);
+            if (log == null) throw new IOException("Run " + logId + " is not cached");
+            return new Pair<>(log, RouteCache.getInstance().get(logId, log.getPolylinePath()));
+        }, (Pair<RunLog, DecodedRoute> result, Exception e) -> {
+            loadCall = null;
+            if (result == null) {
+                Toast.makeText(getApplicationContext(), "Could not load run", Toast.LENGTH_SHORT)
+                        .show();
+                finish();
+                return;
+            }
+            showResults(result.first);
+            route = result.second;
+            showRoute();
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (loadCall != null) loadCall.cancel();
+        if (simplifyCall != null) simplifyCall.cancel();
+    }
+
+    @Override
+    public void onMapReady(GoogleMap googleMap) {
+        map = googleMap;
+        map.setMapType(GoogleMap.MAP_TYPE_NORMAL);
+        map.setOnCameraIdleListener(this::updateDetail);
+        map.setOnMapLoadedCallback(() -> {
+            isMapLoaded = true;
+            showRoute();
+        });
+    }
+
+    private void showResults(RunLog log) {
+        ((TextView) findViewById(R.id.detailDistance)).setText(log.getDistance());
+        ((TextView) findViewById(R.id.detailTime)).setText(log.getTime());
+        ((TextView) findViewById(R.id.detailPace)).setText(log.getPace());
+        ((TextView) findViewById(R.id.detailFastestPace)).setText(log.getFastestPace());
+    }
+
+    /** Frames the route once both it and the map are ready; drawing follows when the camera stops */
+    private void showRoute() {
+        if (!isMapLoaded || route == null || route.size() == 0) return;
+        map.moveCamera(CameraUpdateFactory.newLatLngBounds(route.getBounds(), kBoundsPadding));
+    }
+
+    /** Redraws the route if the camera moved to another zoom level */
+    private void updateDetail() {
+        if (route == null || route.size() == 0) return;
+
+        // Rounding up errs towards detail.
+        final int level = (int) Math.ceil(map.getCameraPosition().zoom);
+        if (level == drawnLevel) return;
+        drawnLevel = level;
+
+        final DecodedRoute route = this.route;
+        if (simplifyCall != null) simplifyCall.cancel();
+        simplifyCall = LocalExecutor.getInstance().submit(() -> route.getPoints(
+                DecodedRoute.toleranceAt(level, route.getCenterLatitude())),
+                (List<LatLng> points, Exception e) -> {
+            simplifyCall = null;
+            if (points == null) return;
+            if (line == null) {
+                line = map.addPolyline(new PolylineOptions().addAll(points));
+            } else {
+                line.setPoints(points);
+            }
+        });
+    }
+}
@@ -1,88 +1,81 @@
 package com.marcusposey.cadtra.activity;
 
 import android.support.annotation.Nullable;
-import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 
 import com.marcusposey.cadtra.R;
-import com.marcusposey.cadtra.model.RunLog;
-import com.marcusposey.cadtra.model.Stopwatch;
-import com.marcusposey.cadtra.net.ApiRequest;
-import com.marcusposey.cadtra.net.RequestFactory;
+import com.marcusposey.cadtra.model.SamplingPolicy;
+import com.marcusposey.cadtra.service.TrackingService;
 
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-
-/** Responds to user button input by triggering state change in ActiveSessionFragment */
+/** Responds to user button input by triggering state change in the TrackingService */
 public class SessionController {
     @FunctionalInterface
     public interface CompletionListener {
         /**
-         * Called after the user ends the session and the data has been uploaded
-         * to the remote server.
-         * @param e Not null if the upload failed; null otherwise
+         * Called on the main thread after the user ends the session and the data
+         * has been saved to the device. Uploading to the remote server happens
+         * later, in the background.
+         * @param e Not null if the session could not be saved; null otherwise
          */
-        void onPostNetRequest(@Nullable Exception e);
+        void onSessionSaved(@Nullable Exception e);
     }
 
-    // UTC timestamp of when the current session started
-    private String startTimestamptz;
-
     private ActiveSessionFragment parent;
-    private Stopwatch stopwatch;
     private CompletionListener listener;
 
-    public SessionController(ActiveSessionFragment parent, Stopwatch stopwatch,
-                             CompletionListener listener) {
+    // The service that runs the session; null until the parent binds to it
+    @Nullable
+    private TrackingService service;
+
+    public SessionController(ActiveSessionFragment parent, CompletionListener listener) {
         this.parent = parent;
-        this.stopwatch = stopwatch;
         this.listener = listener;
     }
 
+    /**
+     * Sets the service the buttons control and makes them show its session,
+     * which may have been started before the parent was created
+     * @param service null if the parent has unbound from it
+     */
+    public void bind(@Nullable TrackingService service, Button startStop, Button pauseResume) {
+        this.service = service;
+        if (service == null) return;
+
+        final SamplingPolicy.State state = service.getEngine().getState();
+        startStop.setText(parent.getString(
+                state == SamplingPolicy.State.IDLE ? R.string.Start : R.string.Stop));
+        pauseResume.setText(parent.getString(
+                state == SamplingPolicy.State.PAUSED ? R.string.Resume : R.string.Pause));
+    }
+
     /** Pauses or resumes the current session */
     public void onPauseResume(View view) {
+        if (service == null || service.isSaving()) return;
+
         Button button = (Button) view;
-        if (button.getText() == parent.getString(R.string.Pause) && stopwatch.isRunning()) {
+        final SamplingPolicy.State state = service.getEngine().getState();
+        if (state == SamplingPolicy.State.RUNNING) {
             button.setText(parent.getString(R.string.Resume));
-            stopwatch.stop();
+            service.pauseSession();
         }
-        else if (button.getText() == parent.getString(R.string.Resume) && !stopwatch.isRunning()) {
+        else if (state == SamplingPolicy.State.PAUSED) {
             button.setText(parent.getString(R.string.Pause));
-            stopwatch.start();
+            service.resumeSession();
         }
     }
 
-    /** Starts a run if none is in progress or stops the current one and prompts to save results */
+    /** Starts a run if none is in progress or stops the current one and saves its results */
     public void onStartStop(View view) {
+        if (service == null || service.isSaving()) return;
+
         Button button = (Button) view;
-        if (button.getText() == parent.getString(R.string.Start)) {
-            startTimestamptz = new DateTime(DateTimeZone.UTC).toString();
-            Log.i("time", startTimestamptz);
-            stopwatch.start();
+        if (!service.getEngine().isInProgress()) {
+            service.startSession();
             button.setText(parent.getString(R.string.Stop));
             return;
         }
 
-        uploadSession();
-    }
-
-    /** Uploads session results to the remote server */
-    private void uploadSession() {
-        stopwatch.stop();
-
-        RunLog log = new RunLog.Builder()
-                .addTimeSegment(startTimestamptz, new DateTime(DateTimeZone.UTC).toString())
-                .addRoute(parent.getPath().getPoints())
-                .addDuration(stopwatch.elapsedSeconds())
-                .build();
-
-        RequestFactory factory = new RequestFactory(parent.getActivity());
-        try {
-            new ApiRequest().execute(factory.runLogPost(log)).get();
-            listener.onPostNetRequest(null);
-        } catch (Exception e) {
-            listener.onPostNetRequest(e);
-        }
+        service.finishSession(listener::onSessionSaved);
     }
 }
@@ -11,19 +11,20 @@ import android.widget.Toast;
 
 import com.google.android.gms.auth.api.Auth;
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
 import com.google.android.gms.auth.api.signin.GoogleSignInResult;
 import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.Scopes;
 import com.google.android.gms.common.SignInButton;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.OptionalPendingResult;
 import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.common.api.Scope;
 import com.marcusposey.cadtra.R;
 import com.marcusposey.cadtra.model.Account;
+import com.marcusposey.cadtra.net.ApiClient;
+import com.marcusposey.cadtra.net.GoogleTokenRefresher;
 import com.marcusposey.cadtra.net.RequestFactory;
 import com.marcusposey.cadtra.net.TokenStore;
+import com.marcusposey.cadtra.storage.AccountCache;
+import com.marcusposey.cadtra.storage.LocalExecutor;
 
 /**
  * Acquires a Google Id Token from the user
@@ -38,17 +39,20 @@ public class SignInActivity extends AppCompatActivity implements
     /** Denotes the method used to carry out the sign in process */
     private enum Method { SILENT, EXPLICIT }
 
-    // Extra key which indicates the activity was started solely to refresh an id token
-    public static final String REFRESH_REQUEST = "REFRESH_REQUEST";
-
     // The key for the intent extra that stores a Google Id token
     public static final String TOKEN_EXTRA = "TOKEN_EXTRA";
+    // The key for an intent extra that is true if sign in trusted the cached
+    // account; the caller should revalidate it with Account.Factory.fromNetwork
+    public static final String CACHED_ACCOUNT_EXTRA = "CACHED_ACCOUNT_EXTRA";
 
     // Request code for a Google Sign-In activity result
     private static final int RC_SIGN_IN = 9001;
 
     private GoogleApiClient googleApiClient;
 
+    // Reads or retrieves the user's account after a successful sign in
+    private ApiClient.Call accountCall;
+
     /** Requests necessary sign in scopes and starts a silent sign-in process */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -59,6 +63,12 @@ public class SignInActivity extends AppCompatActivity implements
         signIn(Method.SILENT);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (accountCall != null) accountCall.cancel();
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -90,22 +100,40 @@ public class SignInActivity extends AppCompatActivity implements
     private void handleSignInSuccess(GoogleSignInAccount acct) {
         Log.v("SignInActivity", acct.getIdToken());
 
+        // Later tokens are renewed in the background, without this activity.
+        GoogleTokenRefresher.install(this);
         TokenStore.getInstance().setIdToken(acct.getIdToken());
 
-        if (!getIntent().getBooleanExtra(REFRESH_REQUEST, false)) {
-            // Maybe we'll need this later to display their picture
-            // or name in the UI.
-            Account userAccount = new Account.Factory(new RequestFactory(this))
-                    .fromNetwork();
-            if (userAccount == null) {
-                Toast.makeText(this, "Authentication failed", Toast.LENGTH_SHORT)
-                    .show();
-                return;
-            }
-        }
+        // Maybe we'll need this later to display their picture
+        // or name in the UI.
+        final Account.Factory accounts =
+                new Account.Factory(new RequestFactory(), AccountCache.getInstance(this));
+        accountCall = LocalExecutor.getInstance().submit(
+                () -> accounts.fromLocalCache(acct.getEmail()), (cachedAccount, e) -> {
+                    if (cachedAccount != null) {
+                        // The cached account is enough to start with; the caller revalidates it.
+                        finishSignIn(acct, true);
+                        return;
+                    }
+                    accountCall = accounts.fromNetwork((userAccount, err) -> {
+                        if (userAccount == null) {
+                            Toast.makeText(this, "Authentication failed", Toast.LENGTH_SHORT)
+                                    .show();
+                            return;
+                        }
+                        finishSignIn(acct, false);
+                    });
+                });
+    }
 
+    /**
+     * Returns the id token to the activity that started sign in
+     * @param isCachedAccount true if the account was read from the cache, not the server
+     */
+    private void finishSignIn(GoogleSignInAccount acct, boolean isCachedAccount) {
         Intent intent = new Intent();
         intent.putExtra(TOKEN_EXTRA, acct.getIdToken());
+        intent.putExtra(CACHED_ACCOUNT_EXTRA, isCachedAccount);
         setResult(Activity.RESULT_OK, intent);
         finish();
     }
@@ -140,23 +168,12 @@ public class SignInActivity extends AppCompatActivity implements
 
     /**
      * Creates a GoogleApiClient for the sign in process
-     * The client will request the following scopes:
-     *  - Profile
-     *  - Email
-     * It will include access to an id token made by Google.
+     * See GoogleTokenRefresher.createSignInOptions for the scopes it requests.
      */
     private GoogleApiClient createApiClient() {
-        GoogleSignInOptions gso = new GoogleSignInOptions
-                .Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
-                .requestScopes(new Scope(Scopes.PROFILE))
-                .requestScopes(new Scope(Scopes.EMAIL))
-                .requestProfile()
-                .requestEmail()
-                .requestIdToken(getString(R.string.server_client_id))
-                .build();
         return new GoogleApiClient.Builder(this)
                 .enableAutoManage(this, this)
-                .addApi(Auth.GOOGLE_SIGN_IN_API, gso)
+                .addApi(Auth.GOOGLE_SIGN_IN_API, GoogleTokenRefresher.createSignInOptions(this))
                 .build();
     }
 
@@ -1,13 +1,24 @@
 package com.marcusposey.cadtra.model;
 
 import android.support.annotation.Nullable;
-import android.support.v4.util.Pair;
 import android.util.Log;
 
-import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
-import com.marcusposey.cadtra.net.ApiRequest;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.marcusposey.cadtra.net.ApiClient;
+import com.marcusposey.cadtra.net.Json;
 import com.marcusposey.cadtra.net.RequestFactory;
+import com.marcusposey.cadtra.storage.AccountCache;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 
 /** Stores information about the user */
 public class Account {
@@ -22,43 +33,143 @@ public class Account {
     private String since;
     private String country;
 
+    /**
+     * Converts accounts to and from JSON without reflection
+     *
+     * Null fields are left out as Gson does by default, and unknown and null
+     * fields are skipped when reading. Register it with Gson through net.Json.
+     */
+    public static class GsonAdapter extends TypeAdapter<Account> {
+        @Override
+        public void write(JsonWriter out, Account account) throws IOException {
+            if (account == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("id").value(account.id);
+            if (account.email != null) out.name("email").value(account.email);
+            if (account.name != null) out.name("name").value(account.name);
+            if (account.avatarURL != null) out.name("avatar").value(account.avatarURL);
+            if (account.since != null) out.name("since").value(account.since);
+            if (account.country != null) out.name("country").value(account.country);
+            out.endObject();
+        }
+
+        @Override
+        public Account read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            Account account = new Account();
+            in.beginObject();
+            while (in.hasNext()) {
+                final String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case "id": account.id = in.nextLong(); break;
+                    case "email": account.email = in.nextString(); break;
+                    case "name": account.name = in.nextString(); break;
+                    case "avatar": account.avatarURL = in.nextString(); break;
+                    case "since": account.since = in.nextString(); break;
+                    case "country": account.country = in.nextString(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return account;
+        }
+    }
+
     /** Creates Account objects using data from various sources */
     public static class Factory {
         private RequestFactory req;
+        // Keeps the last account retrieved; null to not cache accounts
+        @Nullable
+        private AccountCache cache;
 
         public Factory(RequestFactory req) {
+            this(req, null);
+        }
+
+        /** Creates a factory that keeps the accounts it retrieves in cache */
+        public Factory(RequestFactory req, @Nullable AccountCache cache) {
             this.req = req;
+            this.cache = cache;
         }
 
         /**
          * Retrieves an existing account from the server
-         * One is created if the user is new.
-         * @return null if an account cannot be retrieved
+         * One is created if the user is new. The network calls are made in
+         * the background, and the account is given to callback on the main
+         * thread. The result is null if an account cannot be retrieved.
+         *
+         * If the factory has a cache, the request is conditional: a cached
+         * account that is still current is not downloaded again. If the
+         * server answers without an account, the cached one is forgotten.
+         */
+        public ApiClient.Call fromNetwork(ApiClient.Callback<Account> callback) {
+            return ApiClient.getInstance().submit(() -> {
+                final ApiClient client = ApiClient.getInstance();
+                final String etag = cache == null ? null : cache.getETag();
+
+                // 200 == account exists and is in the response body
+                Account account = client.execute(req.accountGet(etag),
+                        resp -> readAccount(resp, 200));
+                if (account != null) return account;
+                // 201 == account was created and is in response body
+                account = client.execute(req.accountPost(), resp -> readAccount(resp, 201));
+                if (account == null && cache != null) cache.clear();
+                return account;
+            }, callback);
+        }
+
+        /**
+         * Returns the cached account of the user with the given email
+         *
+         * The cache is read from disk the first time, but it is small enough
+         * that this need not wait for a background thread.
+         * @return null if the factory has no cache or it holds no account for email
+         */
+        @Nullable
+        public Account fromLocalCache(String email) {
+            final Account account = cache == null ? null : cache.get();
+            return account != null && email != null && email.equalsIgnoreCase(account.email)
+                    ? account : null;
+        }
+
+        /**
+         * Reads the account in a response and caches it
+         * @param successCode the response code of a response that holds an account
+         * @return null if the response holds no account
          */
         @Nullable
-        public Account fromNetwork() {
-            Gson gson = new Gson();
+        private Account readAccount(HttpResponse resp, int successCode) throws IOException {
+            final int code = resp.getStatusLine().getStatusCode();
+            // 304 == the cached account is current
+            if (code == 304 && cache != null) return cache.get();
+            if (code != successCode || resp.getEntity() == null) return null;
+
+            final TypeAdapter<Account> adapter = Json.getGson().getAdapter(Account.class);
+            final Account account = adapter.fromJson(new InputStreamReader(
+                    resp.getEntity().getContent(), StandardCharsets.UTF_8));
+            if (account == null || cache == null) return account;
+
+            final Header etag = resp.getFirstHeader("ETag");
             try {
-                Pair<Integer, String> resp = new ApiRequest()
-                        .execute(req.accountGet())
-                        .get();
-                if (resp.first == 200) {
-                    // 200 == account exists and is in the response body
-                    return gson.fromJson(resp.second, Account.class);
-                }
-                resp = new ApiRequest()
-                        .execute(req.accountPost())
-                        .get();
-                if (resp.first == 201) {
-                    // 200 == account was created and is in response body
-                    return gson.fromJson(resp.second, Account.class);
-                }
-            } catch (Exception e) {
-                Log.e(Factory.class.getSimpleName(), e.getMessage());
+                cache.put(account, etag == null ? null : etag.getValue());
+            } catch (IOException e) {
+                // The account is still good; it will be downloaded again next time.
+                Log.e(Account.class.getSimpleName(), e.getMessage());
             }
-            return null;
+            return account;
         }
-
-        // Todo: fromLocalCache()
     }
 }
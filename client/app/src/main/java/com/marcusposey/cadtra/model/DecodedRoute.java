@@ -0,0 +1,199 @@
+package com.marcusposey.cadtra.model;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A stored route, decoded from its polyline and ready to draw at any zoom
+ *
+ * Decoding ranks every point once with Douglas-Peucker: a point's
+ * significance is the tolerance, in meters, below which the simplification
+ * keeps it. Simplifying for a zoom level then only selects the points whose
+ * significance exceeds that level's tolerance, without rerunning the
+ * algorithm. Points are held in primitive arrays, so a decoded route is
+ * small enough to cache.
+ *
+ * Decoding takes O(n log n) time for typical routes, so it should happen
+ * away from the UI thread.
+ */
+public class DecodedRoute {
+    // Meters per density-independent pixel at zoom level 0 on the equator
+    private static final double kMetersPerDpAtZoom0 = 156543.03392;
+    // Meters per degree of latitude on a sphere with SphericalUtil's radius
+    private static final double kMetersPerDegree = 6371009 * Math.PI / 180;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] significance;
+    private final int size;
+
+    private DecodedRoute(double[] latitudes, double[] longitudes, int size) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.size = size;
+        significance = rank(latitudes, longitudes, size);
+    }
+
+    /**
+     * Decodes a polyline made with Google's polyline algorithm
+     * @throws IllegalArgumentException if the polyline is malformed
+     */
+    public static DecodedRoute decode(String polyline) {
+        // Each point takes at least two characters.
+        double[] latitudes = new double[polyline.length() / 2];
+        double[] longitudes = new double[latitudes.length];
+
+        int size = 0;
+        long lat = 0, lng = 0;
+        int[] position = {0};
+        while (position[0] < polyline.length()) {
+            lat += nextValue(polyline, position);
+            lng += nextValue(polyline, position);
+            latitudes[size] = lat * 1e-5;
+            longitudes[size] = lng * 1e-5;
+            size++;
+        }
+        return new DecodedRoute(latitudes, longitudes, size);
+    }
+
+    /** Reads one zigzag value that starts at position[0] and moves position past it */
+    private static long nextValue(String polyline, int[] position) {
+        long value = 0;
+        int shift = 0;
+        int i = position[0];
+        while (true) {
+            if (i == polyline.length() || shift > 60) {
+                throw new IllegalArgumentException("Malformed polyline");
+            }
+            final int chunk = polyline.charAt(i++) - 63;
+            if (chunk < 0 || chunk > 0x3f) throw new IllegalArgumentException("Malformed polyline");
+            value |= (long) (chunk & 0x1f) << shift;
+            if (chunk < 0x20) break;
+            shift += 5;
+        }
+        position[0] = i;
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Returns the significance of each point
+     * The ends are always kept. Any other point is as significant as its
+     * distance from the segment that replaces it, but never more than the
+     * point that split that segment off, so that every tolerance selects the
+     * same points Douglas-Peucker would.
+     */
+    private static double[] rank(double[] latitudes, double[] longitudes, int size) {
+        double[] significance = new double[size];
+        if (size == 0) return significance;
+        significance[0] = Double.POSITIVE_INFINITY;
+        significance[size - 1] = Double.POSITIVE_INFINITY;
+
+        // Routes cover little ground, so one scale for longitude serves them all.
+        final double lngScale = Math.cos(Math.toRadians(latitudes[0]));
+        // Segments still to split, as (first, last) index pairs
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0) {
+            final int last = stack[--top];
+            final int first = stack[--top];
+            if (last - first < 2) continue;
+
+            final double ceiling = Math.min(significance[first], significance[last]);
+            int farthest = first + 1;
+            double maxDistance = -1;
+            for (int i = first + 1; i < last; i++) {
+                final double d = distance(latitudes, longitudes, lngScale, i, first, last);
+                if (d > maxDistance) {
+                    maxDistance = d;
+                    farthest = i;
+                }
+            }
+            significance[farthest] = Math.min(maxDistance, ceiling);
+
+            if (stack.length - top < 4) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = first;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = last;
+        }
+        return significance;
+    }
+
+    /** Returns the distance in meters from point i to the segment between first and last */
+    private static double distance(double[] latitudes, double[] longitudes, double lngScale,
+                                   int i, int first, int last) {
+        final double x = (longitudes[i] - longitudes[first]) * lngScale * kMetersPerDegree;
+        final double y = (latitudes[i] - latitudes[first]) * kMetersPerDegree;
+        final double dx = (longitudes[last] - longitudes[first]) * lngScale * kMetersPerDegree;
+        final double dy = (latitudes[last] - latitudes[first]) * kMetersPerDegree;
+
+        final double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : (x * dx + y * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(x - t * dx, y - t * dy);
+    }
+
+    /**
+     * Returns the tolerance, in meters, under which simplification cannot be
+     * seen at a zoom level: the ground covered by one density-independent pixel
+     */
+    public static double toleranceAt(double zoom, double latitude) {
+        return kMetersPerDpAtZoom0 * Math.cos(Math.toRadians(latitude)) / Math.pow(2, zoom);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of points that getPoints(tolerance) would return */
+    public int countPoints(double tolerance) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (significance[i] > tolerance) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the route simplified to within tolerance meters
+     * @param tolerance 0 keeps every point that is not on a straight line
+     */
+    public List<LatLng> getPoints(double tolerance) {
+        List<LatLng> points = new ArrayList<>(countPoints(tolerance));
+        for (int i = 0; i < size; i++) {
+            if (significance[i] > tolerance) points.add(new LatLng(latitudes[i], longitudes[i]));
+        }
+        return points;
+    }
+
+    /** Returns the latitude the route is centered on; 0 if it is empty */
+    public double getCenterLatitude() {
+        return (min(latitudes, size) + max(latitudes, size)) / 2;
+    }
+
+    /** Returns the smallest bounds that hold the route; it must not be empty */
+    public LatLngBounds getBounds() {
+        return LatLngBounds.builder()
+                .include(new LatLng(min(latitudes, size), min(longitudes, size)))
+                .include(new LatLng(max(latitudes, size), max(longitudes, size)))
+                .build();
+    }
+
+    private static double min(double[] values, int size) {
+        double min = size == 0 ? 0 : values[0];
+        for (int i = 1; i < size; i++) min = Math.min(min, values[i]);
+        return min;
+    }
+
+    private static double max(double[] values, int size) {
+        double max = size == 0 ? 0 : values[0];
+        for (int i = 1; i < size; i++) max = Math.max(max, values[i]);
+        return max;
+    }
+}
@@ -0,0 +1,75 @@
+package com.marcusposey.cadtra.model;
+
+/**
+ * Formats durations as H:MM:SS, or MM:SS if less than an hour
+ *
+ * An instance writes into its own char array, which can be handed straight
+ * to TextView.setText(char[], int, int). Formatting this way creates no
+ * objects, so it can run on every stopwatch tick. An instance is not safe
+ * to share between threads.
+ *
+ * Seconds are rounded down. Negative and NaN durations are shown as 00:00.
+ */
+public class DurationFormatter {
+    // Enough room for Long.MAX_VALUE seconds
+    private final char[] chars = new char[24];
+    private int length;
+
+    /**
+     * Formats a duration into getChars()
+     * @return the number of chars written
+     */
+    public int format(double seconds) {
+        length = write(chars, toWholeSeconds(seconds));
+        return length;
+    }
+
+    /** Returns the chars written by the last call to format(double) */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /** Returns the number of chars written by the last call to format(double) */
+    public int length() {
+        return length;
+    }
+
+    /** Returns a formatted duration as a new String */
+    public static String toString(double seconds) {
+        char[] chars = new char[24];
+        return new String(chars, 0, write(chars, toWholeSeconds(seconds)));
+    }
+
+    private static long toWholeSeconds(double seconds) {
+        // Also catches NaN, for which every comparison is false
+        if (!(seconds > 0)) return 0;
+        return (long) seconds;
+    }
+
+    /** Writes seconds into out from the front and returns the number of chars used */
+    private static int write(char[] out, long seconds) {
+        final long hours = seconds / 3600;
+        final int minutes = (int) (seconds / 60 % 60);
+        final int secs = (int) (seconds % 60);
+
+        int pos = 0;
+        if (hours > 0) {
+            // Digits are produced backwards, so count them first.
+            int digits = 1;
+            for (long rest = hours / 10; rest > 0; rest /= 10) digits++;
+            long rest = hours;
+            for (int i = digits - 1; i >= 0; i--) {
+                out[i] = (char) ('0' + rest % 10);
+                rest /= 10;
+            }
+            pos = digits;
+            out[pos++] = ':';
+        }
+        out[pos++] = (char) ('0' + minutes / 10);
+        out[pos++] = (char) ('0' + minutes % 10);
+        out[pos++] = ':';
+        out[pos++] = (char) ('0' + secs / 10);
+        out[pos++] = (char) ('0' + secs % 10);
+        return pos;
+    }
+}
@@ -0,0 +1,29 @@
+package com.marcusposey.cadtra.model;
+
+/**
+ * A location fix on its way through a FixPipeline
+ *
+ * Fixes are mutable so that one instance can carry every location update,
+ * and so that pipeline stages can adjust a fix in place.
+ */
+public class Fix {
+    public double latitude;
+    public double longitude;
+    // When the fix was taken, in epoch milliseconds
+    public long time;
+    // When the fix was taken, according to a monotonic clock, in nanoseconds
+    public long elapsedNanos;
+    // Radius of the fix's accuracy, in meters
+    public float accuracy;
+
+    /** Replaces every field of the fix and returns it */
+    public Fix set(double latitude, double longitude, long time, long elapsedNanos,
+                   float accuracy) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.time = time;
+        this.elapsedNanos = elapsedNanos;
+        this.accuracy = accuracy;
+        return this;
+    }
+}
@@ -0,0 +1,140 @@
+package com.marcusposey.cadtra.model;
+
+/**
+ * Decides which location fixes are good enough to become part of a route
+ *
+ * A fix passes through each stage in order. Any stage can drop it, e.g.
+ * because it is too inaccurate, or adjust it, e.g. to smooth out noise.
+ * Only fixes that make it through every stage should be added to the route,
+ * which keeps GPS jitter out of the distance and the stored path.
+ */
+public class FixPipeline {
+    /** One step of a pipeline */
+    public interface Stage {
+        /**
+         * Examines a fix and possibly changes it
+         * @return false to drop the fix; true to pass it to the next stage
+         */
+        boolean process(Fix fix);
+
+        /** Forgets every fix seen so far, e.g. when a new session starts */
+        void reset();
+    }
+
+    /** Drops fixes whose accuracy radius is too large */
+    public static class AccuracyGate implements Stage {
+        private final float maxAccuracy;
+
+        /** @param maxAccuracy the largest accuracy radius, in meters, that is kept */
+        public AccuracyGate(float maxAccuracy) {
+            this.maxAccuracy = maxAccuracy;
+        }
+
+        @Override
+        public boolean process(Fix fix) {
+            return fix.accuracy <= maxAccuracy;
+        }
+
+        @Override
+        public void reset() {}
+    }
+
+    /**
+     * Drops fixes that do not show believable movement
+     *
+     * A fix is dropped if it is closer to the last kept fix than either
+     * minDisplacement or its own accuracy radius, which removes the jitter
+     * of a runner who is standing still. It is also dropped if reaching it
+     * would have taken a speed above maxSpeed. If several fixes in a row are
+     * too fast, the runner really did move (or the kept fix was the bad
+     * one), so the next fix is kept regardless.
+     */
+    public static class MotionGate implements Stage {
+        // The number of too-fast fixes dropped before the gate gives in
+        private static final int kMaxSpeedRejections = 5;
+
+        private final double minDisplacement;
+        private final double maxSpeed;
+
+        private boolean hasLast = false;
+        private double lastLatitude;
+        private double lastLongitude;
+        private long lastNanos;
+        private int speedRejections;
+
+        /**
+         * @param minDisplacement meters that a fix must move from the last kept one
+         * @param maxSpeed meters per second that a fix must not exceed
+         */
+        public MotionGate(double minDisplacement, double maxSpeed) {
+            this.minDisplacement = minDisplacement;
+            this.maxSpeed = maxSpeed;
+        }
+
+        @Override
+        public boolean process(Fix fix) {
+            if (hasLast) {
+                final double meters = Route.computeDistance(lastLatitude, lastLongitude,
+                        fix.latitude, fix.longitude);
+                if (meters < minDisplacement || meters < fix.accuracy) return false;
+
+                final double seconds = (fix.elapsedNanos - lastNanos) / 1e9;
+                final boolean isTooFast = seconds <= 0 || meters / seconds > maxSpeed;
+                if (isTooFast && ++speedRejections <= kMaxSpeedRejections) return false;
+            }
+
+            hasLast = true;
+            lastLatitude = fix.latitude;
+            lastLongitude = fix.longitude;
+            lastNanos = fix.elapsedNanos;
+            speedRejections = 0;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            hasLast = false;
+            speedRejections = 0;
+        }
+    }
+
+    // Fixes less accurate than this are of no use to a runner.
+    public static final float kMaxAccuracy = 30;
+    // Shorter steps are mostly noise, even after smoothing.
+    public static final double kMinDisplacement = 5;
+    // Faster than any runner
+    public static final double kMaxSpeed = 12;
+
+    private final Stage[] stages;
+
+    public FixPipeline(Stage... stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * Creates a pipeline that drops inaccurate fixes, smooths the rest, and
+     * then drops those that show no real movement
+     */
+    public static FixPipeline createDefault() {
+        return new FixPipeline(
+                new AccuracyGate(kMaxAccuracy),
+                new KalmanSmoother(KalmanSmoother.kDefaultAccelerationVariance),
+                new MotionGate(kMinDisplacement, kMaxSpeed));
+    }
+
+    /**
+     * Passes a fix through every stage
+     * @return true if the fix should be added to the route; it may have been changed
+     */
+    public boolean process(Fix fix) {
+        for (Stage stage : stages) {
+            if (!stage.process(fix)) return false;
+        }
+        return true;
+    }
+
+    /** Resets every stage */
+    public void reset() {
+        for (Stage stage : stages) stage.reset();
+    }
+}
@@ -0,0 +1,103 @@
+package com.marcusposey.cadtra.model;
+
+/**
+ * Smooths fixes with a constant-velocity Kalman filter
+ *
+ * Positions are tracked in meters east and north of the first fix, and each
+ * axis has its own position and velocity. A fix's accuracy radius is used as
+ * its measurement error. Both axes see the same errors and time steps, so
+ * they share one covariance matrix.
+ *
+ * The smoothed position replaces the fix's coordinates, and its accuracy
+ * becomes the filter's estimated position error. If fixes stop arriving for
+ * longer than kMaxGapNanos, the filter starts over at the next fix.
+ */
+public class KalmanSmoother implements FixPipeline.Stage {
+    // Lets a runner change speed by about 1 m/s every second
+    public static final double kDefaultAccelerationVariance = 1;
+
+    private static final long kMaxGapNanos = 10 * 1000000000L;
+    // The speed of a new track is unknown, but it is probably below 5 m/s.
+    private static final double kInitialSpeedVariance = 25;
+    // Meters per degree of latitude on a sphere with SphericalUtil's radius
+    private static final double kMetersPerDegree = 6371009 * Math.PI / 180;
+
+    private final double accelerationVariance;
+
+    private boolean hasTrack = false;
+    // The origin of the local coordinates and the length of a degree of longitude there
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerLngDegree;
+    private long lastNanos;
+
+    // State of each axis: position in meters and velocity in meters per second
+    private double east, eastVelocity;
+    private double north, northVelocity;
+    // Shared covariance: position, position-velocity, velocity
+    private double pp, pv, vv;
+
+    /** @param accelerationVariance how erratically the runner may change speed, in m^2/s^4 */
+    public KalmanSmoother(double accelerationVariance) {
+        this.accelerationVariance = accelerationVariance;
+    }
+
+    @Override
+    public boolean process(Fix fix) {
+        final double measurementVariance = (double) fix.accuracy * fix.accuracy;
+        final double dt = (fix.elapsedNanos - lastNanos) / 1e9;
+        if (!hasTrack || dt <= 0 || fix.elapsedNanos - lastNanos > kMaxGapNanos) {
+            startTrack(fix, measurementVariance);
+            return true;
+        }
+        lastNanos = fix.elapsedNanos;
+
+        // Predict
+        east += eastVelocity * dt;
+        north += northVelocity * dt;
+        final double dt2 = dt * dt;
+        final double q = accelerationVariance;
+        pp += dt * (2 * pv + dt * vv) + q * dt2 * dt2 / 4;
+        pv += dt * vv + q * dt2 * dt / 2;
+        vv += q * dt2;
+
+        // Update
+        final double s = pp + measurementVariance;
+        final double positionGain = pp / s;
+        final double velocityGain = pv / s;
+        final double eastError = (fix.longitude - originLongitude) * metersPerLngDegree - east;
+        final double northError = (fix.latitude - originLatitude) * kMetersPerDegree - north;
+        east += positionGain * eastError;
+        eastVelocity += velocityGain * eastError;
+        north += positionGain * northError;
+        northVelocity += velocityGain * northError;
+        vv -= velocityGain * pv;
+        pv *= 1 - positionGain;
+        pp *= 1 - positionGain;
+
+        fix.longitude = originLongitude + east / metersPerLngDegree;
+        fix.latitude = originLatitude + north / kMetersPerDegree;
+        fix.accuracy = (float) Math.sqrt(pp);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        hasTrack = false;
+    }
+
+    /** Places the filter at fix, with no idea of how fast it is moving */
+    private void startTrack(Fix fix, double measurementVariance) {
+        hasTrack = true;
+        originLatitude = fix.latitude;
+        originLongitude = fix.longitude;
+        metersPerLngDegree = kMetersPerDegree * Math.cos(Math.toRadians(fix.latitude));
+        lastNanos = fix.elapsedNanos;
+
+        east = north = 0;
+        eastVelocity = northVelocity = 0;
+        pp = measurementVariance;
+        pv = 0;
+        vv = kInitialSpeedVariance;
+    }
+}
@@ -0,0 +1,132 @@
+package com.marcusposey.cadtra.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the runner's current pace from the last stretch of a session
+ *
+ * The estimator keeps the route's running distance and the stopwatch's
+ * elapsed time at recent fixes in a fixed ring buffer. The stretch is a
+ * window of either active time or distance. The current pace spans from the
+ * newest sample back to the latest sample at or before the start of the
+ * window, so it follows changes of speed instead of being diluted by the
+ * whole session. Each sample is added and dropped once, so an update takes
+ * constant amortized time, and nothing is allocated after construction.
+ *
+ * If fixes arrive faster than capacity per window, the oldest samples are
+ * dropped early and the window is shorter than asked for. Paces are in
+ * seconds per meter and are NaN when unknown.
+ */
+public class PaceEstimator {
+    public static final long kDefaultWindowNanos = TimeUnit.SECONDS.toNanos(30);
+    // Room for one fix per second over the default window, with slack
+    public static final int kDefaultCapacity = 64;
+    // The distance below which a pace is mostly GPS noise
+    private static final double kMinMeters = 10;
+
+    // The window is windowNanos of active time, or windowMeters if that is positive.
+    private final long windowNanos;
+    private final double windowMeters;
+    // How long after the newest fix its pace is still current
+    private final long staleNanos;
+    private final long[] nanos;
+    private final double[] meters;
+    // Index of the oldest sample and the number of samples
+    private int head;
+    private int size;
+
+    private double pace = Double.NaN;
+    private double fastestPace = Double.NaN;
+
+    /** Creates an estimator with a 30 second window */
+    public PaceEstimator() {
+        this(kDefaultWindowNanos, kDefaultCapacity);
+    }
+
+    /**
+     * @param windowNanos the span of active time the current pace covers
+     * @param capacity the most samples kept; at least 2
+     */
+    public PaceEstimator(long windowNanos, int capacity) {
+        this(windowNanos, 0, windowNanos, capacity);
+    }
+
+    private PaceEstimator(long windowNanos, double windowMeters, long staleNanos, int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity < 2");
+        this.windowNanos = windowNanos;
+        this.windowMeters = windowMeters;
+        this.staleNanos = staleNanos;
+        nanos = new long[capacity];
+        meters = new double[capacity];
+    }
+
+    /**
+     * Creates an estimator whose current pace covers the last stretch of
+     * distance, e.g. the last 400 meters
+     *
+     * The pace is unknown once no fix has been added for 30 seconds of
+     * active time, as with the default window.
+     * @param windowMeters the distance the current pace covers
+     * @param capacity the most samples kept; at least 2
+     */
+    public static PaceEstimator overDistance(double windowMeters, int capacity) {
+        if (!(windowMeters > 0)) throw new IllegalArgumentException("windowMeters <= 0");
+        return new PaceEstimator(0, windowMeters, kDefaultWindowNanos, capacity);
+    }
+
+    /**
+     * Records the progress of the session at a fix
+     * @param meters the total distance covered, which never decreases
+     * @param elapsedNanos the active time of the session, e.g. Stopwatch.elapsedNanos()
+     */
+    public void add(double meters, long elapsedNanos) {
+        if (size == nanos.length) drop();
+        final int tail = (head + size) % nanos.length;
+        this.nanos[tail] = elapsedNanos;
+        this.meters[tail] = meters;
+        size++;
+
+        // Keep one sample at or before the start of the window.
+        if (windowMeters > 0) {
+            final double windowStart = meters - windowMeters;
+            while (size > 2 && this.meters[(head + 1) % nanos.length] <= windowStart) drop();
+        } else {
+            final long windowStart = elapsedNanos - windowNanos;
+            while (size > 2 && nanos[(head + 1) % nanos.length] <= windowStart) drop();
+        }
+
+        final long spanNanos = elapsedNanos - nanos[head];
+        final double spanMeters = meters - this.meters[head];
+        if (spanNanos <= 0 || spanMeters < kMinMeters) {
+            pace = Double.NaN;
+            return;
+        }
+        pace = spanNanos / 1e9 / spanMeters;
+        // Only a full window is steady enough to be the fastest. NaN compares false.
+        final boolean isFull = windowMeters > 0 ? spanMeters >= windowMeters
+                : spanNanos >= windowNanos;
+        if (isFull && !(pace >= fastestPace)) fastestPace = pace;
+    }
+
+    /**
+     * Returns the pace over the latest window
+     * @param elapsedNanos the active time of the session now; the pace is
+     *                     unknown if no fix was added recently, e.g. because
+     *                     the runner stopped
+     */
+    public double getPace(long elapsedNanos) {
+        if (size == 0) return Double.NaN;
+        final long newest = nanos[(head + size - 1) % nanos.length];
+        return elapsedNanos - newest > staleNanos ? Double.NaN : pace;
+    }
+
+    /** Returns the fastest pace held over a full window so far */
+    public double getFastestPace() {
+        return fastestPace;
+    }
+
+    private void drop() {
+        head = (head + 1) % nanos.length;
+        size--;
+    }
+}
@@ -0,0 +1,154 @@
+package com.marcusposey.cadtra.model;
+
+/**
+ * Encodes a route as a polyline while the route is being recorded
+ *
+ * Each point is delta-encoded with Google's polyline algorithm as soon as it
+ * is added, so the encoded path is ready when the session ends.
+ * See https://developers.google.com/maps/documentation/utilities/polylinealgorithm
+ *
+ * Simplification:
+ *      If the tolerance is greater than zero, points that lie within tolerance
+ *      meters of the line between their neighbors are dropped. Douglas-Peucker
+ *      needs the whole route before it can start, so the encoder applies its
+ *      test to a bounded window instead: points are held back while a single
+ *      segment from the last encoded point can stand in for all of them. When
+ *      one cannot, the newest point that could is encoded. Holding at most
+ *      kMaxWindow points keeps the cost of each add constant.
+ */
+public class PolylineEncoder {
+    // Tolerance, in meters, used for routes recorded during a session
+    public static final double kDefaultTolerance = 2.0;
+
+    // The maximum number of points that can be held back from the output
+    private static final int kMaxWindow = 32;
+    // Meters per degree of latitude on a sphere with SphericalUtil's radius
+    private static final double kMetersPerDegree = 6371009 * Math.PI / 180;
+
+    private final double tolerance;
+    private final StringBuilder encoded = new StringBuilder();
+    // The number of points written to encoded
+    private int encodedCount;
+
+    // The last point written to encoded, in degrees and in 1e5 units
+    private double anchorLat;
+    private double anchorLng;
+    private long anchorLatE5;
+    private long anchorLngE5;
+    // Converts degrees of longitude to meters near the anchor
+    private double lngScale;
+
+    // Points added after the anchor that have not been encoded yet
+    private final double[] windowLat = new double[kMaxWindow];
+    private final double[] windowLng = new double[kMaxWindow];
+    private int windowSize;
+
+    /** Creates an encoder that keeps every point */
+    public PolylineEncoder() {
+        this(0);
+    }
+
+    /**
+     * Creates an encoder that simplifies the route
+     * @param tolerance the furthest, in meters, that a dropped point may be
+     *                  from the simplified route; 0 keeps every point
+     */
+    public PolylineEncoder(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /** Appends a point to the end of the path */
+    public void add(double latitude, double longitude) {
+        if (encodedCount == 0 || tolerance <= 0) {
+            encodePoint(latitude, longitude);
+            return;
+        }
+
+        if (windowSize == kMaxWindow || !coversWindow(latitude, longitude)) {
+            // The newest held point is the last one that kept the line
+            // within tolerance, so it is needed to preserve the route's shape.
+            final int last = windowSize - 1;
+            encodePoint(windowLat[last], windowLng[last]);
+        }
+        windowLat[windowSize] = latitude;
+        windowLng[windowSize] = longitude;
+        windowSize++;
+    }
+
+    /** Returns the number of points that are in the encoded path */
+    public int size() {
+        return encodedCount + (windowSize == 0 ? 0 : 1);
+    }
+
+    /**
+     * Returns the encoded path
+     *
+     * The path always ends with the most recently added point. Calling this
+     * does not prevent more points from being added.
+     */
+    public String getEncodedPath() {
+        if (windowSize == 0) return encoded.toString();
+
+        final int length = encoded.length();
+        final int last = windowSize - 1;
+        appendPoint(encoded, round(windowLat[last]) - anchorLatE5,
+                round(windowLng[last]) - anchorLngE5);
+        final String path = encoded.toString();
+        encoded.setLength(length);
+        return path;
+    }
+
+    /** Writes a point to the encoded path and makes it the new anchor */
+    private void encodePoint(double latitude, double longitude) {
+        final long latE5 = round(latitude);
+        final long lngE5 = round(longitude);
+        appendPoint(encoded, latE5 - anchorLatE5, lngE5 - anchorLngE5);
+        encodedCount++;
+
+        anchorLat = latitude;
+        anchorLng = longitude;
+        anchorLatE5 = latE5;
+        anchorLngE5 = lngE5;
+        lngScale = kMetersPerDegree * Math.cos(Math.toRadians(latitude));
+        windowSize = 0;
+    }
+
+    /** Returns true if every held point is within tolerance of the anchor-to-point segment */
+    private boolean coversWindow(double latitude, double longitude) {
+        final double endX = (longitude - anchorLng) * lngScale;
+        final double endY = (latitude - anchorLat) * kMetersPerDegree;
+        final double lengthSq = endX * endX + endY * endY;
+        final double toleranceSq = tolerance * tolerance;
+
+        for (int i = 0; i < windowSize; i++) {
+            final double x = (windowLng[i] - anchorLng) * lngScale;
+            final double y = (windowLat[i] - anchorLat) * kMetersPerDegree;
+
+            double t = lengthSq == 0 ? 0 : (x * endX + y * endY) / lengthSq;
+            t = Math.max(0, Math.min(1, t));
+            final double dx = x - t * endX;
+            final double dy = y - t * endY;
+            if (dx * dx + dy * dy > toleranceSq) return false;
+        }
+        return true;
+    }
+
+    private static long round(double degrees) {
+        return Math.round(degrees * 1e5);
+    }
+
+    private static void appendPoint(StringBuilder out, long dLat, long dLng) {
+        appendValue(out, dLat);
+        appendValue(out, dLng);
+    }
+
+    /** Appends a signed value using the polyline algorithm's 5-bit chunks */
+    private static void appendValue(StringBuilder out, long value) {
+        value = value < 0 ? ~(value << 1) : value << 1;
+        while (value >= 0x20) {
+            out.append((char) ((0x20 | (value & 0x1f)) + 63));
+            value >>= 5;
+        }
+        out.append((char) (value + 63));
+    }
+}
@@ -0,0 +1,115 @@
+package com.marcusposey.cadtra.model;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.List;
+
+/**
+ * The path a runner has traveled during a session
+ *
+ * Route keeps a running total of the distance covered. Adding a point only
+ * measures the segment between it and the previous point, so the total is
+ * available in constant time no matter how long the route grows. The route
+ * is also encoded as a polyline as it is recorded.
+ */
+public class Route {
+    // Multiply by a distance in meters to get the distance in miles
+    public static final double kMilesPerMeter = 0.00062137;
+    // The mean radius of the Earth, in meters, as used by SphericalUtil
+    private static final double kEarthRadius = 6371009;
+
+    private final RouteBuffer points = new RouteBuffer();
+    private final PolylineEncoder encoder;
+
+    // The most recent point added to the route
+    private double lastLatitude;
+    private double lastLongitude;
+    // Sum of the lengths of every segment in the route
+    private double meters;
+
+    /** Creates a route whose polyline is simplified with the default tolerance */
+    public Route() {
+        this(PolylineEncoder.kDefaultTolerance);
+    }
+
+    /**
+     * Creates a route whose polyline is simplified with a custom tolerance
+     * @param tolerance see PolylineEncoder(double)
+     */
+    public Route(double tolerance) {
+        encoder = new PolylineEncoder(tolerance);
+    }
+
+    /**
+     * Appends a location fix to the end of the route
+     * @param time when the fix was taken, in milliseconds
+     * @param accuracy radius of the fix's accuracy, in meters
+     */
+    public void add(double latitude, double longitude, long time, float accuracy) {
+        if (points.size() != 0) {
+            meters += computeDistance(lastLatitude, lastLongitude, latitude, longitude);
+        }
+        points.add(latitude, longitude, time, accuracy);
+        encoder.add(latitude, longitude);
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+    }
+
+    /** Returns a read-only view of every point in the route */
+    public List<LatLng> getPoints() {
+        return points.asLatLngList();
+    }
+
+    /** Returns the fixes that make up the route */
+    public RouteBuffer getBuffer() {
+        return points;
+    }
+
+    /**
+     * Returns the route as an encoded polyline
+     * Distance is always measured with every point, even if the polyline is simplified.
+     */
+    public String getEncodedPath() {
+        return encoder.getEncodedPath();
+    }
+
+    /** Returns the most recent point or null if the route is empty */
+    @Nullable
+    public LatLng getLastPoint() {
+        if (points.size() == 0) return null;
+        return new LatLng(lastLatitude, lastLongitude);
+    }
+
+    /** Returns the number of points in the route */
+    public int size() {
+        return points.size();
+    }
+
+    /** Returns the total length of the route in meters */
+    public double getMeters() {
+        return meters;
+    }
+
+    /** Returns the total length of the route in miles */
+    public double getMiles() {
+        return meters * kMilesPerMeter;
+    }
+
+    /**
+     * Returns the great circle distance, in meters, between two points
+     *
+     * This is the haversine formula used by SphericalUtil, but it works on
+     * raw coordinates so that no LatLng objects need to be created.
+     */
+    public static double computeDistance(double lat1, double lng1, double lat2, double lng2) {
+        final double phi1 = Math.toRadians(lat1);
+        final double phi2 = Math.toRadians(lat2);
+        final double sinDLat = Math.sin((phi1 - phi2) * 0.5);
+        final double sinDLng = Math.sin(Math.toRadians(lng1 - lng2) * 0.5);
+        final double hav = sinDLat * sinDLat
+                + sinDLng * sinDLng * Math.cos(phi1) * Math.cos(phi2);
+        return 2 * Math.asin(Math.sqrt(hav)) * kEarthRadius;
+    }
+}
@@ -0,0 +1,120 @@
+package com.marcusposey.cadtra.model;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Stores location fixes in parallel primitive columns
+ *
+ * Each fix is split across latitude, longitude, timestamp, and accuracy
+ * columns instead of being kept as an object. The columns grow in fixed-size
+ * chunks, so adding a fix never copies the fixes that came before it.
+ */
+public class RouteBuffer {
+    // Fixes per chunk are a power of two so that indices can be split with shifts.
+    private static final int kChunkShift = 9;
+    private static final int kChunkSize = 1 << kChunkShift;
+    private static final int kChunkMask = kChunkSize - 1;
+
+    private double[][] latitudes = new double[4][];
+    private double[][] longitudes = new double[4][];
+    private long[][] times = new long[4][];
+    private float[][] accuracies = new float[4][];
+
+    // The number of fixes stored in the buffer
+    private int size;
+
+    private final List<LatLng> latLngView = new LatLngView();
+
+    /**
+     * Appends a fix to the end of the buffer
+     * @param time when the fix was taken, in milliseconds
+     * @param accuracy radius of the fix's accuracy, in meters
+     */
+    public void add(double latitude, double longitude, long time, float accuracy) {
+        final int chunk = size >>> kChunkShift;
+        final int offset = size & kChunkMask;
+        if (offset == 0) addChunk(chunk);
+
+        latitudes[chunk][offset] = latitude;
+        longitudes[chunk][offset] = longitude;
+        times[chunk][offset] = time;
+        accuracies[chunk][offset] = accuracy;
+        size++;
+    }
+
+    /** Allocates storage for the chunk at index chunk */
+    private void addChunk(int chunk) {
+        if (chunk == latitudes.length) {
+            final int capacity = chunk * 2;
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            times = Arrays.copyOf(times, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+        }
+        latitudes[chunk] = new double[kChunkSize];
+        longitudes[chunk] = new double[kChunkSize];
+        times[chunk] = new long[kChunkSize];
+        accuracies[chunk] = new float[kChunkSize];
+    }
+
+    /** Returns the number of fixes in the buffer */
+    public int size() {
+        return size;
+    }
+
+    public double getLatitude(int i) {
+        checkIndex(i);
+        return latitudes[i >>> kChunkShift][i & kChunkMask];
+    }
+
+    public double getLongitude(int i) {
+        checkIndex(i);
+        return longitudes[i >>> kChunkShift][i & kChunkMask];
+    }
+
+    /** Returns the time, in milliseconds, that fix i was taken */
+    public long getTime(int i) {
+        checkIndex(i);
+        return times[i >>> kChunkShift][i & kChunkMask];
+    }
+
+    /** Returns the accuracy radius, in meters, of fix i */
+    public float getAccuracy(int i) {
+        checkIndex(i);
+        return accuracies[i >>> kChunkShift][i & kChunkMask];
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Returns a read-only list that is backed by the buffer
+     *
+     * The view does not copy the buffer. It reflects fixes added after it was
+     * retrieved, and each call to get() creates the LatLng it returns.
+     */
+    public List<LatLng> asLatLngList() {
+        return latLngView;
+    }
+
+    /** Presents the latitude and longitude columns as a list of LatLng points */
+    private class LatLngView extends AbstractList<LatLng> implements RandomAccess {
+        @Override
+        public LatLng get(int i) {
+            return new LatLng(getLatitude(i), getLongitude(i));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
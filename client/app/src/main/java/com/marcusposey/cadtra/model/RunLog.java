@@ -1,16 +1,23 @@
 package com.marcusposey.cadtra.model;
 
-import com.google.android.gms.maps.model.LatLng;
+import android.support.annotation.Nullable;
+
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
-import com.google.maps.android.PolyUtil;
-import com.google.maps.android.SphericalUtil;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import org.joda.time.DateTime;
 
-import java.util.List;
+import java.io.IOException;
+import java.util.Arrays;
 
 /** API representation of a run log, ready to be encoded as JSON */
 public class RunLog {
+    // Assigned by the server; 0 if the log has not been downloaded from it
+    @SerializedName("id")
+    private long id;
     @SerializedName("started-at")
     private String startTimestampTz;
     @SerializedName("ended-at")
@@ -21,6 +28,9 @@ public class RunLog {
     private String polylinePath;
     @SerializedName("distance")
     private double distance;
+    // Seconds per unit of distance over the fastest PaceEstimator window; 0 if unknown
+    @SerializedName("fastest-pace")
+    private double fastestPace;
     @SerializedName("split-interval")
     private double splitInterval;
     @SerializedName("splits")
@@ -31,27 +41,202 @@ public class RunLog {
     public RunLog(String startTimestampTz, String endTimestampTz, double durationSec,
                   String polylinePath, double distance, double splitInterval, double[] splits,
                   String comment) {
+        this(0, startTimestampTz, endTimestampTz, durationSec, polylinePath, distance, 0,
+                splitInterval, splits, comment);
+    }
+
+    public RunLog(long id, String startTimestampTz, String endTimestampTz, double durationSec,
+                  String polylinePath, double distance, double fastestPace, double splitInterval,
+                  double[] splits, String comment) {
+        this.id = id;
         this.startTimestampTz = startTimestampTz;
         this.endTimestampTz = endTimestampTz;
         this.durationSec = durationSec;
         this.polylinePath = polylinePath;
         this.distance = distance;
+        this.fastestPace = fastestPace;
         this.splitInterval = splitInterval;
         this.splits = splits;
         this.comment = comment;
     }
 
+    public long getId() {
+        return id;
+    }
+
+    public String getStartTimestampTz() {
+        return startTimestampTz;
+    }
+
+    public String getEndTimestampTz() {
+        return endTimestampTz;
+    }
+
+    public double getDurationSec() {
+        return durationSec;
+    }
+
+    public String getPolylinePath() {
+        return polylinePath;
+    }
+
+    /** Returns the distance traveled, usually in miles */
+    public double getDistanceValue() {
+        return distance;
+    }
+
+    /** Returns the fastest pace, in seconds per unit of distance; 0 if unknown */
+    public double getFastestPaceValue() {
+        return fastestPace;
+    }
+
+    public double getSplitInterval() {
+        return splitInterval;
+    }
+
+    public double[] getSplits() {
+        return splits;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
     public String getDistance() {
         return String.format("%.2f", distance);
     }
 
     public String getTime() {
-        return Stopwatch.convertTime(durationSec);
+        return DurationFormatter.toString(durationSec);
     }
 
     public String getPace() {
         if (distance < 0.01) return "-";
-        return Stopwatch.convertTime(durationSec / distance);
+        return DurationFormatter.toString(durationSec / distance);
+    }
+
+    public String getFastestPace() {
+        if (fastestPace <= 0) return "-";
+        return DurationFormatter.toString(fastestPace);
+    }
+
+    /**
+     * Converts logs to and from JSON without reflection
+     *
+     * Names match the @SerializedName annotations, and null fields are left
+     * out as Gson does by default. Unknown and null fields are skipped when
+     * reading. Register it with Gson through net.Json.
+     */
+    public static class GsonAdapter extends TypeAdapter<RunLog> {
+        /** Decides whether the polyline and splits of a log are worth reading */
+        public interface DetailFilter {
+            /**
+             * @param id the id the server gave the log
+             * @param startTimestampTz when the log started
+             * @return false to skip the polyline and splits, which are then null
+             */
+            boolean needsDetails(long id, String startTimestampTz);
+        }
+
+        @Override
+        public void write(JsonWriter out, RunLog log) throws IOException {
+            if (log == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("id").value(log.id);
+            if (log.startTimestampTz != null) out.name("started-at").value(log.startTimestampTz);
+            if (log.endTimestampTz != null) out.name("ended-at").value(log.endTimestampTz);
+            out.name("duration").value(log.durationSec);
+            if (log.polylinePath != null) out.name("polyline").value(log.polylinePath);
+            out.name("distance").value(log.distance);
+            out.name("fastest-pace").value(log.fastestPace);
+            out.name("split-interval").value(log.splitInterval);
+            if (log.splits != null) {
+                out.name("splits").beginArray();
+                for (double split : log.splits) out.value(split);
+                out.endArray();
+            }
+            if (log.comment != null) out.name("comment").value(log.comment);
+            out.endObject();
+        }
+
+        @Override
+        public RunLog read(JsonReader in) throws IOException {
+            return read(in, null);
+        }
+
+        /**
+         * Reads a log, skipping over its polyline and splits if filter does not need them
+         *
+         * The filter is asked once the id and start time have been read. The
+         * server writes them first; details that come before them are read.
+         */
+        public RunLog read(JsonReader in, @Nullable DetailFilter filter) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            long id = 0;
+            String startedAt = null, endedAt = null, polyline = null, comment = null;
+            double duration = 0, distance = 0, fastestPace = 0, splitInterval = 0;
+            double[] splits = new double[0];
+            boolean hasAskedFilter = filter == null;
+            boolean needsDetails = true;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                final String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+
+                if (!hasAskedFilter && id != 0 && startedAt != null) {
+                    hasAskedFilter = true;
+                    needsDetails = filter.needsDetails(id, startedAt);
+                    if (!needsDetails) splits = null;
+                }
+                if (!needsDetails && (name.equals("polyline") || name.equals("splits"))) {
+                    in.skipValue();
+                    continue;
+                }
+
+                switch (name) {
+                    case "id": id = in.nextLong(); break;
+                    case "started-at": startedAt = in.nextString(); break;
+                    case "ended-at": endedAt = in.nextString(); break;
+                    case "duration": duration = in.nextDouble(); break;
+                    case "polyline": polyline = in.nextString(); break;
+                    case "distance": distance = in.nextDouble(); break;
+                    case "fastest-pace": fastestPace = in.nextDouble(); break;
+                    case "split-interval": splitInterval = in.nextDouble(); break;
+                    case "splits": splits = readDoubles(in); break;
+                    case "comment": comment = in.nextString(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new RunLog(id, startedAt, endedAt, duration, polyline, distance, fastestPace,
+                    splitInterval, splits, comment);
+        }
+
+        private static double[] readDoubles(JsonReader in) throws IOException {
+            double[] values = new double[8];
+            int count = 0;
+
+            in.beginArray();
+            while (in.hasNext()) {
+                if (count == values.length) values = Arrays.copyOf(values, count * 2);
+                values[count++] = in.nextDouble();
+            }
+            in.endArray();
+            return Arrays.copyOf(values, count);
+        }
     }
 
     /**
@@ -72,17 +257,20 @@ public class RunLog {
         private String startTimestampTz;
         private String endTimestampTz;
         private double durationSec;
-        List<LatLng> route;
+        private Route route;
+        private SplitTracker splitTracker;
+        private PaceEstimator paceEstimator;
         private String polylinePath;
         private String comment;
         private double distance;
+        private double fastestPace;
         private double splitInterval;
         private double[] splits = null;
 
         public RunLog build() {
             setDefaults();
-            return new RunLog(startTimestampTz, endTimestampTz, durationSec, polylinePath,
-                    distance, splitInterval, splits, comment);
+            return new RunLog(0, startTimestampTz, endTimestampTz, durationSec, polylinePath,
+                    distance, fastestPace, splitInterval, splits, comment);
         }
 
         private void setDefaults() {
@@ -94,7 +282,15 @@ public class RunLog {
                 durationSec = (end.getMillis() - start.getMillis()) / 1000;
             }
 
-            if (distance == 0.0) distance = SphericalUtil.computeLength(route) * 0.00062137;
+            if (distance == 0.0) distance = route.getMiles();
+            if (fastestPace == 0.0) fastestPace = toFastestPace(SplitTracker.kMetersPerMile);
+        }
+
+        /** Returns the fastest pace in seconds per unit, where a unit is unitMeters long */
+        private double toFastestPace(double unitMeters) {
+            if (paceEstimator == null) return 0;
+            final double secondsPerMeter = paceEstimator.getFastestPace();
+            return Double.isNaN(secondsPerMeter) ? 0 : secondsPerMeter * unitMeters;
         }
 
         /**
@@ -113,9 +309,9 @@ public class RunLog {
             return this;
         }
 
-        public Builder addRoute(List<LatLng> route) {
+        public Builder addRoute(Route route) {
             this.route = route;
-            polylinePath = PolyUtil.encode(route);
+            polylinePath = route.getEncodedPath();
             return this;
         }
 
@@ -125,13 +321,32 @@ public class RunLog {
             return this;
         }
 
+        /** Stores the splits of the session; the interval is in miles unless useMeters() is called */
+        public Builder addSplits(SplitTracker tracker) {
+            splitTracker = tracker;
+            return addSplitData(tracker.getIntervalMeters() / SplitTracker.kMetersPerMile,
+                    tracker.getSplits());
+        }
+
+        /** Stores the fastest pace of the session; it is per mile unless useMeters() is called */
+        public Builder addPace(PaceEstimator estimator) {
+            paceEstimator = estimator;
+            return this;
+        }
+
         public Builder useMeters() {
-            distance = SphericalUtil.computeLength(route);
+            distance = route.getMeters();
+            fastestPace = toFastestPace(1);
+            if (splitTracker != null) splitInterval = splitTracker.getIntervalMeters();
             return this;
         }
 
         public Builder useMiles() {
-            distance = SphericalUtil.computeLength(route) * 0.00062137;
+            distance = route.getMiles();
+            fastestPace = toFastestPace(SplitTracker.kMetersPerMile);
+            if (splitTracker != null) {
+                splitInterval = splitTracker.getIntervalMeters() / SplitTracker.kMetersPerMile;
+            }
             return this;
         }
     }
@@ -1,37 +1,156 @@
 package com.marcusposey.cadtra.model;
 
 import android.content.Context;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
 import com.marcusposey.cadtra.R;
-import com.marcusposey.cadtra.model.RunLog;
 
-public class RunLogAdapter extends ArrayAdapter<RunLog> {
-    private final Context context;
-    private final RunLog[] logs;
+import java.util.ArrayList;
+import java.util.List;
 
-    public RunLogAdapter(Context context, RunLog[] logs) {
-        super(context, -1, logs);
-        this.context = context;
-        this.logs = logs;
+/**
+ * Shows run logs in a RecyclerView, in the order they were given
+ *
+ * Logs are turned into Rows before they reach the adapter, so binding a row
+ * only sets text that was formatted ahead of time. Rows can be created and
+ * diffed on any thread.
+ */
+public class RunLogAdapter extends RecyclerView.Adapter<RunLogAdapter.ViewHolder> {
+    /** Hears which log the user picked */
+    @FunctionalInterface
+    public interface OnLogClickListener {
+        /** @param logId the id the server gave the log; 0 if it has not been uploaded */
+        void onLogClick(long logId);
+    }
+
+    /** The display text of one log */
+    public static class Row {
+        // Identifies the log across updates; no two runs start at the same time.
+        private final String key;
+        private final long id;
+        private final String distance;
+        private final String time;
+        private final String pace;
+
+        public Row(RunLog log) {
+            key = log.getStartTimestampTz();
+            id = log.getId();
+            distance = log.getDistance();
+            time = log.getTime();
+            pace = log.getPace();
+        }
+
+        private boolean hasSameText(Row other) {
+            return id == other.id && distance.equals(other.distance)
+                    && time.equals(other.time) && pace.equals(other.pace);
+        }
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        private final TextView distance;
+        private final TextView time;
+        private final TextView pace;
+
+        ViewHolder(View row) {
+            super(row);
+            distance = row.findViewById(R.id.historyDistance);
+            time = row.findViewById(R.id.historyTime);
+            pace = row.findViewById(R.id.historyPace);
+        }
+    }
+
+    private final LayoutInflater inflater;
+    private final OnLogClickListener listener;
+    private List<Row> rows = new ArrayList<>();
+
+    public RunLogAdapter(Context context, OnLogClickListener listener) {
+        inflater = LayoutInflater.from(context);
+        this.listener = listener;
+    }
+
+    /** Formats logs for display; can be called from any thread */
+    public static List<Row> toRows(List<RunLog> logs) {
+        List<Row> rows = new ArrayList<>(logs.size());
+        for (RunLog log : logs) rows.add(new Row(log));
+        return rows;
+    }
+
+    /**
+     * Finds the changes that turn oldRows into newRows
+     * This can take a while for long lists, so it should be called away from
+     * the UI thread.
+     */
+    public static DiffUtil.DiffResult diff(final List<Row> oldRows, final List<Row> newRows) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldRows.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newRows.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPos, int newPos) {
+                return oldRows.get(oldPos).key.equals(newRows.get(newPos).key);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPos, int newPos) {
+                return oldRows.get(oldPos).hasSameText(newRows.get(newPos));
+            }
+        }, false);
+    }
+
+    /** Returns a copy of the rows being shown, which is safe to diff on another thread */
+    public List<Row> getRows() {
+        return new ArrayList<>(rows);
+    }
+
+    /** Adds rows to the end of the list */
+    public void append(List<Row> more) {
+        final int start = rows.size();
+        rows.addAll(more);
+        notifyItemRangeInserted(start, more.size());
+    }
+
+    /**
+     * Replaces every row, animating only what changed
+     * @param diff the result of diff(getRows(), newRows)
+     */
+    public void replace(List<Row> newRows, DiffUtil.DiffResult diff) {
+        rows = new ArrayList<>(newRows);
+        diff.dispatchUpdatesTo(this);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        final ViewHolder holder =
+                new ViewHolder(inflater.inflate(R.layout.history_item, parent, false));
+        holder.itemView.setOnClickListener(view -> {
+            final int pos = holder.getAdapterPosition();
+            if (pos != RecyclerView.NO_POSITION) listener.onLogClick(rows.get(pos).id);
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int pos) {
+        Row row = rows.get(pos);
+        holder.distance.setText(row.distance);
+        holder.time.setText(row.time);
+        holder.pace.setText(row.pace);
     }
 
     @Override
-    public View getView(int pos, View convertView, ViewGroup parent) {
-        // Make recent runs appear at the top instead of at the bottom.
-        pos = logs.length - 1 - pos;
-        LayoutInflater inflater =
-                (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View row = inflater.inflate(R.layout.history_item, parent, false);
-
-        ((TextView) row.findViewById(R.id.historyDistance)).setText(logs[pos].getDistance());
-        ((TextView) row.findViewById(R.id.historyTime)).setText(logs[pos].getTime());
-        ((TextView) row.findViewById(R.id.historyPace)).setText(logs[pos].getPace());
-
-        return row;
+    public int getItemCount() {
+        return rows.size();
     }
 }
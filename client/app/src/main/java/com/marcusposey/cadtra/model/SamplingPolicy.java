@@ -0,0 +1,128 @@
+package com.marcusposey.cadtra.model;
+
+/**
+ * Chooses how often, and how precisely, the device should report location
+ *
+ * Before a session starts and while it is paused, location is only needed to
+ * show the user on the map, so updates are slow and use little power. While
+ * the runner is moving, updates are accurate and spaced so that each one is
+ * about kTargetSpacing meters from the last; a slow runner gets fewer of
+ * them than a fast one. Speed is smoothed and intervals are rounded to whole
+ * steps so that small changes in pace do not cause new requests.
+ *
+ * The policy does not use any Android classes, so it can be tested on the JVM.
+ */
+public class SamplingPolicy {
+    public enum State { IDLE, RUNNING, PAUSED }
+
+    public enum Priority { HIGH_ACCURACY, BALANCED_POWER_ACCURACY }
+
+    /** Parameters for a location request */
+    public static class Settings {
+        public final State state;
+        public final long intervalMs;
+        public final long fastestIntervalMs;
+        public final Priority priority;
+        // Updates closer than this to the previous one, in meters, are not delivered.
+        public final float smallestDisplacement;
+
+        Settings(State state, long intervalMs, long fastestIntervalMs, Priority priority,
+                 float smallestDisplacement) {
+            this.state = state;
+            this.intervalMs = intervalMs;
+            this.fastestIntervalMs = fastestIntervalMs;
+            this.priority = priority;
+            this.smallestDisplacement = smallestDisplacement;
+        }
+    }
+
+    // The distance, in meters, that should separate updates while running
+    public static final double kTargetSpacing = 1.5 * FixPipeline.kMinDisplacement;
+    // Bounds on the interval while running
+    public static final long kMinRunningIntervalMs = 1000;
+    public static final long kMaxRunningIntervalMs = 4000;
+    // Running intervals are multiples of this
+    private static final long kIntervalStepMs = 500;
+    // The weight of a new speed measurement in the smoothed speed
+    private static final double kSpeedSmoothing = 0.3;
+
+    private static final Settings kIdle = new Settings(State.IDLE, 10000, 5000,
+            Priority.BALANCED_POWER_ACCURACY, 10);
+    private static final Settings kPaused = new Settings(State.PAUSED, 10000, 5000,
+            Priority.BALANCED_POWER_ACCURACY, 10);
+
+    private State state = State.IDLE;
+    // Smoothed speed in meters per second; negative until it is measured
+    private double speed = -1;
+    private Settings settings = kIdle;
+
+    /** Returns the location request parameters that fit the current state and speed */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Changes the state of the session
+     * @return true if getSettings() changed
+     */
+    public boolean setState(State state) {
+        this.state = state;
+        // A runner who stopped for a while is not necessarily as fast as before.
+        if (state != State.RUNNING) speed = -1;
+        return update();
+    }
+
+    /**
+     * Takes a speed measurement, e.g. Location.getSpeed(); it is ignored unless running
+     * @return true if getSettings() changed
+     */
+    public boolean onSpeed(double metersPerSecond) {
+        if (state != State.RUNNING || metersPerSecond < 0 || Double.isNaN(metersPerSecond)) {
+            return false;
+        }
+
+        speed = speed < 0
+                ? metersPerSecond : speed + kSpeedSmoothing * (metersPerSecond - speed);
+        return update();
+    }
+
+    /** Returns the smoothed speed or a negative value if none has been measured */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /** Replaces settings if they should change and returns true if they did */
+    private boolean update() {
+        final Settings next;
+        switch (state) {
+            case RUNNING:
+                next = runningSettings();
+                break;
+            case PAUSED:
+                next = kPaused;
+                break;
+            default:
+                next = kIdle;
+        }
+
+        final boolean isChanged = next.state != settings.state
+                || next.intervalMs != settings.intervalMs;
+        if (isChanged) settings = next;
+        return isChanged;
+    }
+
+    private Settings runningSettings() {
+        long intervalMs = kMinRunningIntervalMs;
+        if (speed >= 0) {
+            final double idealMs = speed == 0
+                    ? kMaxRunningIntervalMs : kTargetSpacing / speed * 1000;
+            intervalMs = Math.round(idealMs / kIntervalStepMs) * kIntervalStepMs;
+            intervalMs = Math.max(kMinRunningIntervalMs,
+                    Math.min(kMaxRunningIntervalMs, intervalMs));
+        }
+        if (settings.state == State.RUNNING && settings.intervalMs == intervalMs) return settings;
+
+        return new Settings(State.RUNNING, intervalMs, kMinRunningIntervalMs,
+                Priority.HIGH_ACCURACY, (float) FixPipeline.kMinDisplacement / 2);
+    }
+}
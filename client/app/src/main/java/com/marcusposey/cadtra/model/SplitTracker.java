@@ -0,0 +1,86 @@
+package com.marcusposey.cadtra.model;
+
+import java.util.Arrays;
+
+/**
+ * Measures how long each split of a session takes
+ *
+ * A split ends every time the runner covers another interval of distance,
+ * e.g. every mile. The tracker is given the route's running distance and the
+ * stopwatch's elapsed time at each fix. Fixes rarely land on a boundary, so
+ * the moment it was crossed is interpolated from the fixes on either side.
+ * Each fix takes constant time, and the splits are ready when the session
+ * ends.
+ */
+public class SplitTracker {
+    public static final double kMetersPerMile = 1609.344;
+
+    private final double intervalMeters;
+
+    // The durations of completed splits, in seconds
+    private double[] splits = new double[16];
+    private int count;
+
+    // Distance and elapsed time at the previous fix; the session starts at 0, 0.
+    private double lastMeters;
+    private long lastNanos;
+    // Elapsed time when the latest split ended
+    private long splitStartNanos;
+
+    /** Creates a tracker that ends a split every mile */
+    public SplitTracker() {
+        this(kMetersPerMile);
+    }
+
+    /** @param intervalMeters the distance covered by each split */
+    public SplitTracker(double intervalMeters) {
+        this.intervalMeters = intervalMeters;
+    }
+
+    /**
+     * Records the progress of the session at a fix
+     * @param meters the total distance covered, which never decreases
+     * @param elapsedNanos the active time of the session, e.g. Stopwatch.elapsedNanos()
+     */
+    public void add(double meters, long elapsedNanos) {
+        final double covered = meters - lastMeters;
+        if (covered > 0) {
+            // A long gap between fixes can cross more than one boundary.
+            double boundary = (count + 1) * intervalMeters;
+            while (boundary <= meters) {
+                final double fraction = (boundary - lastMeters) / covered;
+                final long crossedAt = lastNanos + Math.round(fraction * (elapsedNanos - lastNanos));
+                append((crossedAt - splitStartNanos) / 1e9);
+                splitStartNanos = crossedAt;
+                boundary = (count + 1) * intervalMeters;
+            }
+        }
+        lastMeters = meters;
+        lastNanos = elapsedNanos;
+    }
+
+    /** Returns the distance covered by each split, in meters */
+    public double getIntervalMeters() {
+        return intervalMeters;
+    }
+
+    /** Returns the number of completed splits */
+    public int size() {
+        return count;
+    }
+
+    /** Returns the duration, in seconds, of the latest completed split; NaN if there is none */
+    public double getLastSplit() {
+        return count == 0 ? Double.NaN : splits[count - 1];
+    }
+
+    /** Returns the duration, in seconds, of each completed split */
+    public double[] getSplits() {
+        return Arrays.copyOf(splits, count);
+    }
+
+    private void append(double seconds) {
+        if (count == splits.length) splits = Arrays.copyOf(splits, count * 2);
+        splits[count++] = seconds;
+    }
+}
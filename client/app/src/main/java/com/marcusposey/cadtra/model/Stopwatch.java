@@ -1,26 +1,91 @@
 package com.marcusposey.cadtra.model;
 
-import java.util.Observable;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Keeps track of elapsed time
  *
- * Stopwatch is an Observable class that notifies observers every Stopwatch.kIntervalMs
- * milliseconds. The String message contains the total time elapsed since the timer was
- * started. The format is Hh:Mm:Ss
+ * Time is measured with a monotonic clock, so changes to the wall clock do
+ * not affect it. On a device, that clock should keep counting while the CPU
+ * sleeps, as SystemClock.elapsedRealtimeNanos() does; System.nanoTime()
+ * stops, so a run would lose the time the screen was off. While the stopwatch runs, listeners are told the elapsed
+ * time every Stopwatch.kIntervalMs milliseconds, as each whole interval
+ * passes. Ticks carry a raw nanosecond count; nothing is allocated or
+ * formatted on their behalf.
+ *
+ * Every stopwatch shares one scheduler thread.
  */
-public class Stopwatch extends Observable implements Runnable {
+public class Stopwatch {
+    /** Receives the elapsed time while the stopwatch runs */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called on the scheduler thread, so it must return quickly
+         * @param elapsedNanos the total time measured, excluding pauses
+         */
+        void onTick(long elapsedNanos);
+    }
+
+    /** A source of monotonic time, in nanoseconds */
+    @FunctionalInterface
+    public interface Clock {
+        long nanoTime();
+    }
+
     public static final int kIntervalMs = 1000;
+    private static final long kIntervalNanos = TimeUnit.MILLISECONDS.toNanos(kIntervalMs);
+
+    private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
 
-    private long elapsedTime; // Total time (in seconds) taken since last reset
-    private long startTime;   // Last time (in milliseconds) start() was called
-    private long curTime;     // The current time (in milliseconds)
+    private final Clock clock;
+    private final Runnable tick = this::tick;
+    private volatile Listener[] listeners = new Listener[0];
 
+    // While running, the elapsed time is clock.nanoTime() - origin...
+    private volatile long origin;
+    // ...and while stopped, it is stoppedElapsed.
+    private volatile long stoppedElapsed;
     // True if the stopwatch is currently measuring time; false otherwise
-    private boolean isRunning = false;
+    private volatile boolean isRunning = false;
+
+    // The scheduled ticks of an ongoing measurement
+    private ScheduledFuture<?> ticks;
 
-    // The thread where an ongoing measurement is taking place
-    private Thread timer;
+    public Stopwatch(Clock clock) {
+        this.clock = clock;
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, Stopwatch.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        Listener[] current = listeners;
+        Listener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        Listener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != listener) continue;
+            Listener[] updated = new Listener[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, i);
+            System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+            listeners = updated;
+            return;
+        }
+    }
 
     /** Returns true if the stopwatch is running; false otherwise */
     public boolean isRunning() {
@@ -28,17 +93,21 @@ public class Stopwatch extends Observable implements Runnable {
     }
 
     /**
-     * Starts the stopwatch in another thread
+     * Starts the stopwatch
      *
      * If it was already running, nothing will happen. Consider checking
      * the result of isRunning() if the state is not known.
      */
-    public void start() {
+    public synchronized void start() {
         if (isRunning()) return;
+
+        final long elapsed = stoppedElapsed;
+        origin = clock.nanoTime() - elapsed;
         isRunning = true;
 
-        timer = new Thread(this);
-        timer.start();
+        scheduler.execute(tick);
+        ticks = scheduler.scheduleAtFixedRate(tick, kIntervalNanos - elapsed % kIntervalNanos,
+                kIntervalNanos, TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -47,58 +116,49 @@ public class Stopwatch extends Observable implements Runnable {
      * If it was not running, nothing will happen. Consider checking
      * the result of isRunning() if the state is not known.
      */
-    public void stop() {
+    public synchronized void stop() {
         if (!isRunning()) return;
+
+        stoppedElapsed = clock.nanoTime() - origin;
         isRunning = false;
 
-        timer.interrupt();
-        elapsedTime += (curTime - startTime) / 1000;
-        timer = null;
+        ticks.cancel(false);
+        ticks = null;
     }
 
     /** Resets the stopwatch, clearing all times */
-    public void reset() {
+    public synchronized void reset() {
         stop();
-        elapsedTime = startTime = curTime = 0;
-        setChanged();
-        notifyObservers(convertTime(0));
+        stoppedElapsed = 0;
+        scheduler.execute(tick);
     }
 
-    /** Seconds elapsed between last start() and stop() call */
-    public long elapsedSeconds() {
-        if (isRunning()) return elapsedTime + (curTime - startTime) / 1000;
-        return elapsedTime;
+    /**
+     * Sets the elapsed time of a stopped stopwatch, e.g. to continue a
+     * session that was interrupted; start() measures on from there
+     */
+    public synchronized void restore(long elapsedNanos) {
+        if (isRunning()) return;
+        stoppedElapsed = elapsedNanos;
+        scheduler.execute(tick);
     }
 
-    /** Converts seconds to an Hh:Mm:Ss string */
-    public static String convertTime(double seconds) {
-        String hours = String.valueOf(Math.floor(seconds / 3600));
-        long minutes = (long) Math.floor((seconds % 3600) / 60);
-        long secs = (long) Math.floor(seconds % 60);
-
-        String format = "";
-        if (!hours.equals("0.0")) {
-            format += hours + ":";
-        }
-        format += String.format("%02d:%02d", minutes, secs);
+    /** Nanoseconds measured between start() and stop() calls */
+    public long elapsedNanos() {
+        // isRunning is written last by start() and stop(), so whichever
+        // value is read here, the field it guards is up to date.
+        if (isRunning) return clock.nanoTime() - origin;
+        return stoppedElapsed;
+    }
 
-        return format;
+    /** Whole seconds measured between start() and stop() calls */
+    public long elapsedSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(elapsedNanos());
     }
 
-    /**
-     * Starts the stopwatch in the current thread
-     * Do not use this. Use start() instead.
-     */
-    @Override
-    public void run() {
-        startTime = System.currentTimeMillis();
-        while (isRunning) {
-            curTime = System.currentTimeMillis();
-            setChanged();
-            notifyObservers(convertTime(elapsedTime + (curTime - startTime) / 1000));
-            try {
-                Thread.sleep(Stopwatch.kIntervalMs);
-            } catch (InterruptedException e) {e.printStackTrace();}
-        }
+    /** Gives the elapsed time to every listener */
+    private void tick() {
+        final long elapsed = elapsedNanos();
+        for (Listener listener : listeners) listener.onTick(elapsed);
     }
 }
@@ -0,0 +1,381 @@
+package com.marcusposey.cadtra.net;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.v4.util.Pair;
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs HttpUriRequests away from the UI thread
+ *
+ * Work is queued on a small, bounded pool of background threads. The caller
+ * never waits; results are handed to a Callback on the main thread instead.
+ * A Call can be cancelled, e.g. when the activity that started it is
+ * destroyed, in which case its callback is never invoked.
+ *
+ * Every request goes through one pooled HttpClient, so connections to the
+ * server are kept alive and reused. Responses are requested with gzip
+ * compression and inflated transparently. Requests that carry an id token
+ * are given a fresh one from TokenStore just before they are sent.
+ *
+ * On Failure:
+ *      The callback receives a null result and the exception that stopped
+ *      the request, possibly due to network issues or a timeout.
+ * On Success:
+ *      The callback receives the result and a null exception. For plain
+ *      requests the result is a Pair containing the response code and
+ *      response body.
+ */
+public class ApiClient {
+    @FunctionalInterface
+    public interface Callback<T> {
+        /**
+         * Called on the main thread after the work finishes
+         * @param result null if the work failed
+         * @param e Not null if the work failed; null otherwise
+         */
+        void onComplete(@Nullable T result, @Nullable Exception e);
+    }
+
+    /** Blocking work that is run on a background thread */
+    @FunctionalInterface
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    /** Converts a response into a result; runs on a background thread */
+    @FunctionalInterface
+    public interface Parser<T> {
+        T parse(Pair<Integer, String> resp) throws Exception;
+    }
+
+    /** Converts a response into a result while its body is still arriving */
+    @FunctionalInterface
+    public interface StreamParser<T> {
+        T parse(int responseCode, InputStream body) throws IOException;
+    }
+
+    /** Converts a response, headers included, into a result; runs on a background thread */
+    @FunctionalInterface
+    public interface ResponseParser<T> {
+        T parse(HttpResponse response) throws IOException;
+    }
+
+    /** A handle to work that was given to the client */
+    public static class Call {
+        @Nullable
+        private final HttpUriRequest request;
+        private volatile Future<?> future;
+        private volatile boolean isCancelled = false;
+
+        private Call(@Nullable HttpUriRequest request) {
+            this.request = request;
+        }
+
+        /** Stops the work if it has not finished and prevents its callback from running */
+        public void cancel() {
+            isCancelled = true;
+            if (future != null) future.cancel(true);
+            if (request != null) request.abort();
+        }
+
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+    }
+
+    private static final String TAG = ApiClient.class.getSimpleName();
+
+    // Requests run at most this many at a time...
+    private static final int kThreadCount = 2;
+    // ...and at most this many can wait for a thread.
+    private static final int kQueueCapacity = 32;
+
+    // The size of the connection pool. One per thread is enough.
+    private static final int kMaxConnections = kThreadCount;
+    // How long an idle connection is kept if the server does not say otherwise
+    private static final long kKeepAliveMs = 30 * 1000;
+
+    private static final int kDefaultConnectTimeoutMs = 15 * 1000;
+    private static final int kDefaultReadTimeoutMs = 30 * 1000;
+
+    // The server rejects an id token it cannot verify with this code and message.
+    // Other bad requests share the code, so only the message identifies it.
+    private static final int kInvalidTokenCode = 400;
+    private static final String kInvalidTokenMessage = "Invalid id token";
+
+    private static ApiClient instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainThread = new Handler(Looper.getMainLooper());
+    private final DefaultHttpClient httpClient;
+
+    private ApiClient() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(kThreadCount, kThreadCount, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(kQueueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        httpClient = createHttpClient();
+    }
+
+    /** Creates an HttpClient that pools connections and accepts gzip responses */
+    private static DefaultHttpClient createHttpClient() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpConnectionParams.setConnectionTimeout(params, kDefaultConnectTimeoutMs);
+        HttpConnectionParams.setSoTimeout(params, kDefaultReadTimeoutMs);
+        ConnManagerParams.setMaxTotalConnections(params, kMaxConnections);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(kMaxConnections));
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        DefaultHttpClient client = new DefaultHttpClient(
+                new ThreadSafeClientConnManager(params, registry), params);
+        client.setKeepAliveStrategy((response, context) -> {
+            final long serverTimeout = new DefaultConnectionKeepAliveStrategy()
+                    .getKeepAliveDuration(response, context);
+            return serverTimeout > 0 ? serverTimeout : kKeepAliveMs;
+        });
+        client.addRequestInterceptor((request, context) -> {
+            if (!request.containsHeader("Accept-Encoding")) {
+                request.addHeader("Accept-Encoding", "gzip");
+            }
+        });
+        client.addResponseInterceptor((response, context) -> {
+            final HttpEntity entity = response.getEntity();
+            final Header encoding = entity == null ? null : entity.getContentEncoding();
+            if (encoding != null && encoding.getValue().equalsIgnoreCase("gzip")) {
+                response.setEntity(new GzipDecompressingEntity(entity));
+            }
+        });
+        return client;
+    }
+
+    /**
+     * Changes how long requests wait on the server
+     * @param connectMs the time allowed to establish a connection
+     * @param readMs the time allowed between packets of the response
+     */
+    public void setTimeouts(int connectMs, int readMs) {
+        HttpParams params = httpClient.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectMs);
+        HttpConnectionParams.setSoTimeout(params, readMs);
+    }
+
+    /** Returns the single instance of the client */
+    public static synchronized ApiClient getInstance() {
+        if (instance == null) instance = new ApiClient();
+        return instance;
+    }
+
+    /** Sends req in the background and gives its (Response Code, Response Body) to callback */
+    public Call enqueue(@Nullable HttpUriRequest req, Callback<Pair<Integer, String>> callback) {
+        return enqueue(req, resp -> resp, callback);
+    }
+
+    /** Sends req in the background and gives the parsed response to callback */
+    public <T> Call enqueue(@Nullable final HttpUriRequest req, final Parser<T> parser,
+                            Callback<T> callback) {
+        return submit(executor, new Call(req), () -> parser.parse(execute(req)), callback);
+    }
+
+    /** Runs task in the background and gives its result to callback */
+    public <T> Call submit(Task<T> task, Callback<T> callback) {
+        return submit(executor, new Call(null), task, callback);
+    }
+
+    /**
+     * Runs task on another executor than the client's and gives its result to callback
+     * Use it for work that must not wait behind network requests; see LocalExecutor.
+     */
+    public <T> Call submit(ExecutorService executor, Task<T> task, Callback<T> callback) {
+        return submit(executor, new Call(null), task, callback);
+    }
+
+    private <T> Call submit(ExecutorService executor, final Call call, final Task<T> task,
+                            final Callback<T> callback) {
+        try {
+            call.future = executor.submit(() -> {
+                T result = null;
+                Exception error = null;
+                try {
+                    result = task.run();
+                } catch (Exception e) {
+                    Log.e(TAG, String.valueOf(e.getMessage()));
+                    error = e;
+                }
+                deliver(call, callback, result, error);
+            });
+        } catch (RejectedExecutionException e) {
+            deliver(call, callback, null, e);
+        }
+        return call;
+    }
+
+    private <T> void deliver(final Call call, final Callback<T> callback, final T result,
+                             final Exception e) {
+        mainThread.post(() -> {
+            if (!call.isCancelled()) callback.onComplete(result, e);
+        });
+    }
+
+    /**
+     * Sends a request and waits for the response
+     *
+     * This blocks the calling thread, so it must not be called from the UI
+     * thread. Use enqueue() there instead.
+     * @return (Response Code, Response Body)
+     * @throws IOException if the request could not be completed
+     */
+    public Pair<Integer, String> execute(@Nullable HttpUriRequest req) throws IOException {
+        HttpResponse response = send(req);
+        HttpEntity entity = response.getEntity();
+        try {
+            // Reading the entity to the end returns the connection to the pool.
+            String respBody = entity == null ? "" : EntityUtils.toString(entity, HTTP.UTF_8);
+            return new Pair<>(response.getStatusLine().getStatusCode(), respBody);
+        } catch (IOException e) {
+            req.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request and gives the response body to parser as it arrives
+     *
+     * Unlike execute(HttpUriRequest), the body is never held in memory as a
+     * whole. Like it, this blocks and must not be called from the UI thread.
+     * @return the result of parser
+     * @throws IOException if the request could not be completed or parsed
+     */
+    public <T> T execute(@Nullable HttpUriRequest req, StreamParser<T> parser)
+            throws IOException {
+        return execute(req, response -> {
+            HttpEntity entity = response.getEntity();
+            InputStream body = entity == null
+                    ? new ByteArrayInputStream(new byte[0]) : entity.getContent();
+            return parser.parse(response.getStatusLine().getStatusCode(), body);
+        });
+    }
+
+    /**
+     * Sends a request and gives the whole response to parser, e.g. to read its headers
+     *
+     * Like execute(HttpUriRequest), this blocks and must not be called from
+     * the UI thread.
+     * @return the result of parser
+     * @throws IOException if the request could not be completed or parsed
+     */
+    public <T> T execute(@Nullable HttpUriRequest req, ResponseParser<T> parser)
+            throws IOException {
+        HttpResponse response = send(req);
+        try {
+            T result = parser.parse(response);
+            // Reading the entity to the end returns the connection to the pool.
+            if (response.getEntity() != null) response.getEntity().consumeContent();
+            return result;
+        } catch (IOException | RuntimeException e) {
+            req.abort();
+            throw e;
+        }
+    }
+
+    private HttpResponse send(@Nullable HttpUriRequest req) throws IOException {
+        if (req == null) throw new IOException("Request could not be created");
+
+        // Requests that carry the user's id token get one that will not expire in flight.
+        String idToken = null;
+        if (req.containsHeader("Authorization")) {
+            idToken = TokenStore.getInstance().getFreshIdToken();
+            req.setHeader("Authorization", "Bearer " + idToken);
+        }
+
+        // Drop pooled connections that the server has likely closed by now.
+        httpClient.getConnectionManager().closeIdleConnections(kKeepAliveMs, TimeUnit.MILLISECONDS);
+        HttpResponse response = httpClient.execute(req);
+        if (idToken != null && isInvalidToken(response)) {
+            // Google may revoke a token early; the next request should get a new one.
+            TokenStore.getInstance().invalidate(idToken);
+        }
+        return response;
+    }
+
+    /**
+     * Returns true if the server rejected the request's id token
+     *
+     * The body of such a response is buffered so that the caller can still
+     * read it; error bodies are small.
+     */
+    private static boolean isInvalidToken(HttpResponse response) throws IOException {
+        if (response.getStatusLine().getStatusCode() != kInvalidTokenCode
+                || response.getEntity() == null) {
+            return false;
+        }
+
+        HttpEntity entity = new BufferedHttpEntity(response.getEntity());
+        response.setEntity(entity);
+        try {
+            JsonReader reader = new JsonReader(
+                    new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("message")) {
+                    reader.skipValue();
+                } else if (reader.peek() == JsonToken.STRING) {
+                    return kInvalidTokenMessage.equals(reader.nextString());
+                } else {
+                    return false;
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            // The body is not an ErrorResponse.
+        }
+        return false;
+    }
+}
@@ -0,0 +1,82 @@
+package com.marcusposey.cadtra.net;
+
+import android.content.Context;
+
+import com.google.android.gms.auth.api.Auth;
+import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
+import com.google.android.gms.auth.api.signin.GoogleSignInResult;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.Scopes;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.Scope;
+import com.marcusposey.cadtra.R;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renews the id token through Google's silent sign-in
+ *
+ * The user must have signed in explicitly before. Nothing is shown on
+ * screen, so this works from services as well as activities.
+ */
+public class GoogleTokenRefresher implements TokenStore.Refresher {
+    // The longest each of the two steps of a renewal may take, so that both
+    // finish before TokenStore stops waiting
+    private static final long kTimeoutMs = TokenStore.kRefreshTimeoutMs / 3;
+
+    private final GoogleApiClient client;
+
+    public GoogleTokenRefresher(Context context) {
+        client = new GoogleApiClient.Builder(context.getApplicationContext())
+                .addApi(Auth.GOOGLE_SIGN_IN_API, createSignInOptions(context))
+                .build();
+    }
+
+    /** Lets TokenStore renew tokens through Google unless it can already renew them */
+    public static void install(Context context) {
+        TokenStore tokenStore = TokenStore.getInstance();
+        if (!tokenStore.hasRefresher()) tokenStore.setRefresher(new GoogleTokenRefresher(context));
+    }
+
+    /**
+     * Creates the options used to sign in
+     * The user is asked for the following scopes:
+     *  - Profile
+     *  - Email
+     * It will include access to an id token made by Google.
+     */
+    public static GoogleSignInOptions createSignInOptions(Context context) {
+        return new GoogleSignInOptions
+                .Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
+                .requestScopes(new Scope(Scopes.PROFILE))
+                .requestScopes(new Scope(Scopes.EMAIL))
+                .requestProfile()
+                .requestEmail()
+                .requestIdToken(context.getString(R.string.server_client_id))
+                .build();
+    }
+
+    /** Signs in silently and returns the new id token; blocks, so never call it on the UI thread */
+    @Override
+    public String refresh() throws IOException {
+        ConnectionResult connection = client.blockingConnect(kTimeoutMs, TimeUnit.MILLISECONDS);
+        if (!connection.isSuccess()) {
+            throw new IOException("Could not connect to Google: " + connection.getErrorCode());
+        }
+
+        try {
+            GoogleSignInResult result = Auth.GoogleSignInApi.silentSignIn(client)
+                    .await(kTimeoutMs, TimeUnit.MILLISECONDS);
+            final GoogleSignInAccount acct = result.getSignInAccount();
+            if (!result.isSuccess() || acct == null || acct.getIdToken() == null) {
+                throw new IOException("Silent sign in failed; err "
+                        + result.getStatus().getStatusCode());
+            }
+            return acct.getIdToken();
+        } finally {
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.marcusposey.cadtra.net;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/** Inflates the content of a response that was sent with Content-Encoding: gzip */
+class GzipDecompressingEntity extends HttpEntityWrapper {
+    GzipDecompressingEntity(HttpEntity entity) {
+        super(entity);
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new GZIPInputStream(wrappedEntity.getContent());
+    }
+
+    @Override
+    public long getContentLength() {
+        // The inflated length is not known until the content is read.
+        return -1;
+    }
+}
@@ -0,0 +1,26 @@
+package com.marcusposey.cadtra.net;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.marcusposey.cadtra.model.Account;
+import com.marcusposey.cadtra.model.RunLog;
+
+/**
+ * Holds the Gson instance that the app shares
+ *
+ * Gson is thread-safe but costly to create, and it binds fields by
+ * reflection the first time it meets a class. The model types sent over the
+ * network have hand-written adapters instead, which are registered here.
+ */
+public class Json {
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(RunLog.class, new RunLog.GsonAdapter())
+            .registerTypeAdapter(Account.class, new Account.GsonAdapter())
+            .create();
+
+    private Json() {}
+
+    public static Gson getGson() {
+        return gson;
+    }
+}
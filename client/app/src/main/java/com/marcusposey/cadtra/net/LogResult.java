@@ -0,0 +1,71 @@
+package com.marcusposey.cadtra.net;
+
+import android.support.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** What happened to one log of a batch upload; see RequestFactory.runLogBatchPost */
+public class LogResult {
+    // The status that uploading the log alone would have received
+    public final int status;
+    // Why the log was not created; null on success
+    @Nullable
+    public final String message;
+
+    public LogResult(int status, @Nullable String message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    public boolean isCreated() {
+        return status == 201;
+    }
+
+    /** Returns true if the server refused the log itself, so sending it again cannot succeed */
+    public boolean isRejected() {
+        // Timeouts and rate limits are about the request, not the log.
+        return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+
+    /**
+     * Reads the results of a batch upload, in the order the logs were sent
+     * @throws IOException if body is not a JSON array of results
+     */
+    public static List<LogResult> readAll(InputStream body) throws IOException {
+        List<LogResult> results = new ArrayList<>();
+        JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int status = 0;
+            String message = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case "status": status = reader.nextInt(); break;
+                    case "message": message = reader.nextString(); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+            results.add(new LogResult(status, message));
+        }
+        reader.endArray();
+        return results;
+    }
+}
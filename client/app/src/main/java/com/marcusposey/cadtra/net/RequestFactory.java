@@ -1,35 +1,35 @@
 package com.marcusposey.cadtra.net;
 
-import android.app.Activity;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import com.google.gson.Gson;
 import com.marcusposey.cadtra.model.RunLog;
 
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.EntityTemplate;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
-/** Creates HTTP requests that can be sent to an ApiRequest */
+/** Creates HTTP requests that can be sent to an ApiClient */
 public class RequestFactory {
     // Stores the user's id token
     private TokenStore tokenStore = TokenStore.getInstance();
-    private final Gson gson = new Gson();
 
-    public RequestFactory() {}
+    // Bodies at least this large are compressed with gzip.
+    private static final int kGzipThresholdBytes = 1024;
 
-    public RequestFactory(Activity parent) {
-        tokenStore.refresh(parent);
-    }
+    public RequestFactory() {}
 
     /**
-     * Creates a POST request containing a run log
+     * Creates a POST request containing a run log in the compact binary encoding
      * @return null if the process fails
      */
     @Nullable
@@ -40,7 +40,40 @@ public class RequestFactory {
             final URL resource = ServerInfo.getV1ResourceURL("/users/me/logs");
             req = new HttpPost(resource.toURI());
 
-            writeJSONBody(req, gson.toJson(log));
+            writeBody(req, RunLogCodec.encode(log), RunLogCodec.kMediaType);
+            injectIdToken(req);
+        } catch (Exception e) {
+            Log.e(RequestFactory.class.getSimpleName(), e.getMessage());
+        }
+
+        return req;
+    }
+
+    /**
+     * Creates a POST request that uploads several run logs at once
+     *
+     * The logs are encoded and compressed while the request is sent, so the
+     * batch is never held in memory as a whole. The response holds one
+     * LogResult per log; see LogResult.readAll.
+     * @return null if the process fails
+     */
+    @Nullable
+    public HttpUriRequest runLogBatchPost(final List<RunLog> logs) {
+        HttpPost req = null;
+
+        try {
+            final URL resource = ServerInfo.getV1ResourceURL("/users/me/logs/batch");
+            req = new HttpPost(resource.toURI());
+
+            EntityTemplate entity = new EntityTemplate(out -> {
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                for (RunLog log : logs) RunLogCodec.write(log, gzip);
+                gzip.finish();
+            });
+            entity.setContentType(RunLogCodec.kMediaType);
+            entity.setContentEncoding("gzip");
+            entity.setChunked(true);
+            req.setEntity(entity);
             injectIdToken(req);
         } catch (Exception e) {
             Log.e(RequestFactory.class.getSimpleName(), e.getMessage());
@@ -50,15 +83,24 @@ public class RequestFactory {
     }
 
     /**
-     * Creates a GET request to retrieve all run logs
+     * Creates a GET request to retrieve run logs, newest first
+     * @param after only logs with a greater id are retrieved; 0 for no bound
+     * @param before only logs with a lesser id are retrieved; 0 for no bound
+     * @param limit the maximum number of logs to retrieve; 0 for no limit
      * @return null if the process fails
      */
     @Nullable
-    public HttpUriRequest runLogsGet() {
+    public HttpUriRequest runLogsGet(long after, long before, int limit) {
         HttpGet req = null;
 
         try {
-            final URL resource = ServerInfo.getV1ResourceURL("/users/me/logs");
+            StringBuilder query = new StringBuilder();
+            if (after > 0) query.append("&after=").append(after);
+            if (before > 0) query.append("&before=").append(before);
+            if (limit > 0) query.append("&limit=").append(limit);
+            if (query.length() > 0) query.setCharAt(0, '?');
+
+            final URL resource = ServerInfo.getV1ResourceURL("/users/me/logs" + query);
             req = new HttpGet(resource.toURI());
             injectIdToken(req);
         } catch (Exception e) {
@@ -74,11 +116,23 @@ public class RequestFactory {
      */
     @Nullable
     public HttpUriRequest accountGet() {
+        return accountGet(null);
+    }
+
+    /**
+     * Creates a GET request to retrieve the user's profile if it has changed
+     * @param etag the ETag of a cached profile; the server responds with 304
+     *             if it is still current. Null to always retrieve the profile.
+     * @return null if the process fails
+     */
+    @Nullable
+    public HttpUriRequest accountGet(@Nullable String etag) {
         HttpGet req = null;
 
         try {
             final URL resource = ServerInfo.getV1ResourceURL("/users/me");
             req = new HttpGet(resource.toURI());
+            if (etag != null) req.setHeader("If-None-Match", etag);
             injectIdToken(req);
         } catch (Exception e) {
             Log.e(RequestFactory.class.getSimpleName(), e.getMessage());
@@ -107,22 +161,36 @@ public class RequestFactory {
     }
 
     /**
-     * Writes content to the request body of req and sets the content type to
-     * application/json
+     * Writes content to the request body of req and sets its content type
+     *
+     * Large bodies, such as run logs with long routes, are compressed with gzip.
      */
-    private void writeJSONBody(HttpEntityEnclosingRequestBase req, String body) {
+    private void writeBody(HttpEntityEnclosingRequestBase req, byte[] bytes,
+                           String contentType) {
         try {
-            StringEntity respBody = new StringEntity(body);
-            req.setEntity(respBody);
-            req.setHeader("Content-Type", "application/json");
+            if (bytes.length < kGzipThresholdBytes) {
+                req.setEntity(new ByteArrayEntity(bytes));
+            } else {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(bytes);
+                }
+                req.setEntity(new ByteArrayEntity(compressed.toByteArray()));
+                req.setHeader("Content-Encoding", "gzip");
+            }
+            req.setHeader("Content-Type", contentType);
         } catch (IOException e) {
             Log.e(RequestFactory.class.getSimpleName(), e.getMessage());
         }
     }
 
-    /** Adds the user's id token to req */
+    /**
+     * Adds the user's id token to req
+     *
+     * The token may be stale by the time req is sent; ApiClient replaces it
+     * with a fresh one then, off the UI thread.
+     */
     private void injectIdToken(HttpUriRequest req) {
-        // Todo: Refresh only when necessary.
         req.setHeader("Authorization", "Bearer " + tokenStore.getIdToken());
     }
 }
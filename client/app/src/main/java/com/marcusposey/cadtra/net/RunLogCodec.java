@@ -0,0 +1,291 @@
+package com.marcusposey.cadtra.net;
+
+import android.support.annotation.Nullable;
+
+import com.marcusposey.cadtra.model.RunLog;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Converts run logs to and from the server's compact binary encoding
+ *
+ * A binary log is a version byte followed by varints. Signed values use
+ * zigzag encoding, and fractional values are stored in fixed point:
+ *      id
+ *      started-at, in epoch milliseconds
+ *      ended-at minus started-at, in milliseconds
+ *      duration, in milliseconds
+ *      distance, in units of 1e-5
+ *      fastest pace, in milliseconds per unit of distance
+ *      split interval, in units of 1e-5
+ *      split count (unsigned), then each split in milliseconds
+ *      polyline value count (unsigned), then each value (unsigned)
+ *      comment length in bytes (unsigned), then the UTF-8 comment
+ * The polyline values are the zigzag deltas that Google's polyline algorithm
+ * spells out in 5-bit ASCII chunks, so the path survives exactly while each
+ * byte carries 7 bits instead of 5. A list of logs is their encodings placed
+ * one after another.
+ *
+ * See server/src/model/log_binary.go for the server's side.
+ */
+public class RunLogCodec {
+    // Content type of a binary log
+    public static final String kMediaType = "application/vnd.cadtra.log";
+
+    private static final int kVersion = 1;
+    private static final double kDistanceScale = 1e5;
+    // The server accepts logs of up to 1 MiB, so no count can be larger.
+    private static final int kMaxCount = 1 << 20;
+
+    private RunLogCodec() {}
+
+    /**
+     * Returns the binary encoding of log
+     * @throws IllegalArgumentException if the log's polyline is malformed
+     */
+    public static byte[] encode(RunLog log) {
+        Writer writer = new Writer(log);
+        return Arrays.copyOf(writer.buf, writer.length);
+    }
+
+    /**
+     * Writes the binary encoding of log to out
+     * @throws IllegalArgumentException if the log's polyline is malformed
+     */
+    public static void write(RunLog log, OutputStream out) throws IOException {
+        Writer writer = new Writer(log);
+        out.write(writer.buf, 0, writer.length);
+    }
+
+    /**
+     * Returns the single log in bytes
+     * @throws IOException if bytes do not hold exactly one log
+     */
+    public static RunLog decode(byte[] bytes) throws IOException {
+        try (Reader reader = new Reader(new ByteArrayInputStream(bytes))) {
+            final RunLog log = reader.next();
+            if (log == null || reader.next() != null) throw new IOException("Expected one log");
+            return log;
+        }
+    }
+
+    /** Encodes one log into a byte array */
+    private static class Writer {
+        private byte[] buf;
+        private int length;
+
+        Writer(RunLog log) {
+            final String polyline = log.getPolylinePath() == null ? "" : log.getPolylinePath();
+            final double[] splits = log.getSplits() == null ? new double[0] : log.getSplits();
+            final byte[] comment = log.getComment() == null
+                    ? new byte[0] : log.getComment().getBytes(StandardCharsets.UTF_8);
+            // Polyline values never take more bytes than characters.
+            buf = new byte[64 + polyline.length() + 10 * splits.length + comment.length];
+
+            final long startedAt = DateTime.parse(log.getStartTimestampTz()).getMillis();
+            final long endedAt = DateTime.parse(log.getEndTimestampTz()).getMillis();
+            buf[length++] = kVersion;
+            putSigned(log.getId());
+            putSigned(startedAt);
+            putSigned(endedAt - startedAt);
+            putSigned(Math.round(log.getDurationSec() * 1000));
+            putSigned(Math.round(log.getDistanceValue() * kDistanceScale));
+            putSigned(Math.round(log.getFastestPaceValue() * 1000));
+            putSigned(Math.round(log.getSplitInterval() * kDistanceScale));
+            putUnsigned(splits.length);
+            for (double split : splits) putSigned(Math.round(split * 1000));
+            putPolyline(polyline);
+            putUnsigned(comment.length);
+            reserve(comment.length);
+            System.arraycopy(comment, 0, buf, length, comment.length);
+            length += comment.length;
+        }
+
+        /** Writes the values of an encoded polyline, preceded by their count */
+        private void putPolyline(String polyline) {
+            // The count is not known until the end, so leave room for it.
+            final int countAt = length;
+            reserve(4);
+            length += 4;
+
+            int count = 0;
+            long value = 0;
+            int shift = 0;
+            for (int i = 0; i < polyline.length(); i++) {
+                final int chunk = polyline.charAt(i) - 63;
+                if (chunk < 0 || chunk > 0x3f || shift > 60) {
+                    throw new IllegalArgumentException("Malformed polyline");
+                }
+                value |= (long) (chunk & 0x1f) << shift;
+                if (chunk < 0x20) {
+                    putUnsigned(value);
+                    count++;
+                    value = 0;
+                    shift = 0;
+                } else {
+                    shift += 5;
+                }
+            }
+            if (shift != 0) throw new IllegalArgumentException("Malformed polyline");
+
+            // Write the count in as few bytes as it needs and close the gap.
+            final int valuesAt = countAt + 4;
+            final int valuesLength = length - valuesAt;
+            length = countAt;
+            putUnsigned(count);
+            System.arraycopy(buf, valuesAt, buf, length, valuesLength);
+            length += valuesLength;
+        }
+
+        private void putSigned(long value) {
+            putUnsigned((value << 1) ^ (value >> 63));
+        }
+
+        private void putUnsigned(long value) {
+            reserve(10);
+            while ((value & ~0x7fL) != 0) {
+                buf[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[length++] = (byte) value;
+        }
+
+        /** Makes room for n more bytes */
+        private void reserve(int n) {
+            if (buf.length - length < n) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + n));
+            }
+        }
+    }
+
+    /**
+     * Reads binary logs from a stream, one at a time
+     *
+     * The stream is buffered internally, so it need not be buffered already.
+     */
+    public static class Reader implements Closeable {
+        private final InputStream in;
+        private final byte[] buf = new byte[8192];
+        private int position;
+        private int limit;
+
+        public Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next log
+         *
+         * On Failure:
+         *      An IOException is thrown if the data is malformed or ends in
+         *      the middle of a log.
+         * @return null if the stream has no more logs
+         */
+        @Nullable
+        public RunLog next() throws IOException {
+            if (position == limit && !fill()) return null;
+            final int version = buf[position++] & 0xff;
+            if (version != kVersion) {
+                throw new IOException("Unsupported log version " + version);
+            }
+
+            final long id = getSigned();
+            final long startedAt = getSigned();
+            final long endedAt = startedAt + getSigned();
+            final double durationSec = getSigned() / 1000.0;
+            final double distance = getSigned() / kDistanceScale;
+            final double fastestPace = getSigned() / 1000.0;
+            final double splitInterval = getSigned() / kDistanceScale;
+            final double[] splits = new double[getCount()];
+            for (int i = 0; i < splits.length; i++) splits[i] = getSigned() / 1000.0;
+            final String polyline = getPolyline();
+            final String comment = getString(getCount());
+
+            return new RunLog(id, toTimestampTz(startedAt), toTimestampTz(endedAt), durationSec,
+                    polyline, distance, fastestPace, splitInterval, splits, comment);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /** Reads polyline values and spells them out as a polyline */
+        private String getPolyline() throws IOException {
+            final int count = getCount();
+            // Most values take one or two characters; none takes more than 13.
+            char[] polyline = new char[Math.min(count, 4096) * 2 + 13];
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                long value = getUnsigned();
+                if (polyline.length - length < 13) {
+                    polyline = Arrays.copyOf(polyline, polyline.length * 2);
+                }
+                while (value >= 0x20) {
+                    polyline[length++] = (char) ((0x20 | (value & 0x1f)) + 63);
+                    value >>>= 5;
+                }
+                polyline[length++] = (char) (value + 63);
+            }
+            return new String(polyline, 0, length);
+        }
+
+        private String getString(int byteCount) throws IOException {
+            final byte[] bytes = new byte[byteCount];
+            for (int read = 0; read < byteCount; ) {
+                if (position == limit && !fill()) throw new EOFException();
+                final int n = Math.min(byteCount - read, limit - position);
+                System.arraycopy(buf, position, bytes, read, n);
+                position += n;
+                read += n;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long getSigned() throws IOException {
+            final long value = getUnsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long getUnsigned() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position == limit && !fill()) throw new EOFException();
+                final byte b = buf[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /** Reads a count of items, rejecting ones too large to be real */
+        private int getCount() throws IOException {
+            final long count = getUnsigned();
+            if (count > kMaxCount) throw new IOException("Malformed count " + count);
+            return (int) count;
+        }
+
+        /** Refills buf from the stream and returns false if it has ended */
+        private boolean fill() throws IOException {
+            final int n = in.read(buf, 0, buf.length);
+            if (n <= 0) return false;
+            position = 0;
+            limit = n;
+            return true;
+        }
+    }
+
+    private static String toTimestampTz(long epochMillis) {
+        return new DateTime(epochMillis, DateTimeZone.UTC).toString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.marcusposey.cadtra.net;
+
+import android.support.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.marcusposey.cadtra.model.RunLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a JSON array of run logs one log at a time
+ *
+ * Only the log being decoded is held in memory, so a long history can be
+ * read straight from a response body and written elsewhere as it arrives.
+ * A JSON null is treated as an empty array. The polyline and splits of logs
+ * that a DetailFilter does not need are skipped rather than decoded.
+ */
+public class RunLogStreamReader implements Closeable {
+    private final JsonReader reader;
+    private final RunLog.GsonAdapter adapter = new RunLog.GsonAdapter();
+    private boolean hasStarted = false;
+    private boolean isDone = false;
+
+    public RunLogStreamReader(InputStream in) {
+        reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the next log in the array or null after the last one
+     * @throws IOException if the input is not an array of run logs
+     */
+    @Nullable
+    public RunLog next() throws IOException {
+        return next(null);
+    }
+
+    /**
+     * Returns the next log in the array or null after the last one
+     * @param filter decides whether the log's polyline and splits are read; null to read them
+     * @throws IOException if the input is not an array of run logs
+     */
+    @Nullable
+    public RunLog next(@Nullable RunLog.GsonAdapter.DetailFilter filter) throws IOException {
+        if (!hasStarted) {
+            hasStarted = true;
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                isDone = true;
+            } else {
+                reader.beginArray();
+            }
+        }
+        if (isDone) return null;
+
+        if (!reader.hasNext()) {
+            reader.endArray();
+            isDone = true;
+            return null;
+        }
+        return adapter.read(reader, filter);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
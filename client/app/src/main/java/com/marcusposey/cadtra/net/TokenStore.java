@@ -1,57 +1,303 @@
 package com.marcusposey.cadtra.net;
 
-import android.app.Activity;
-import android.content.Intent;
+import android.support.annotation.Nullable;
+import android.util.Log;
 
-import com.marcusposey.cadtra.activity.SignInActivity;
+import com.google.gson.stream.JsonReader;
 
-/** Stores the user's id token */
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Stores the user's id token and keeps it fresh
+ *
+ * The token's expiry is read from its exp claim. A token is renewed through
+ * a Refresher, on a background thread, kRefreshMarginMs before it expires,
+ * so requests rarely find it stale. If one does, it waits for the renewal
+ * instead of being sent with an expired token. Renewals never overlap:
+ * every thread that needs a token while one is in flight waits on it.
+ *
+ * A renewal can hand back a token that is already due, e.g. one that silent
+ * sign-in had cached. Renewals then back off, from kMinRetryDelayMs up to
+ * kMaxRetryDelayMs, rather than run again at once.
+ */
 public class TokenStore {
-    private static TokenStore instance;
+    /** Renews the id token without involving the user */
+    public interface Refresher {
+        /**
+         * Returns a new id token; blocks until it is available
+         * @throws IOException if the token cannot be renewed
+         */
+        String refresh() throws IOException;
+    }
+
+    /** Tells the time in epoch milliseconds */
+    public interface Clock {
+        long currentTimeMillis();
+    }
 
-    // The last time the id token was refreshed
-    // Id Tokens last one hour before they need to be renewed.
-    private long lastRefresh;
-    private final int msInHour = 3600 * 1000;
+    private static final String TAG = TokenStore.class.getSimpleName();
 
     // Intent tag for extras that store the id token
     public static final String TOKEN_EXTRA = "TOKEN";
 
+    // Tokens are renewed this long before they expire.
+    public static final long kRefreshMarginMs = 5 * 60 * 1000;
+    // The longest a request waits on a renewal; a Refresher should give up before it
+    public static final long kRefreshTimeoutMs = 60 * 1000;
+    // The bounds of the wait between renewals that return tokens which are already due
+    public static final long kMinRetryDelayMs = 30 * 1000;
+    public static final long kMaxRetryDelayMs = 10 * 60 * 1000;
+    // How long a token without an exp claim is trusted
+    public static final long kUnknownExpiryTtlMs = 15 * 60 * 1000;
+
+    private static TokenStore instance;
+
+    private final Clock clock;
+    // Runs renewals that are due before any request needs them
+    private final ScheduledExecutorService scheduler;
+
     private String idToken;
+    // When idToken expires, in epoch milliseconds; 0 if there is no token
+    private long expiresAt;
+    // Until when a due token is used without being renewed, in epoch milliseconds
+    private long renewAfter;
+    // The wait before the next renewal if the latest one returned a due token
+    private long retryDelayMs = kMinRetryDelayMs;
+    @Nullable
+    private Refresher refresher;
+    // The renewal in flight, if any
+    @Nullable
+    private FutureTask<String> refreshTask;
+    // The next renewal that is due ahead of expiry
+    @Nullable
+    private ScheduledFuture<?> scheduledRefresh;
 
-    private TokenStore() {
-        lastRefresh = System.currentTimeMillis();
+    /**
+     * Creates a store that is independent of the app's; see getInstance()
+     * @param scheduler runs the renewals that are scheduled ahead of expiry
+     */
+    public TokenStore(Clock clock, ScheduledExecutorService scheduler) {
+        this.clock = clock;
+        this.scheduler = scheduler;
     }
 
     /** Returns the single instance of the user's token */
     public static synchronized TokenStore getInstance() {
-        if (instance == null) instance = new TokenStore();
+        if (instance == null) {
+            instance = new TokenStore(System::currentTimeMillis, createScheduler());
+        }
         return instance;
     }
 
-    /**
-     * Gets the last token retrieved or a new one if none exists
-     * @return null if TokenStore is not attached to an Activity
-     */
+    /** Sets how tokens are renewed; the first refresher set is kept */
+    public synchronized void setRefresher(Refresher refresher) {
+        if (this.refresher == null) this.refresher = refresher;
+    }
+
+    public synchronized boolean hasRefresher() {
+        return refresher != null;
+    }
+
+    /** Returns the last token stored, which may have expired, or null */
+    @Nullable
     public synchronized String getIdToken() {
         return idToken;
     }
 
-    /** Sets the id token */
-    public synchronized void setIdToken(String token) {
+    /**
+     * Returns a token that will not expire within kRefreshMarginMs
+     *
+     * If the stored token is that fresh, it is returned at once, as is a
+     * token that has not expired while renewals back off. Otherwise, this
+     * blocks until a renewal finishes, so it must not be called from the
+     * UI thread.
+     *
+     * On Failure:
+     *      If the renewal fails but the stored token has not expired yet, it
+     *      is returned anyway. Otherwise, an IOException is thrown.
+     */
+    public String getFreshIdToken() throws IOException {
+        return getIdToken(false);
+    }
+
+    /** @param isForced true to renew even a fresh token, as scheduled renewals do */
+    private String getIdToken(boolean isForced) throws IOException {
+        final FutureTask<String> task;
+        boolean isOwner = false;
+        synchronized (this) {
+            if (!isForced && isFresh()) return idToken;
+            if (refresher == null) {
+                if (idToken != null && clock.currentTimeMillis() < expiresAt) return idToken;
+                throw new IOException("No token and no way to renew it");
+            }
+            if (refreshTask == null) {
+                refreshTask = new FutureTask<>(this::renew);
+                isOwner = true;
+            }
+            task = refreshTask;
+        }
+
+        // The first thread to need a renewal performs it; the rest wait.
+        if (isOwner) task.run();
+        try {
+            return task.get(kRefreshTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while renewing the token");
+        } catch (ExecutionException | TimeoutException e) {
+            synchronized (this) {
+                if (idToken != null && clock.currentTimeMillis() < expiresAt) return idToken;
+            }
+            final Throwable cause = e.getCause() == null ? e : e.getCause();
+            throw cause instanceof IOException
+                    ? (IOException) cause : new IOException("Could not renew the token", cause);
+        }
+    }
+
+    /**
+     * Stores a token, reading its expiry from its exp claim
+     * A token without one is trusted for kUnknownExpiryTtlMs.
+     */
+    public void setIdToken(String token) {
+        long expiresAt = token == null ? 0 : parseExpiry(token);
+        if (token != null && expiresAt == 0) {
+            expiresAt = clock.currentTimeMillis() + kUnknownExpiryTtlMs;
+        }
+        setIdToken(token, expiresAt);
+    }
+
+    /**
+     * Stores a token and schedules its renewal
+     *
+     * The renewal is only scheduled if the token outlives the one it
+     * replaces; otherwise, renewing again would likely return it once more.
+     * @param expiresAt when the token expires, in epoch milliseconds
+     */
+    public synchronized void setIdToken(String token, long expiresAt) {
+        final boolean isLonger = expiresAt > this.expiresAt;
         idToken = token;
+        this.expiresAt = expiresAt;
+
+        if (scheduledRefresh != null) scheduledRefresh.cancel(false);
+        scheduledRefresh = null;
+
+        final long now = clock.currentTimeMillis();
+        long delay = expiresAt - kRefreshMarginMs - now;
+        if (delay < kMinRetryDelayMs) {
+            delay = retryDelayMs;
+            retryDelayMs = Math.min(retryDelayMs * 2, kMaxRetryDelayMs);
+        } else {
+            retryDelayMs = kMinRetryDelayMs;
+        }
+        renewAfter = now + delay;
+        if (refresher == null || token == null || !isLonger) return;
+
+        scheduledRefresh = scheduler.schedule(() -> {
+            try {
+                getIdToken(true);
+            } catch (IOException e) {
+                // The next request will try again.
+                Log.e(TAG, String.valueOf(e.getMessage()));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /** Marks token as expired, e.g. because the server rejected it */
+    public synchronized void invalidate(String token) {
+        if (token != null && token.equals(idToken)) expiresAt = 0;
+    }
+
+    /** Returns true if the token is outside the margin, or due but backing off from renewal */
+    private boolean isFresh() {
+        final long now = clock.currentTimeMillis();
+        return idToken != null
+                && (now < expiresAt - kRefreshMarginMs || (now < expiresAt && now < renewAfter));
+    }
+
+    /** Runs a renewal and stores its result; called only by the thread that owns refreshTask */
+    private String renew() throws IOException {
+        final Refresher refresher;
+        synchronized (this) {
+            refresher = this.refresher;
+        }
+        try {
+            final String token = refresher.refresh();
+            if (token == null) throw new IOException("Refresher returned no token");
+            setIdToken(token);
+            return token;
+        } finally {
+            synchronized (this) {
+                refreshTask = null;
+            }
+        }
+    }
+
+    /**
+     * Returns when a JWT expires, in epoch milliseconds
+     * @return 0 if the token has no readable exp claim
+     */
+    public static long parseExpiry(String jwt) {
+        final int start = jwt.indexOf('.') + 1;
+        final int end = jwt.indexOf('.', start);
+        if (start == 0 || end == -1) return 0;
+
+        try {
+            final byte[] payload = decodeBase64Url(jwt.substring(start, end));
+            JsonReader reader = new JsonReader(
+                    new StringReader(new String(payload, StandardCharsets.UTF_8)));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("exp")) return reader.nextLong() * 1000;
+                reader.skipValue();
+            }
+        } catch (IllegalArgumentException | IOException | IllegalStateException e) {
+            // The payload is not JSON or the claim is not a number.
+        }
+        return 0;
     }
 
-    /** Refreshes the token if it is nearing expiration */
-    public synchronized void refresh(Activity parent) {
-        if ((System.currentTimeMillis() - lastRefresh) < msInHour / 2) {
-            // Refresh only after 30 minutes, even though the token
-            // lasts an hour.
-            return;
+    /**
+     * Decodes unpadded base64url, as used by JWTs
+     * @throws IllegalArgumentException if text is not base64url
+     */
+    private static byte[] decodeBase64Url(String text) {
+        final String alphabet =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        if (text.length() % 4 == 1) throw new IllegalArgumentException("Malformed base64");
+
+        byte[] bytes = new byte[text.length() * 3 / 4];
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final int value = alphabet.indexOf(text.charAt(i));
+            if (value == -1) throw new IllegalArgumentException("Malformed base64");
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                bytes[length++] = (byte) (bits >> bitCount);
+            }
         }
-        Intent silentSignIn = new Intent(parent, SignInActivity.class);
-        silentSignIn.putExtra(SignInActivity.REFRESH_REQUEST, true);
-        parent.startActivity(silentSignIn);
-        lastRefresh = System.currentTimeMillis();
+        return bytes;
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
     }
-}
\ No newline at end of file
+}
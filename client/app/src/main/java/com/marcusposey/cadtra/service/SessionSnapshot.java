@@ -0,0 +1,103 @@
+package com.marcusposey.cadtra.service;
+
+import com.marcusposey.cadtra.model.PaceEstimator;
+import com.marcusposey.cadtra.model.Route;
+import com.marcusposey.cadtra.model.SamplingPolicy;
+import com.marcusposey.cadtra.model.SplitTracker;
+
+/**
+ * The state of a session at one moment, as it is shown on screen
+ *
+ * Snapshots are immutable, so one can be handed to any thread. Paces are in
+ * seconds per mile and are NaN until enough distance has been covered to
+ * make them meaningful.
+ */
+public final class SessionSnapshot {
+    // The distance below which a pace is mostly GPS noise
+    static final double kMinPaceMiles = 0.01;
+
+    private final SamplingPolicy.State state;
+    private final long elapsedNanos;
+    private final double miles;
+    private final double averagePace;
+    private final double currentPace;
+    private final int splitCount;
+    private final double lastSplit;
+    private final int routeSize;
+    private final boolean hasLocation;
+    private final double latitude;
+    private final double longitude;
+
+    /** Captures a session; the route and splits must not change meanwhile */
+    SessionSnapshot(SamplingPolicy.State state, long elapsedNanos, Route route,
+                    SplitTracker splits, PaceEstimator paceEstimator, boolean hasLocation,
+                    double latitude, double longitude) {
+        this.state = state;
+        this.elapsedNanos = elapsedNanos;
+        this.miles = route.getMiles();
+        this.averagePace = pace(elapsedNanos, miles);
+        this.currentPace = paceEstimator.getPace(elapsedNanos) * SplitTracker.kMetersPerMile;
+        this.splitCount = splits.size();
+        this.lastSplit = splits.getLastSplit();
+        this.routeSize = route.size();
+        this.hasLocation = hasLocation;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    private static double pace(long nanos, double miles) {
+        return miles < kMinPaceMiles ? Double.NaN : nanos / 1e9 / miles;
+    }
+
+    /** Returns IDLE if no session is in progress; RUNNING or PAUSED otherwise */
+    public SamplingPolicy.State getState() {
+        return state;
+    }
+
+    /** Returns the active time of the session, excluding pauses */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getMiles() {
+        return miles;
+    }
+
+    /** Returns the pace over the whole session */
+    public double getAveragePace() {
+        return averagePace;
+    }
+
+    /** Returns the pace over the last stretch of the route; see PaceEstimator */
+    public double getCurrentPace() {
+        return currentPace;
+    }
+
+    /** Returns the number of completed splits */
+    public int getSplitCount() {
+        return splitCount;
+    }
+
+    /** Returns the duration, in seconds, of the latest completed split; NaN if there is none */
+    public double getLastSplit() {
+        return lastSplit;
+    }
+
+    /** Returns the number of points in the route, which grows as the route does */
+    public int getRouteSize() {
+        return routeSize;
+    }
+
+    /** Returns true if the runner's location is known */
+    public boolean hasLocation() {
+        return hasLocation;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+}
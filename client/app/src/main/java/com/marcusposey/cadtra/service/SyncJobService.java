@@ -0,0 +1,154 @@
+package com.marcusposey.cadtra.service;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.ApiClient;
+import com.marcusposey.cadtra.net.GoogleTokenRefresher;
+import com.marcusposey.cadtra.net.LogResult;
+import com.marcusposey.cadtra.net.RequestFactory;
+import com.marcusposey.cadtra.storage.LocalExecutor;
+import com.marcusposey.cadtra.storage.RunStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Uploads run logs from the RunStore outbox
+ *
+ * The job only runs while the device has a network connection, and it is
+ * persisted so that pending logs are still uploaded after the app process
+ * dies or the device restarts. A log whose upload fails is retried with
+ * exponential backoff, unless the server rejected the log itself.
+ */
+public class SyncJobService extends JobService {
+    private static final String TAG = SyncJobService.class.getSimpleName();
+    private static final int kJobId = 1;
+
+    // The most logs uploaded in one run of the job, which the server accepts in one request
+    private static final int kBatchSize = 100;
+
+    // Retry delays start here and double with every failed upload...
+    private static final long kInitialBackoffMs = 30 * 1000;
+    // ...until they reach this cap.
+    private static final long kMaxBackoffMs = 60 * 60 * 1000;
+
+    // The upload that is in progress, if any
+    private ApiClient.Call syncCall;
+
+    /** Schedules an upload of any logs in the outbox */
+    public static void schedule(Context context) {
+        schedule(context, 0);
+    }
+
+    /**
+     * Schedules an upload that runs no sooner than delayMs from now
+     * Scheduling replaces any sync job that has not started yet.
+     */
+    private static void schedule(Context context, long delayMs) {
+        JobInfo job = new JobInfo.Builder(kJobId, new ComponentName(context, SyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(delayMs)
+                .setBackoffCriteria(kInitialBackoffMs, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .setPersisted(true)
+                .build();
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(job);
+    }
+
+    /** Returns how long to wait before retrying a log that has failed attempts times */
+    static long backoffMs(int attempts) {
+        if (attempts >= 30) return kMaxBackoffMs;
+        return Math.min(kMaxBackoffMs, kInitialBackoffMs << (attempts - 1));
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final Context context = getApplicationContext();
+        // The app may have been restarted just for this job, so tokens may need renewing.
+        GoogleTokenRefresher.install(context);
+        syncCall = ApiClient.getInstance().submit(() -> uploadPending(context), (isDrained, e) -> {
+            if (e != null) {
+                // Let the scheduler retry the whole job later.
+                jobFinished(params, true);
+                return;
+            }
+            jobFinished(params, false);
+            if (!isDrained) scheduleNext(context);
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (syncCall != null) syncCall.cancel();
+        return true;
+    }
+
+    /**
+     * Uploads one batch of logs that are due in a single request
+     *
+     * Each log succeeds or fails on its own. If the request fails as a
+     * whole, every log in it is retried later. This blocks on network
+     * requests and must run in the background.
+     * @return true if nothing is left in the outbox
+     * @throws IOException if the server cannot be reached
+     */
+    private static boolean uploadPending(Context context) throws IOException {
+        final RunStore store = RunStore.getInstance(context);
+        final ApiClient client = ApiClient.getInstance();
+        final RequestFactory factory = new RequestFactory();
+
+        final List<RunStore.PendingLog> batch = store.getPending(System.currentTimeMillis(),
+                kBatchSize);
+        if (batch.isEmpty()) return store.getNextAttemptTime() == -1;
+
+        List<RunLog> logs = new ArrayList<>(batch.size());
+        for (RunStore.PendingLog pending : batch) logs.add(pending.log);
+        final List<LogResult> results = client.execute(factory.runLogBatchPost(logs),
+                (code, body) -> {
+                    if (code == 200) return LogResult.readAll(body);
+                    Log.w(TAG, "batch upload failed: " + code);
+                    return Collections.emptyList();
+                });
+
+        for (int i = 0; i < batch.size(); i++) {
+            final RunStore.PendingLog pending = batch.get(i);
+            final LogResult result = i < results.size() ? results.get(i) : null;
+            if (result != null && result.isCreated()) {
+                store.markSynced(pending.localId);
+            } else if (result != null && result.isRejected()) {
+                Log.w(TAG, "log " + pending.localId + " was rejected: "
+                        + result.status + " " + result.message);
+                store.markRejected(pending.localId);
+            } else {
+                if (result != null) {
+                    Log.w(TAG, "upload of log " + pending.localId + " failed: "
+                            + result.status + " " + result.message);
+                }
+                final int attempts = pending.attempts + 1;
+                store.markFailed(pending.localId, attempts,
+                        System.currentTimeMillis() + backoffMs(attempts));
+            }
+        }
+        return store.getNextAttemptTime() == -1;
+    }
+
+    /** Schedules the job to run when the next log in the outbox is due */
+    private static void scheduleNext(Context context) {
+        final RunStore store = RunStore.getInstance(context);
+        LocalExecutor.getInstance().submit(store::getNextAttemptTime, (nextAttempt, e) -> {
+            if (nextAttempt == null || nextAttempt == -1) return;
+            schedule(context, Math.max(0, nextAttempt - System.currentTimeMillis()));
+        });
+    }
+}
@@ -0,0 +1,218 @@
+package com.marcusposey.cadtra.service;
+
+import android.support.annotation.Nullable;
+
+import com.marcusposey.cadtra.model.Fix;
+import com.marcusposey.cadtra.model.FixPipeline;
+import com.marcusposey.cadtra.model.PaceEstimator;
+import com.marcusposey.cadtra.model.Route;
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.model.SamplingPolicy;
+import com.marcusposey.cadtra.model.SplitTracker;
+import com.marcusposey.cadtra.model.Stopwatch;
+import com.marcusposey.cadtra.storage.SessionJournal;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Runs a session: times it, builds its route from location fixes, and
+ * journals both so that the session can be restored
+ *
+ * The engine knows nothing of location providers or views; TrackingService
+ * feeds it fixes and reads its sampling settings. All of its methods must be
+ * called on one thread. Only the stopwatch does work elsewhere.
+ */
+public class TrackingEngine {
+    private final Stopwatch stopwatch;
+    private final SessionJournal journal;
+    // Keeps inaccurate and stationary fixes out of the route
+    private final FixPipeline fixPipeline = FixPipeline.createDefault();
+    // Decides how often location updates are requested
+    private final SamplingPolicy samplingPolicy = new SamplingPolicy();
+
+    private SamplingPolicy.State state = SamplingPolicy.State.IDLE;
+    // When the session started, in epoch milliseconds
+    private long startedAtMs;
+    // The LatLng cords that indicate where the runner has traveled
+    private Route route = new Route();
+    // Times each mile of the route
+    private SplitTracker splitTracker = new SplitTracker();
+    // Estimates the pace over the last stretch of the route
+    private PaceEstimator paceEstimator = new PaceEstimator();
+
+    // The latest fix reported, whether or not it joined the route
+    private boolean hasLocation = false;
+    private double latitude;
+    private double longitude;
+
+    public TrackingEngine(Stopwatch stopwatch, SessionJournal journal) {
+        this.stopwatch = stopwatch;
+        this.journal = journal;
+    }
+
+    /** Returns IDLE if no session is in progress; RUNNING or PAUSED otherwise */
+    public SamplingPolicy.State getState() {
+        return state;
+    }
+
+    public boolean isInProgress() {
+        return state != SamplingPolicy.State.IDLE;
+    }
+
+    /**
+     * Starts a session if none is in progress
+     * @param nowMs the wall time, in epoch milliseconds
+     */
+    public void start(long nowMs) {
+        if (isInProgress()) return;
+
+        startedAtMs = nowMs;
+        journal.start(nowMs);
+        stopwatch.start();
+        setState(SamplingPolicy.State.RUNNING);
+    }
+
+    /** Pauses a running session */
+    public void pause(long nowMs) {
+        if (state != SamplingPolicy.State.RUNNING) return;
+
+        stopwatch.stop();
+        journal.pause(stopwatch.elapsedNanos(), nowMs);
+        setState(SamplingPolicy.State.PAUSED);
+    }
+
+    /** Resumes a paused session */
+    public void resume(long nowMs) {
+        if (state != SamplingPolicy.State.PAUSED) return;
+
+        stopwatch.start();
+        journal.resume(stopwatch.elapsedNanos(), nowMs);
+        setState(SamplingPolicy.State.RUNNING);
+    }
+
+    /**
+     * Stops the session and returns its log
+     *
+     * The session stays paused, and journaled, until reset() is called,
+     * which should happen once the log has been saved.
+     * @return null if no session is in progress
+     */
+    @Nullable
+    public RunLog finish(long nowMs) {
+        if (!isInProgress()) return null;
+        pause(nowMs);
+
+        return new RunLog.Builder()
+                .addTimeSegment(toTimestampTz(startedAtMs), toTimestampTz(nowMs))
+                .addRoute(route)
+                .addSplits(splitTracker)
+                .addPace(paceEstimator)
+                .addDuration(stopwatch.elapsedNanos() / 1e9)
+                .build();
+    }
+
+    /** Discards the session, e.g. after its log has been saved */
+    public void reset() {
+        stopwatch.reset();
+        journal.finish();
+        route = new Route();
+        splitTracker = new SplitTracker();
+        paceEstimator = new PaceEstimator();
+        fixPipeline.reset();
+        startedAtMs = 0;
+        setState(SamplingPolicy.State.IDLE);
+    }
+
+    /**
+     * Continues a session read from the journal
+     * @return false if a session was already in progress, in which case nothing changes
+     */
+    public boolean restore(SessionJournal.Session session) {
+        if (isInProgress()) return false;
+
+        startedAtMs = session.startedAtMs;
+        route = session.route;
+        splitTracker = session.splitTracker;
+        paceEstimator = session.paceEstimator;
+        stopwatch.restore(session.elapsedNanos);
+        if (session.isRunning) stopwatch.start();
+        setState(session.isRunning ? SamplingPolicy.State.RUNNING : SamplingPolicy.State.PAUSED);
+        return true;
+    }
+
+    /**
+     * Takes a location update
+     *
+     * While the session runs, a fix that passes through the pipeline is
+     * added to the route and the journal. The fix may be changed.
+     * @param speed the device's speed in meters per second; negative if unknown
+     * @return true if the fix was added to the route
+     */
+    public boolean onFix(Fix fix, double speed) {
+        hasLocation = true;
+        latitude = fix.latitude;
+        longitude = fix.longitude;
+        if (speed >= 0) samplingPolicy.onSpeed(speed);
+
+        if (state != SamplingPolicy.State.RUNNING || !fixPipeline.process(fix)) return false;
+
+        final long elapsedNanos = stopwatch.elapsedNanos();
+        route.add(fix.latitude, fix.longitude, fix.time, fix.accuracy);
+        splitTracker.add(route.getMeters(), elapsedNanos);
+        paceEstimator.add(route.getMeters(), elapsedNanos);
+        journal.addFix(fix, elapsedNanos);
+        return true;
+    }
+
+    /** Captures the current state of the session */
+    public SessionSnapshot snapshot() {
+        return new SessionSnapshot(state, stopwatch.elapsedNanos(), route, splitTracker,
+                paceEstimator, hasLocation, latitude, longitude);
+    }
+
+    /**
+     * Returns how location updates should be requested
+     * The same instance is returned for as long as the settings do not change.
+     */
+    public SamplingPolicy.Settings getSamplingSettings() {
+        return samplingPolicy.getSettings();
+    }
+
+    /** Returns true if a fix has been reported since the engine was created */
+    public boolean hasLocation() {
+        return hasLocation;
+    }
+
+    /** Returns the latitude of the latest fix, before any smoothing */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /** Returns the longitude of the latest fix, before any smoothing */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /** Returns the route of the session; a new instance after reset() or restore() */
+    public Route getRoute() {
+        return route;
+    }
+
+    public SplitTracker getSplitTracker() {
+        return splitTracker;
+    }
+
+    public Stopwatch getStopwatch() {
+        return stopwatch;
+    }
+
+    private void setState(SamplingPolicy.State state) {
+        this.state = state;
+        samplingPolicy.setState(state);
+    }
+
+    private static String toTimestampTz(long epochMillis) {
+        return new DateTime(epochMillis, DateTimeZone.UTC).toString();
+    }
+}
@@ -0,0 +1,338 @@
+package com.marcusposey.cadtra.service;
+
+import android.annotation.SuppressLint;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationListener;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+import com.marcusposey.cadtra.R;
+import com.marcusposey.cadtra.activity.MainActivity;
+import com.marcusposey.cadtra.model.Fix;
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.model.SamplingPolicy;
+import com.marcusposey.cadtra.model.Stopwatch;
+import com.marcusposey.cadtra.net.ApiClient;
+import com.marcusposey.cadtra.storage.LocalExecutor;
+import com.marcusposey.cadtra.storage.RunStore;
+import com.marcusposey.cadtra.storage.SessionJournal;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks the session in progress, whether or not it is on screen
+ *
+ * The service owns the location stream and a TrackingEngine, which holds the
+ * stopwatch and the route. Activities bind to it to control the session and
+ * to be told when it changes. While a session is in progress, the service
+ * runs in the foreground with a notification, so the system neither kills
+ * it nor throttles its location updates when the screen is off. If it is
+ * killed anyway, it restores the session from the SessionJournal when it
+ * is restarted.
+ *
+ * Changes are published on the main thread as SessionSnapshots, at most
+ * once every kPublishIntervalMs. Each publish captures the session as it
+ * is then, so the last change wins and the work done on the main thread
+ * does not grow with the rate of fixes and ticks.
+ */
+public class TrackingService extends Service implements LocationListener,
+        GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+    /** Hears about changes to the session */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called on the main thread with the latest state of the session
+         * Snapshots that were replaced before they could be published are
+         * never seen.
+         */
+        void onSessionChanged(SessionSnapshot snapshot);
+    }
+
+    @FunctionalInterface
+    public interface SaveCallback {
+        /**
+         * Called on the main thread after the session's log is saved to the
+         * device. Uploading to the remote server happens later, in the background.
+         * @param e Not null if the session could not be saved; null otherwise
+         */
+        void onSessionSaved(@Nullable Exception e);
+    }
+
+    /** Gives bound activities direct access to the service */
+    public class LocalBinder extends Binder {
+        public TrackingService getService() {
+            return TrackingService.this;
+        }
+    }
+
+    // The longest listeners wait to hear about a change, and the shortest time between two
+    public static final long kPublishIntervalMs = 250;
+
+    private static final int kNotificationId = 1;
+    private static final String kChannelId = "tracking";
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler mainThread = new Handler(Looper.getMainLooper());
+
+    // Counts through deep sleep, on the same clock as Fix.elapsedNanos
+    private final Stopwatch stopwatch = new Stopwatch(SystemClock::elapsedRealtimeNanos);
+    private final Stopwatch.Listener tickListener = elapsedNanos -> schedulePublish();
+    // Carries each location update into the engine
+    private final Fix fix = new Fix();
+    private TrackingEngine engine;
+
+    private GoogleApiClient googleApiClient;
+    // The settings of the current location request; null if none was made
+    @Nullable
+    private SamplingPolicy.Settings requestedSettings;
+
+    @Nullable
+    private Listener listener;
+    // True while publish is waiting to run on the main thread
+    private final AtomicBoolean isPublishPending = new AtomicBoolean(false);
+    private final Runnable publish = this::publish;
+    // Time, according to SystemClock.uptimeMillis(), of the last publish
+    private volatile long lastPublishMs;
+
+    // Reads the journal when the service is created
+    private ApiClient.Call restoreCall;
+    // True while a finished session is being saved
+    private boolean isSaving = false;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        engine = new TrackingEngine(stopwatch, SessionJournal.getInstance(this));
+        stopwatch.addListener(tickListener);
+
+        googleApiClient = new GoogleApiClient.Builder(this)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(LocationServices.API)
+                .build();
+        googleApiClient.connect();
+
+        restoreSession();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        listener = null;
+        // The app may be killed at any time once nothing shows the session.
+        SessionJournal.getInstance(this).sync();
+        return false;
+    }
+
+    /** Keeps the service running until the session ends and restarts it if it is killed */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (restoreCall != null) restoreCall.cancel();
+        stopwatch.removeListener(tickListener);
+        mainThread.removeCallbacks(publish);
+        if (googleApiClient.isConnected()) {
+            LocationServices.FusedLocationApi.removeLocationUpdates(googleApiClient, this);
+        }
+        googleApiClient.disconnect();
+        SessionJournal.getInstance(this).sync();
+    }
+
+    /** Returns the engine that runs the session; use it on the main thread only */
+    public TrackingEngine getEngine() {
+        return engine;
+    }
+
+    /** Sets the one listener that hears about changes; null to remove it */
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+        if (listener != null) schedulePublish();
+    }
+
+    /** Starts a session if none is in progress */
+    public void startSession() {
+        if (engine.isInProgress()) return;
+        engine.start(System.currentTimeMillis());
+        onStateChanged();
+    }
+
+    public void pauseSession() {
+        engine.pause(System.currentTimeMillis());
+        onStateChanged();
+    }
+
+    public void resumeSession() {
+        engine.resume(System.currentTimeMillis());
+        onStateChanged();
+    }
+
+    /** Returns true while a finished session is being saved */
+    public boolean isSaving() {
+        return isSaving;
+    }
+
+    /**
+     * Ends the session, saves it to the device, and queues it for upload
+     * The log is written in the background; callback is told when it is
+     * safe on disk, regardless of whether the network is available.
+     */
+    public void finishSession(final SaveCallback callback) {
+        if (isSaving || !engine.isInProgress()) return;
+
+        final RunLog log = engine.finish(System.currentTimeMillis());
+        onStateChanged();
+
+        final Context context = getApplicationContext();
+        isSaving = true;
+        LocalExecutor.getInstance().submit(() -> RunStore.getInstance(context).addPending(log),
+                (localId, e) -> {
+                    isSaving = false;
+                    if (e == null) {
+                        engine.reset();
+                        onStateChanged();
+                        SyncJobService.schedule(context);
+                    }
+                    callback.onSessionSaved(e);
+                });
+    }
+
+    /** Continues the session that was in progress when the app was last killed, if any */
+    private void restoreSession() {
+        final SessionJournal journal = SessionJournal.getInstance(this);
+        restoreCall = journal.restore(System.currentTimeMillis(), (session, e) -> {
+            restoreCall = null;
+            // A session started in the meantime replaced the journal.
+            if (session != null && engine.restore(session)) {
+                onStateChanged();
+            } else if (!engine.isInProgress()) {
+                // The system restarted the service for a session that has since ended.
+                // Bound activities keep it alive until they unbind.
+                stopSelf();
+            }
+        });
+    }
+
+    /** Applies the engine's new state to the location request and the service's lifetime */
+    private void onStateChanged() {
+        requestLocationUpdates();
+        if (engine.isInProgress()) {
+            // Starting the service keeps it alive when every activity unbinds. The app may
+            // be in the background after a restart, where only foreground starts are allowed.
+            ContextCompat.startForegroundService(this, new Intent(this, TrackingService.class));
+            startForeground(kNotificationId, createNotification());
+        } else {
+            stopForeground(true);
+            stopSelf();
+        }
+        schedulePublish();
+    }
+
+    /** Starts polling location data */
+    @Override
+    public void onConnected(Bundle bundle) {
+        requestedSettings = null;
+        requestLocationUpdates();
+    }
+
+    /** Requests location updates as the engine sees fit unless they are requested already */
+    @SuppressLint("MissingPermission") // Permissions are acquired in MainActivity.
+    private void requestLocationUpdates() {
+        if (googleApiClient == null || !googleApiClient.isConnected()) return;
+
+        final SamplingPolicy.Settings settings = engine.getSamplingSettings();
+        if (settings == requestedSettings) return;
+        requestedSettings = settings;
+
+        LocationRequest locationRequest = new LocationRequest();
+        locationRequest.setInterval(settings.intervalMs);
+        locationRequest.setFastestInterval(settings.fastestIntervalMs);
+        locationRequest.setSmallestDisplacement(settings.smallestDisplacement);
+        locationRequest.setPriority(settings.priority == SamplingPolicy.Priority.HIGH_ACCURACY
+                ? LocationRequest.PRIORITY_HIGH_ACCURACY
+                : LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+
+        LocationServices.FusedLocationApi.requestLocationUpdates(googleApiClient,
+                locationRequest, this);
+    }
+
+    /** Gives a location update to the engine */
+    @Override
+    public void onLocationChanged(Location location) {
+        fix.set(location.getLatitude(), location.getLongitude(), location.getTime(),
+                location.getElapsedRealtimeNanos(), location.getAccuracy());
+        engine.onFix(fix, location.hasSpeed() ? location.getSpeed() : -1);
+        // The runner's speed may call for a different interval.
+        requestLocationUpdates();
+        schedulePublish();
+    }
+
+    /** Queues a publish unless one is queued already; may be called on any thread */
+    private void schedulePublish() {
+        if (isPublishPending.getAndSet(true)) return;
+        mainThread.postAtTime(publish,
+                Math.max(SystemClock.uptimeMillis(), lastPublishMs + kPublishIntervalMs));
+    }
+
+    private void publish() {
+        isPublishPending.set(false);
+        lastPublishMs = SystemClock.uptimeMillis();
+        if (listener != null) listener.onSessionChanged(engine.snapshot());
+    }
+
+    /** Creates the notification shown while a session is in progress */
+    private Notification createNotification() {
+        Intent intent = new Intent(this, MainActivity.class)
+                .setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, intent, 0);
+
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            manager.createNotificationChannel(new NotificationChannel(kChannelId,
+                    getString(R.string.tracking_channel), NotificationManager.IMPORTANCE_LOW));
+            builder = new Notification.Builder(this, kChannelId);
+        } else {
+            builder = new Notification.Builder(this);
+        }
+        return builder.setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.tracking_notification))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build();
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {}
+
+    @Override
+    public void onConnectionSuspended(int i) {}
+}
@@ -0,0 +1,144 @@
+package com.marcusposey.cadtra.storage;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.marcusposey.cadtra.model.Account;
+import com.marcusposey.cadtra.net.Json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps the user's account profile on the device
+ *
+ * The profile is stored with the ETag the server sent along with it, so it
+ * can be revalidated with a conditional request instead of being downloaded
+ * again. The file is read once, the first time the profile is needed, and
+ * held in memory after that. It is only a few hundred bytes.
+ */
+public class AccountCache {
+    private static final String kFileName = "account.json";
+
+    private static AccountCache instance;
+
+    private final File file;
+
+    // False until the file has been read
+    private boolean isLoaded = false;
+    @Nullable
+    private Account account;
+    @Nullable
+    private String etag;
+
+    /** Creates a cache that is independent of the app's; see getInstance(Context) */
+    public AccountCache(File file) {
+        this.file = file;
+    }
+
+    /** Returns the single instance of the cache */
+    public static synchronized AccountCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new AccountCache(new File(context.getApplicationContext().getFilesDir(),
+                    kFileName));
+        }
+        return instance;
+    }
+
+    /** Returns the cached account or null if there is none */
+    @Nullable
+    public synchronized Account get() {
+        load();
+        return account;
+    }
+
+    /** Returns the ETag of the cached account or null if it has none */
+    @Nullable
+    public synchronized String getETag() {
+        load();
+        return account == null ? null : etag;
+    }
+
+    /**
+     * Replaces the cached account
+     *
+     * On Failure:
+     *      An IOException is thrown and the cache is left empty, so a
+     *      stale account is never mistaken for the one the server sent.
+     * @param etag the ETag the server sent with account; null if it sent none
+     */
+    public synchronized void put(Account account, @Nullable String etag) throws IOException {
+        isLoaded = true;
+        this.account = null;
+        this.etag = null;
+
+        // Write a new file and swap it in, so a crash never leaves half of one.
+        final File temp = new File(file.getPath() + ".tmp");
+        final TypeAdapter<Account> adapter = Json.getGson().getAdapter(Account.class);
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(
+                new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            if (etag != null) writer.name("etag").value(etag);
+            writer.name("account");
+            adapter.write(writer, account);
+            writer.endObject();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            throw new IOException("Could not replace " + file);
+        }
+
+        this.account = account;
+        this.etag = etag;
+    }
+
+    /** Forgets the cached account, e.g. when the user signs out */
+    public synchronized void clear() {
+        isLoaded = true;
+        account = null;
+        etag = null;
+        file.delete();
+    }
+
+    /** Reads the file unless it has been read already */
+    private void load() {
+        if (isLoaded) return;
+        isLoaded = true;
+        if (!file.exists()) return;
+
+        final TypeAdapter<Account> adapter = Json.getGson().getAdapter(Account.class);
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String etag = null;
+            Account account = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (name.equals("etag")) {
+                    etag = reader.nextString();
+                } else if (name.equals("account")) {
+                    account = adapter.read(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            this.account = account;
+            this.etag = etag;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // A damaged file is as good as none; the server still has the account.
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.marcusposey.cadtra.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.ApiClient;
+import com.marcusposey.cadtra.net.RequestFactory;
+import com.marcusposey.cadtra.net.RunLogStreamReader;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Provides the user's run history one page at a time
+ *
+ * Logs are read from the RunStore cache. The server is asked only for logs
+ * the cache does not have: those created since the newest cached log and,
+ * as the user pages past the end of the cache, older ones in pages of
+ * kPageSize. Responses are decoded as they arrive and written straight to
+ * the cache, a few logs at a time.
+ *
+ * Pages hold log summaries; a log's polyline and splits are only read when
+ * getLog(long) asks for them.
+ *
+ * Every method blocks on disk or network I/O, so none should be called from
+ * the UI thread.
+ */
+public class HistoryRepository {
+    // The number of logs in a page of history
+    public static final int kPageSize = 20;
+
+    private static final String kPrefsName = "history";
+    // The newest server id up to which every log is cached
+    private static final String kSyncedThroughKey = "synced_through";
+
+    private final RunStore store;
+    private final SharedPreferences prefs;
+    private final RequestFactory factory = new RequestFactory();
+
+    // False once the server has no logs older than the oldest cached one
+    private volatile boolean hasOlderLogs = true;
+
+    public HistoryRepository(Context context) {
+        store = RunStore.getInstance(context);
+        prefs = context.getSharedPreferences(kPrefsName, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Downloads logs that were created since the newest cached log
+     * If nothing is cached yet, only the newest page is downloaded.
+     * @return the number of logs that were downloaded
+     * @throws IOException if the server could not be reached
+     */
+    public int refresh() throws IOException {
+        final long newestId = store.getNewestRemoteId();
+        if (newestId == 0) return fetchOlder(0);
+
+        // A refresh that failed part way cached the newest logs but maybe not
+        // the older ones, so the next one starts where the last complete one ended.
+        long syncedThrough = prefs.getLong(kSyncedThroughKey, 0);
+        if (syncedThrough == 0 || syncedThrough > newestId) {
+            syncedThrough = newestId;
+            prefs.edit().putLong(kSyncedThroughKey, syncedThrough).commit();
+        }
+        final int count = fetch(syncedThrough, 0, 0);
+        prefs.edit().putLong(kSyncedThroughKey, store.getNewestRemoteId()).apply();
+        return count;
+    }
+
+    /** Returns summaries of the count newest cached logs without contacting the server */
+    public List<RunLog> getNewest(int count) {
+        return store.getSummaries(0, count);
+    }
+
+    /**
+     * Returns summaries of up to kPageSize logs, newest first
+     *
+     * If the cache runs out before the page is full, older logs are fetched
+     * from the server. Should that fail, the page holds only cached logs.
+     * @param offset the number of logs that come before the page
+     */
+    public List<RunLog> getPage(int offset) {
+        List<RunLog> page = store.getSummaries(offset, kPageSize);
+        if (page.size() == kPageSize || !hasOlderLogs) return page;
+
+        try {
+            fetchOlder(store.getOldestRemoteId());
+            page = store.getSummaries(offset, kPageSize);
+        } catch (IOException e) {
+            Log.e(HistoryRepository.class.getSimpleName(), e.getMessage());
+        }
+        return page;
+    }
+
+    /**
+     * Returns every detail of a log
+     * @param id the id the server gave the log
+     * @return null if the log is not cached
+     */
+    @Nullable
+    public RunLog getLog(long id) {
+        return store.getLog(id);
+    }
+
+    /**
+     * Caches a page of logs that are older than the one with id before
+     * @return the number of logs that were downloaded
+     */
+    private int fetchOlder(long before) throws IOException {
+        final int count = fetch(0, before, kPageSize);
+        if (count < kPageSize) hasOlderLogs = false;
+        return count;
+    }
+
+    /**
+     * Caches logs from the server; see RequestFactory.runLogsGet
+     * @return the number of logs that were received
+     */
+    private int fetch(long after, long before, int limit) throws IOException {
+        return ApiClient.getInstance().execute(factory.runLogsGet(after, before, limit),
+                (responseCode, body) -> {
+                    if (responseCode != 200) {
+                        throw new IOException("Unexpected response code " + responseCode);
+                    }
+                    return store.addRemote(new RunLogStreamReader(body));
+                });
+    }
+}
@@ -0,0 +1,50 @@
+package com.marcusposey.cadtra.storage;
+
+import com.marcusposey.cadtra.net.ApiClient;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs disk and computation work away from the UI thread
+ *
+ * ApiClient's pool is small and bounded, and its threads may wait on the
+ * network or on token renewals for many seconds. Work that only touches
+ * the device, like saving a finished run, is queued here instead, so it
+ * neither waits behind requests nor gets rejected when they pile up.
+ * Results reach their Callback on the main thread, as with ApiClient.
+ */
+public class LocalExecutor {
+    private static final String TAG = LocalExecutor.class.getSimpleName();
+
+    // Disk work gains little from more threads; two keep a long task from holding up the rest.
+    private static final int kThreadCount = 2;
+
+    private static LocalExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+
+    private LocalExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(kThreadCount, kThreadCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Returns the single instance of the executor */
+    public static synchronized LocalExecutor getInstance() {
+        if (instance == null) instance = new LocalExecutor();
+        return instance;
+    }
+
+    /** Runs task in the background and gives its result to callback on the main thread */
+    public <T> ApiClient.Call submit(ApiClient.Task<T> task, ApiClient.Callback<T> callback) {
+        return ApiClient.getInstance().submit(executor, task, callback);
+    }
+}
@@ -0,0 +1,49 @@
+package com.marcusposey.cadtra.storage;
+
+import android.util.LruCache;
+
+import com.marcusposey.cadtra.model.DecodedRoute;
+
+/**
+ * Keeps recently viewed routes decoded, so flipping between runs does not
+ * decode them again
+ *
+ * Routes are keyed by the id the server gave their log and evicted least
+ * recently used first once kMaxPoints points are cached. The cache is safe
+ * to use from any thread.
+ */
+public class RouteCache {
+    // About 24 bytes each, so the cache stays under a few megabytes
+    private static final int kMaxPoints = 100000;
+
+    private static RouteCache instance;
+
+    private final LruCache<Long, DecodedRoute> routes = new LruCache<Long, DecodedRoute>(kMaxPoints) {
+        @Override
+        protected int sizeOf(Long logId, DecodedRoute route) {
+            // An empty route still takes an entry.
+            return Math.max(1, route.size());
+        }
+    };
+
+    private RouteCache() {}
+
+    public static synchronized RouteCache getInstance() {
+        if (instance == null) instance = new RouteCache();
+        return instance;
+    }
+
+    /**
+     * Returns the decoded route of a log, decoding polyline if it is not cached
+     * This may take a while, so it should not be called from the UI thread.
+     * @throws IllegalArgumentException if the polyline is malformed
+     */
+    public DecodedRoute get(long logId, String polyline) {
+        DecodedRoute route = routes.get(logId);
+        if (route == null) {
+            route = DecodedRoute.decode(polyline);
+            routes.put(logId, route);
+        }
+        return route;
+    }
+}
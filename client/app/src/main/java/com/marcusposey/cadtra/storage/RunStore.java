@@ -0,0 +1,379 @@
+package com.marcusposey.cadtra.storage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.Nullable;
+
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.RunLogStreamReader;
+
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps run logs on the device
+ *
+ * A finished session is written here before anything is sent to the server.
+ * Logs that have not been uploaded yet make up an outbox; each one remembers
+ * how many uploads have failed and when it may be tried again. A log the
+ * server rejects leaves the outbox but stays on the device.
+ *
+ * Logs downloaded from the server are cached here too, so the run history
+ * only needs to fetch what it has not seen before.
+ *
+ * The store performs disk I/O, so its methods should not be called from the
+ * UI thread.
+ */
+public class RunStore extends SQLiteOpenHelper {
+    /** A log waiting in the outbox */
+    public static class PendingLog {
+        // The id of the log in the local database
+        public final long localId;
+        public final RunLog log;
+        // The number of uploads that have already failed
+        public final int attempts;
+
+        PendingLog(long localId, RunLog log, int attempts) {
+            this.localId = localId;
+            this.log = log;
+            this.attempts = attempts;
+        }
+    }
+
+    private static final String kDatabaseName = "runs.db";
+    private static final int kDatabaseVersion = 4;
+
+    private static final String kLogsTable = "logs";
+    private static final String kId = "_id";
+    // The id the server gave the log; null until the log is downloaded
+    private static final String kRemoteId = "remote_id";
+    private static final String kStartedAt = "started_at";
+    // started_at in epoch milliseconds, so that logs can be sorted by it
+    private static final String kStartedAtMs = "started_at_ms";
+    private static final String kEndedAt = "ended_at";
+    private static final String kDuration = "duration";
+    private static final String kPolyline = "polyline";
+    private static final String kDistance = "distance";
+    private static final String kFastestPace = "fastest_pace";
+    private static final String kSplitInterval = "split_interval";
+    private static final String kSplits = "splits";
+    private static final String kComment = "comment";
+    // True if the server has a copy of the log
+    private static final String kIsSynced = "is_synced";
+    private static final String kAttempts = "attempts";
+    // Epoch milliseconds before which an upload should not be retried
+    private static final String kNextAttemptAt = "next_attempt_at";
+    // True if the server refused the log, which is then never uploaded again
+    private static final String kIsRejected = "is_rejected";
+    // Selects the logs in the outbox
+    private static final String kInOutbox = kIsSynced + " = 0 AND " + kIsRejected + " = 0";
+
+    // The most downloaded logs written in one transaction
+    private static final int kRemoteChunkSize = 20;
+
+    // Every column except the polyline and splits, which can be large
+    private static final String[] kSummaryColumns = {kId, kRemoteId, kStartedAt,
+            kEndedAt, kDuration, kDistance, kFastestPace, kSplitInterval, kComment};
+
+    private static RunStore instance;
+
+    private RunStore(Context context) {
+        super(context, kDatabaseName, null, kDatabaseVersion);
+    }
+
+    /** Returns the single instance of the store */
+    public static synchronized RunStore getInstance(Context context) {
+        if (instance == null) instance = new RunStore(context.getApplicationContext());
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + kLogsTable + " ("
+                + kId + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + kRemoteId + " INTEGER, "
+                + kStartedAt + " TEXT NOT NULL, "
+                + kStartedAtMs + " INTEGER NOT NULL DEFAULT 0, "
+                + kEndedAt + " TEXT NOT NULL, "
+                + kDuration + " REAL NOT NULL, "
+                + kPolyline + " TEXT NOT NULL, "
+                + kDistance + " REAL NOT NULL, "
+                + kFastestPace + " REAL NOT NULL DEFAULT 0, "
+                + kSplitInterval + " REAL NOT NULL, "
+                + kSplits + " BLOB NOT NULL, "
+                + kComment + " TEXT, "
+                + kIsSynced + " INTEGER NOT NULL DEFAULT 0, "
+                + kAttempts + " INTEGER NOT NULL DEFAULT 0, "
+                + kNextAttemptAt + " INTEGER NOT NULL DEFAULT 0, "
+                + kIsRejected + " INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX logs_outbox ON " + kLogsTable
+                + " (" + kIsSynced + ", " + kNextAttemptAt + ")");
+        createHistoryIndexes(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + kLogsTable + " ADD COLUMN " + kRemoteId + " INTEGER");
+            db.execSQL("ALTER TABLE " + kLogsTable + " ADD COLUMN "
+                    + kStartedAtMs + " INTEGER NOT NULL DEFAULT 0");
+            // Converts the Julian day of each start time to epoch milliseconds
+            db.execSQL("UPDATE " + kLogsTable + " SET " + kStartedAtMs + " = CAST(ROUND(("
+                    + "julianday(" + kStartedAt + ") - 2440587.5) * 86400000) AS INTEGER)");
+            createHistoryIndexes(db);
+        }
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + kLogsTable + " ADD COLUMN "
+                    + kFastestPace + " REAL NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + kLogsTable + " ADD COLUMN "
+                    + kIsRejected + " INTEGER NOT NULL DEFAULT 0");
+        }
+    }
+
+    private static void createHistoryIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX logs_remote_id ON " + kLogsTable
+                + " (" + kRemoteId + ")");
+        db.execSQL("CREATE INDEX logs_history ON " + kLogsTable + " (" + kStartedAtMs + ")");
+    }
+
+    /**
+     * Saves a log that still needs to be uploaded
+     * @return the local id of the log
+     */
+    public long addPending(RunLog log) {
+        return getWritableDatabase().insertOrThrow(kLogsTable, null, toValues(log));
+    }
+
+    /**
+     * Caches logs as they are downloaded from the server
+     *
+     * Logs that are already cached are skipped. A log that was uploaded from
+     * this device is matched to its local copy by start time; the copy takes
+     * on the server's id and leaves the outbox if it was still there.
+     *
+     * Logs are read kRemoteChunkSize at a time and each chunk is written in
+     * its own transaction, so other writers never wait on the network. The
+     * polyline and splits of a log that is already on the device, e.g. one
+     * that was uploaded from it, are skipped without being decoded.
+     * @return the number of logs read from reader
+     * @throws IOException if reader fails, in which case only the chunks
+     *                     read before the failure are cached
+     */
+    public int addRemote(RunLogStreamReader reader) throws IOException {
+        int count = 0;
+        List<RunLog> chunk = new ArrayList<>(kRemoteChunkSize);
+        RunLog log;
+        while ((log = reader.next(this::needsDetails)) != null) {
+            count++;
+            chunk.add(log);
+            if (chunk.size() == kRemoteChunkSize) {
+                addRemote(chunk);
+                chunk.clear();
+            }
+        }
+        addRemote(chunk);
+        return count;
+    }
+
+    private void addRemote(List<RunLog> logs) {
+        if (logs.isEmpty()) return;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (RunLog log : logs) {
+                ContentValues values = new ContentValues();
+                values.put(kRemoteId, log.getId());
+                values.put(kIsSynced, 1);
+                final int matched = db.update(kLogsTable, values,
+                        kRemoteId + " IS NULL AND " + kStartedAtMs + " = ?",
+                        new String[]{String.valueOf(toMillis(log.getStartTimestampTz()))});
+                // A log without details is already cached.
+                if (matched > 0 || log.getPolylinePath() == null) continue;
+
+                values = toValues(log);
+                values.put(kRemoteId, log.getId());
+                values.put(kIsSynced, 1);
+                db.insertWithOnConflict(kLogsTable, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Returns false if a downloaded log is cached or has a local copy to be matched to */
+    private boolean needsDetails(long remoteId, String startTimestampTz) {
+        return queryLong("SELECT COUNT(*) FROM " + kLogsTable + " WHERE " + kRemoteId + " = ? OR ("
+                + kRemoteId + " IS NULL AND " + kStartedAtMs + " = ?)",
+                String.valueOf(remoteId), String.valueOf(toMillis(startTimestampTz))) == 0;
+    }
+
+    /**
+     * Returns summaries of cached and pending logs, newest first
+     *
+     * A summary has everything a list of runs shows. The polyline and splits
+     * are left null; they are only read from disk by getLog(long).
+     * @param offset the number of logs to skip
+     * @param limit the maximum number of logs to return
+     */
+    public List<RunLog> getSummaries(int offset, int limit) {
+        List<RunLog> logs = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(kLogsTable, kSummaryColumns, null, null,
+                null, null, kStartedAtMs + " DESC, " + kId + " DESC",
+                offset + ", " + limit)) {
+            while (cursor.moveToNext()) logs.add(readLog(cursor));
+        }
+        return logs;
+    }
+
+    /**
+     * Returns every detail of a log that was downloaded from the server
+     * @param remoteId the id the server gave the log
+     * @return null if the log is not cached
+     */
+    @Nullable
+    public RunLog getLog(long remoteId) {
+        try (Cursor cursor = getReadableDatabase().query(kLogsTable, null, kRemoteId + " = ?",
+                new String[]{String.valueOf(remoteId)}, null, null, null)) {
+            return cursor.moveToFirst() ? readLog(cursor) : null;
+        }
+    }
+
+    /** Returns the greatest server id of a cached log or 0 if none are cached */
+    public long getNewestRemoteId() {
+        return queryLong("SELECT MAX(" + kRemoteId + ") FROM " + kLogsTable);
+    }
+
+    /** Returns the least server id of a cached log or 0 if none are cached */
+    public long getOldestRemoteId() {
+        return queryLong("SELECT MIN(" + kRemoteId + ") FROM " + kLogsTable);
+    }
+
+    private long queryLong(String sql, String... args) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) return 0;
+            return cursor.getLong(0);
+        }
+    }
+
+    private static ContentValues toValues(RunLog log) {
+        ContentValues values = new ContentValues();
+        values.put(kStartedAt, log.getStartTimestampTz());
+        values.put(kStartedAtMs, toMillis(log.getStartTimestampTz()));
+        values.put(kEndedAt, log.getEndTimestampTz());
+        values.put(kDuration, log.getDurationSec());
+        values.put(kPolyline, log.getPolylinePath());
+        values.put(kDistance, log.getDistanceValue());
+        values.put(kFastestPace, log.getFastestPaceValue());
+        values.put(kSplitInterval, log.getSplitInterval());
+        values.put(kSplits, toBytes(log.getSplits()));
+        values.put(kComment, log.getComment());
+        return values;
+    }
+
+    /**
+     * Returns logs from the outbox that are due to be uploaded
+     * @param now the current time in epoch milliseconds
+     * @param limit the maximum number of logs to return
+     */
+    public List<PendingLog> getPending(long now, int limit) {
+        List<PendingLog> pending = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(kLogsTable, null,
+                kInOutbox + " AND " + kNextAttemptAt + " <= ?",
+                new String[]{String.valueOf(now)}, null, null, kId,
+                String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                pending.add(new PendingLog(
+                        cursor.getLong(cursor.getColumnIndexOrThrow(kId)),
+                        readLog(cursor),
+                        cursor.getInt(cursor.getColumnIndexOrThrow(kAttempts))));
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Returns when the next log in the outbox may be uploaded
+     * @return epoch milliseconds, or -1 if the outbox is empty
+     */
+    public long getNextAttemptTime() {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT MIN(" + kNextAttemptAt
+                + ") FROM " + kLogsTable + " WHERE " + kInOutbox, null)) {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) return -1;
+            return cursor.getLong(0);
+        }
+    }
+
+    /** Removes a log from the outbox after it was uploaded */
+    public void markSynced(long localId) {
+        ContentValues values = new ContentValues();
+        values.put(kIsSynced, 1);
+        update(localId, values);
+    }
+
+    /**
+     * Records a failed upload
+     * @param nextAttemptAt epoch milliseconds before which the upload should not be retried
+     */
+    public void markFailed(long localId, int attempts, long nextAttemptAt) {
+        ContentValues values = new ContentValues();
+        values.put(kAttempts, attempts);
+        values.put(kNextAttemptAt, nextAttemptAt);
+        update(localId, values);
+    }
+
+    /** Removes a log from the outbox because the server refused it */
+    public void markRejected(long localId) {
+        ContentValues values = new ContentValues();
+        values.put(kIsRejected, 1);
+        update(localId, values);
+    }
+
+    private void update(long localId, ContentValues values) {
+        getWritableDatabase().update(kLogsTable, values, kId + " = ?",
+                new String[]{String.valueOf(localId)});
+    }
+
+    /** Reads a log from the current row; columns that were not queried are left null */
+    private static RunLog readLog(Cursor cursor) {
+        final int polyline = cursor.getColumnIndex(kPolyline);
+        final int splits = cursor.getColumnIndex(kSplits);
+        return new RunLog(
+                cursor.getLong(cursor.getColumnIndexOrThrow(kRemoteId)),
+                cursor.getString(cursor.getColumnIndexOrThrow(kStartedAt)),
+                cursor.getString(cursor.getColumnIndexOrThrow(kEndedAt)),
+                cursor.getDouble(cursor.getColumnIndexOrThrow(kDuration)),
+                polyline == -1 ? null : cursor.getString(polyline),
+                cursor.getDouble(cursor.getColumnIndexOrThrow(kDistance)),
+                cursor.getDouble(cursor.getColumnIndexOrThrow(kFastestPace)),
+                cursor.getDouble(cursor.getColumnIndexOrThrow(kSplitInterval)),
+                splits == -1 ? null : toDoubles(cursor.getBlob(splits)),
+                cursor.getString(cursor.getColumnIndexOrThrow(kComment)));
+    }
+
+    private static long toMillis(String timestampTz) {
+        return DateTime.parse(timestampTz).getMillis();
+    }
+
+    private static byte[] toBytes(double[] values) {
+        if (values == null) return new byte[0];
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        buffer.asDoubleBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static double[] toDoubles(byte[] bytes) {
+        double[] values = new double[bytes.length / 8];
+        ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+        return values;
+    }
+}
@@ -0,0 +1,352 @@
+package com.marcusposey.cadtra.storage;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.marcusposey.cadtra.model.Fix;
+import com.marcusposey.cadtra.model.Route;
+import com.marcusposey.cadtra.model.PaceEstimator;
+import com.marcusposey.cadtra.model.SplitTracker;
+import com.marcusposey.cadtra.net.ApiClient;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the session in progress so that it survives the app being killed
+ *
+ * The journal is an append-only file of fixed-size records: one when the
+ * session starts, one for each fix added to the route, and one for each
+ * pause and resume. Every record holds the wall time and the stopwatch's
+ * elapsed time when it was made, as well as the fix, if any:
+ *      type (1 byte)
+ *      wall time, in epoch milliseconds (8 bytes)
+ *      elapsed time, in nanoseconds (8 bytes)
+ *      latitude and longitude (8 bytes each)
+ *      accuracy, in meters (4 bytes)
+ *
+ * Appending only copies a record into memory, so it is cheap enough for
+ * the location callback. Records reach the disk on a background thread and
+ * are synced with fsync at most kSyncIntervalMs later. Starts, pauses, and
+ * resumes are synced at once. If the app dies in the middle of a write, the
+ * torn record is dropped when the journal is restored.
+ */
+public class SessionJournal {
+    /** A session rebuilt from the journal */
+    public static class Session {
+        // When the session started, in epoch milliseconds
+        public final long startedAtMs;
+        // The stopwatch's elapsed time, including any time since the last record if running
+        public final long elapsedNanos;
+        // False if the session was paused
+        public final boolean isRunning;
+        public final Route route;
+        public final SplitTracker splitTracker;
+        public final PaceEstimator paceEstimator;
+
+        Session(long startedAtMs, long elapsedNanos, boolean isRunning, Route route,
+                SplitTracker splitTracker, PaceEstimator paceEstimator) {
+            this.startedAtMs = startedAtMs;
+            this.elapsedNanos = elapsedNanos;
+            this.isRunning = isRunning;
+            this.route = route;
+            this.splitTracker = splitTracker;
+            this.paceEstimator = paceEstimator;
+        }
+    }
+
+    // Records that are not synced yet are at most this old.
+    public static final long kSyncIntervalMs = 5000;
+
+    private static final String kFileName = "session.journal";
+
+    private static final byte kStart = 1;
+    private static final byte kFix = 2;
+    private static final byte kPause = 3;
+    private static final byte kResume = 4;
+    private static final int kRecordBytes = 1 + 8 + 8 + 8 + 8 + 4;
+
+    // Writes, syncs, and reads every journal, in the order they are requested
+    private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+
+    private static SessionJournal instance;
+
+    private final File file;
+
+    // Records appended since the last flush...
+    private ByteBuffer pending = ByteBuffer.allocate(64 * kRecordBytes);
+    // ...and a buffer to swap in for it while those are written
+    private ByteBuffer spare = ByteBuffer.allocate(64 * kRecordBytes);
+    // True if a flush will run without another being scheduled
+    private boolean isFlushScheduled = false;
+
+    // Used only on the scheduler thread
+    @Nullable
+    private FileChannel channel;
+
+    /** Creates a journal that is independent of the app's; see getInstance(Context) */
+    public SessionJournal(File file) {
+        this.file = file;
+    }
+
+    /** Returns the single instance of the journal */
+    public static synchronized SessionJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new SessionJournal(new File(
+                    context.getApplicationContext().getFilesDir(), kFileName));
+        }
+        return instance;
+    }
+
+    /**
+     * Begins a new session, discarding any that was recorded before
+     * @param startedAtMs when the session started, in epoch milliseconds
+     */
+    public synchronized void start(long startedAtMs) {
+        pending.clear();
+        scheduler.execute(this::delete);
+        append(kStart, startedAtMs, 0, 0, 0, 0);
+        flushNow();
+    }
+
+    /**
+     * Records a fix that was added to the route
+     * @param elapsedNanos the stopwatch's elapsed time when the fix was added
+     */
+    public synchronized void addFix(Fix fix, long elapsedNanos) {
+        append(kFix, fix.time, elapsedNanos, fix.latitude, fix.longitude, fix.accuracy);
+        if (!isFlushScheduled) {
+            isFlushScheduled = true;
+            scheduler.schedule(this::flush, kSyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Records that the session was paused
+     * @param elapsedNanos the stopwatch's elapsed time when it stopped
+     * @param nowMs the wall time, in epoch milliseconds
+     */
+    public synchronized void pause(long elapsedNanos, long nowMs) {
+        append(kPause, nowMs, elapsedNanos, 0, 0, 0);
+        flushNow();
+    }
+
+    /**
+     * Records that the session was resumed
+     * @param elapsedNanos the stopwatch's elapsed time when it started again
+     * @param nowMs the wall time, in epoch milliseconds
+     */
+    public synchronized void resume(long elapsedNanos, long nowMs) {
+        append(kResume, nowMs, elapsedNanos, 0, 0, 0);
+        flushNow();
+    }
+
+    /** Discards the session, e.g. once it has been saved in the RunStore */
+    public synchronized void finish() {
+        pending.clear();
+        scheduler.execute(this::delete);
+    }
+
+    /**
+     * Writes and syncs every record appended so far in the background
+     * @return completes once the records are on disk
+     */
+    public Future<?> sync() {
+        return scheduler.submit(this::flush);
+    }
+
+    /**
+     * Rebuilds the session recorded in the journal
+     *
+     * This reads the whole journal, so it blocks and should not be called
+     * from the UI thread. It takes time proportional to the journal's size.
+     * @param nowMs the wall time, in epoch milliseconds, used to estimate how
+     *              long a running session has gone on since its last record
+     * @return null if no session is in progress
+     * @throws IOException if the journal exists but cannot be read
+     */
+    @Nullable
+    public Session restore(long nowMs) throws IOException {
+        try {
+            return scheduler.submit(() -> read(nowMs)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the journal");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Rebuilds the session recorded in the journal on the journal's own
+     * thread and gives it to callback on the main thread; see restore(long)
+     */
+    public ApiClient.Call restore(long nowMs, ApiClient.Callback<Session> callback) {
+        return ApiClient.getInstance().submit(scheduler, () -> read(nowMs), callback);
+    }
+
+    private void append(byte type, long wallMs, long elapsedNanos, double latitude,
+                        double longitude, float accuracy) {
+        if (pending.remaining() < kRecordBytes) {
+            ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        pending.put(type).putLong(wallMs).putLong(elapsedNanos)
+                .putDouble(latitude).putDouble(longitude).putFloat(accuracy);
+    }
+
+    private void flushNow() {
+        scheduler.execute(this::flush);
+    }
+
+    /** Writes pending records to the file and syncs it; runs on the scheduler thread */
+    private void flush() {
+        final ByteBuffer buffer;
+        synchronized (this) {
+            isFlushScheduled = false;
+            if (pending.position() == 0) return;
+            buffer = pending;
+            pending = spare;
+        }
+
+        try {
+            if (channel == null) channel = new FileOutputStream(file, true).getChannel();
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        } catch (IOException e) {
+            Log.e(SessionJournal.class.getSimpleName(), e.getMessage());
+        } finally {
+            buffer.clear();
+            synchronized (this) {
+                spare = buffer;
+            }
+        }
+    }
+
+    /** Closes and removes the file; runs on the scheduler thread */
+    private void delete() {
+        closeChannel();
+        file.delete();
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing was left to write.
+        }
+        channel = null;
+    }
+
+    /** Replays the file; runs on the scheduler thread */
+    @Nullable
+    private Session read(long nowMs) throws IOException {
+        if (!file.exists()) return null;
+        // Writes after this must land at the end of the valid records.
+        closeChannel();
+
+        long validBytes = 0;
+        long startedAtMs = 0;
+        boolean isStarted = false;
+        boolean isRunning = false;
+        long lastWallMs = 0;
+        long lastElapsedNanos = 0;
+        Route route = new Route();
+        SplitTracker splitTracker = new SplitTracker();
+        PaceEstimator paceEstimator = new PaceEstimator();
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            DataInputStream data = new DataInputStream(in);
+            while (true) {
+                final byte type;
+                final long wallMs;
+                final long elapsedNanos;
+                final double latitude;
+                final double longitude;
+                final float accuracy;
+                try {
+                    type = data.readByte();
+                    wallMs = data.readLong();
+                    elapsedNanos = data.readLong();
+                    latitude = data.readDouble();
+                    longitude = data.readDouble();
+                    accuracy = data.readFloat();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (type < kStart || type > kResume) break;
+                // Only the first record may start the session.
+                if (isStarted == (type == kStart)) break;
+                switch (type) {
+                    case kStart:
+                        isStarted = true;
+                        isRunning = true;
+                        startedAtMs = wallMs;
+                        break;
+                    case kFix:
+                        route.add(latitude, longitude, wallMs, accuracy);
+                        splitTracker.add(route.getMeters(), elapsedNanos);
+                        paceEstimator.add(route.getMeters(), elapsedNanos);
+                        break;
+                    case kPause:
+                        isRunning = false;
+                        break;
+                    case kResume:
+                        isRunning = true;
+                        break;
+                }
+
+                lastWallMs = wallMs;
+                lastElapsedNanos = elapsedNanos;
+                validBytes += kRecordBytes;
+            }
+        }
+
+        if (!isStarted) {
+            file.delete();
+            return null;
+        }
+        // Drop a torn or damaged tail so that new records follow valid ones.
+        if (validBytes < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validBytes);
+            }
+        }
+
+        final long elapsedNanos = isRunning
+                ? lastElapsedNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, nowMs - lastWallMs))
+                : lastElapsedNanos;
+        return new Session(startedAtMs, elapsedNanos, isRunning, route, splitTracker,
+                paceEstimator);
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, SessionJournal.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
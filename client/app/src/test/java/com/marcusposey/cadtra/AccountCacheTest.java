@@ -0,0 +1,76 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.Account;
+import com.marcusposey.cadtra.net.Json;
+import com.marcusposey.cadtra.storage.AccountCache;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/** Tests for com.marcusposey.cadtra.storage.AccountCache */
+public class AccountCacheTest {
+    private static final String kAccountJson = "{\"id\":7,\"email\":\"runner@example.com\","
+            + "\"name\":\"Runner\",\"since\":\"2017-09-01T12:00:00Z\",\"country\":\"USA\"}";
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("account", ".json");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void put_survivesRestart() throws IOException {
+        Account account = Json.getGson().fromJson(kAccountJson, Account.class);
+        new AccountCache(file).put(account, "W/\"abc\"");
+
+        AccountCache cache = new AccountCache(file);
+        Assert.assertEquals(kAccountJson, Json.getGson().toJson(cache.get()));
+        Assert.assertEquals("W/\"abc\"", cache.getETag());
+    }
+
+    @Test
+    public void get_isEmptyWithoutFile() {
+        AccountCache cache = new AccountCache(file);
+        Assert.assertNull(cache.get());
+        Assert.assertNull(cache.getETag());
+    }
+
+    @Test
+    public void get_discardsDamagedFile() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("{\"etag\":\"x\",\"account\":{\"id\":".getBytes(StandardCharsets.UTF_8));
+        }
+
+        AccountCache cache = new AccountCache(file);
+        Assert.assertNull(cache.get());
+        Assert.assertNull(cache.getETag());
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void clear_forgetsAccount() throws IOException {
+        AccountCache cache = new AccountCache(file);
+        cache.put(Json.getGson().fromJson(kAccountJson, Account.class), null);
+        Assert.assertNotNull(cache.get());
+        Assert.assertNull(cache.getETag());
+
+        cache.clear();
+        Assert.assertNull(cache.get());
+        Assert.assertNull(new AccountCache(file).get());
+    }
+}
@@ -0,0 +1,88 @@
+package com.marcusposey.cadtra;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.PolyUtil;
+import com.marcusposey.cadtra.model.DecodedRoute;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tests for com.marcusposey.cadtra.model.DecodedRoute */
+public class DecodedRouteTest {
+    /** Returns a zigzag path whose corners alternate by the given number of meters */
+    private static List<LatLng> zigzag(int size, double meters) {
+        final double offset = meters / 111195;
+        List<LatLng> path = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            path.add(new LatLng(37.78 + (i % 2 == 0 ? 0 : offset) + i * offset / 7,
+                    -122.41 + i * 0.001));
+        }
+        return path;
+    }
+
+    @Test
+    public void decode_matchesPolyUtil() {
+        final String polyline = PolyUtil.encode(zigzag(50, 20));
+        final List<LatLng> expected = PolyUtil.decode(polyline);
+
+        DecodedRoute route = DecodedRoute.decode(polyline);
+        Assert.assertEquals(expected.size(), route.size());
+
+        final List<LatLng> actual = route.getPoints(0);
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).latitude, actual.get(i).latitude, 1e-9);
+            Assert.assertEquals(expected.get(i).longitude, actual.get(i).longitude, 1e-9);
+        }
+    }
+
+    @Test
+    public void decode_emptyPolyline() {
+        DecodedRoute route = DecodedRoute.decode("");
+        Assert.assertEquals(0, route.size());
+        Assert.assertTrue(route.getPoints(0).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsTruncatedPolyline() {
+        final String polyline = PolyUtil.encode(zigzag(3, 20));
+        DecodedRoute.decode(polyline.substring(0, polyline.length() - 1));
+    }
+
+    @Test
+    public void getPoints_dropsStraightRuns() {
+        List<LatLng> path = new ArrayList<>();
+        for (int i = 0; i < 10; i++) path.add(new LatLng(37.78, -122.41 + i * 0.001));
+        DecodedRoute route = DecodedRoute.decode(PolyUtil.encode(path));
+
+        // Only the ends are needed to draw a straight line; a centimeter allows for rounding.
+        Assert.assertEquals(2, route.countPoints(0.01));
+    }
+
+    @Test
+    public void getPoints_fewerPointsAtHigherTolerance() {
+        DecodedRoute route = DecodedRoute.decode(PolyUtil.encode(zigzag(200, 20)));
+
+        int previous = route.size();
+        for (double tolerance = 0.5; tolerance < 1000; tolerance *= 2) {
+            final List<LatLng> points = route.getPoints(tolerance);
+            Assert.assertTrue(points.size() <= previous);
+            Assert.assertEquals(route.countPoints(tolerance), points.size());
+            previous = points.size();
+        }
+        // The ends always remain.
+        Assert.assertEquals(2, previous);
+        Assert.assertEquals(route.size(), route.countPoints(1));
+    }
+
+    @Test
+    public void toleranceAt_halvesPerZoomLevel() {
+        Assert.assertEquals(DecodedRoute.toleranceAt(14, 45) / 2,
+                DecodedRoute.toleranceAt(15, 45), 1e-9);
+        Assert.assertTrue(DecodedRoute.toleranceAt(15, 60) < DecodedRoute.toleranceAt(15, 0));
+    }
+}
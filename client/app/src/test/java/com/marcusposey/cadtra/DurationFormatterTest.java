@@ -0,0 +1,44 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.DurationFormatter;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/** Tests for com.marcusposey.cadtra.model.DurationFormatter */
+public class DurationFormatterTest {
+    @Test
+    public void format_isMinutesAndSeconds() {
+        Assert.assertEquals("00:00", DurationFormatter.toString(0));
+        Assert.assertEquals("00:09", DurationFormatter.toString(9.99));
+        Assert.assertEquals("05:00", DurationFormatter.toString(300));
+        Assert.assertEquals("59:59", DurationFormatter.toString(3599));
+    }
+
+    @Test
+    public void format_hasWholeHours() {
+        Assert.assertEquals("1:05:00", DurationFormatter.toString(3900));
+        Assert.assertEquals("10:00:01", DurationFormatter.toString(36001));
+        Assert.assertEquals("2562047788015215:30:07",
+                DurationFormatter.toString(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void format_isZeroForInvalidDurations() {
+        Assert.assertEquals("00:00", DurationFormatter.toString(-5));
+        Assert.assertEquals("00:00", DurationFormatter.toString(Double.NaN));
+    }
+
+    @Test
+    public void format_reusesChars() {
+        DurationFormatter formatter = new DurationFormatter();
+        final char[] chars = formatter.getChars();
+
+        Assert.assertEquals(7, formatter.format(3900));
+        Assert.assertEquals("1:05:00", new String(chars, 0, formatter.length()));
+        Assert.assertEquals(5, formatter.format(61));
+        Assert.assertEquals("01:01", new String(formatter.getChars(), 0, formatter.length()));
+        Assert.assertSame(chars, formatter.getChars());
+    }
+}
@@ -0,0 +1,119 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.Fix;
+import com.marcusposey.cadtra.model.FixPipeline;
+import com.marcusposey.cadtra.model.KalmanSmoother;
+import com.marcusposey.cadtra.model.Route;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/** Tests for com.marcusposey.cadtra.model.FixPipeline */
+public class FixPipelineTest {
+    private static final long kNanosPerSecond = 1000000000L;
+    // Meters per degree of latitude
+    private static final double kMetersPerDegree = 111195;
+
+    @Test
+    public void accuracyGate_dropsInaccurateFixes() {
+        FixPipeline pipeline = new FixPipeline(new FixPipeline.AccuracyGate(20));
+        Assert.assertTrue(pipeline.process(new Fix().set(36, -95, 0, 0, 20)));
+        Assert.assertFalse(pipeline.process(new Fix().set(36, -95, 0, 0, 21)));
+    }
+
+    @Test
+    public void motionGate_dropsJitterWhileStanding() {
+        FixPipeline pipeline = new FixPipeline(new FixPipeline.MotionGate(3, 12));
+        Random random = new Random(7);
+        int kept = 0;
+        for (int i = 0; i < 120; i++) {
+            final double lat = 36.154 + (random.nextDouble() - 0.5) * 4 / kMetersPerDegree;
+            if (pipeline.process(new Fix().set(lat, -95.99, 0, i * kNanosPerSecond, 5))) kept++;
+        }
+        Assert.assertEquals(1, kept);
+    }
+
+    @Test
+    public void motionGate_dropsImpossibleJumps() {
+        FixPipeline pipeline = new FixPipeline(new FixPipeline.MotionGate(3, 12));
+        Assert.assertTrue(pipeline.process(new Fix().set(36.154, -95.99, 0, 0, 5)));
+        // 500 m in one second
+        Assert.assertFalse(pipeline.process(
+                new Fix().set(36.154 + 500 / kMetersPerDegree, -95.99, 0, kNanosPerSecond, 5)));
+        // 10 m in two seconds
+        Assert.assertTrue(pipeline.process(
+                new Fix().set(36.154 + 10 / kMetersPerDegree, -95.99, 0, 2 * kNanosPerSecond, 5)));
+    }
+
+    @Test
+    public void motionGate_acceptsSustainedJump() {
+        FixPipeline pipeline = new FixPipeline(new FixPipeline.MotionGate(3, 12));
+        pipeline.process(new Fix().set(36.154, -95.99, 0, 0, 5));
+
+        // The first kept fix was the bad one; the runner is really 1 km away.
+        boolean isKept = false;
+        for (int i = 1; i <= 6 && !isKept; i++) {
+            final double lat = 36.154 + (1000 + i * 3) / kMetersPerDegree;
+            isKept = pipeline.process(new Fix().set(lat, -95.99, 0, i * kNanosPerSecond, 5));
+        }
+        Assert.assertTrue(isKept);
+    }
+
+    @Test
+    public void kalmanSmoother_reducesNoise() {
+        final int size = 600;
+        SyntheticTrack truth = new SyntheticTrack(size, 3, 0, 21);
+        SyntheticTrack noisy = new SyntheticTrack(size, 3, 6, 21);
+
+        KalmanSmoother smoother = new KalmanSmoother(KalmanSmoother.kDefaultAccelerationVariance);
+        Fix fix = new Fix();
+        double rawError = 0, smoothedError = 0;
+        for (int i = 0; i < size; i++) {
+            fix.set(noisy.latitudes[i], noisy.longitudes[i], 0, i * kNanosPerSecond, 6);
+            rawError += error(truth, i, fix);
+            Assert.assertTrue(smoother.process(fix));
+            smoothedError += error(truth, i, fix);
+        }
+        Assert.assertTrue(smoothedError < rawError * 0.75);
+    }
+
+    @Test
+    public void createDefault_keepsDistanceNearTruth() {
+        // Ten minutes at 3 m/s, then two minutes at a light
+        final int running = 600, standing = 120;
+        SyntheticTrack truth = new SyntheticTrack(running, 3, 0, 5);
+        SyntheticTrack noisy = new SyntheticTrack(running, 3, 5, 5);
+        Random random = new Random(5);
+
+        Route raw = new Route(), filtered = new Route();
+        FixPipeline pipeline = FixPipeline.createDefault();
+        Fix fix = new Fix();
+        for (int i = 0; i < running + standing; i++) {
+            final int at = Math.min(i, running - 1);
+            double lat = noisy.latitudes[at], lng = noisy.longitudes[at];
+            if (i >= running) lat += (random.nextDouble() - 0.5) * 10 / kMetersPerDegree;
+
+            raw.add(lat, lng, i * 1000L, 5);
+            fix.set(lat, lng, i * 1000L, i * kNanosPerSecond, 5);
+            if (pipeline.process(fix)) {
+                filtered.add(fix.latitude, fix.longitude, fix.time, fix.accuracy);
+            }
+        }
+
+        final double trueMeters = (running - 1) * 3;
+        final double rawError = Math.abs(raw.getMeters() - trueMeters);
+        final double filteredError = Math.abs(filtered.getMeters() - trueMeters);
+        Assert.assertTrue(filteredError < rawError / 4);
+        Assert.assertTrue(filteredError < trueMeters * 0.1);
+        Assert.assertTrue(filtered.size() < raw.size() / 2);
+    }
+
+    /** Returns the distance in meters between fix and the ith point of track */
+    private static double error(SyntheticTrack track, int i, Fix fix) {
+        return Route.computeDistance(track.latitudes[i], track.longitudes[i],
+                fix.latitude, fix.longitude);
+    }
+}
@@ -0,0 +1,110 @@
+package com.marcusposey.cadtra;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.marcusposey.cadtra.model.Account;
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.Json;
+import com.marcusposey.cadtra.net.RunLogStreamReader;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Tests for com.marcusposey.cadtra.model.RunLog.GsonAdapter and Account.GsonAdapter */
+public class GsonAdapterTest {
+    // Binds fields by reflection, as the app used to
+    private final Gson reflective = new Gson();
+    private final JsonParser parser = new JsonParser();
+
+    @Test
+    public void runLogWrite_matchesReflection() {
+        final RunLog[] logs = {
+                RunLogCodecTest.createLog(3, 2000),
+                new RunLog("2017-09-01T12:00:00Z", "2017-09-01T12:30:00Z", 1800, null,
+                        0, 0, null, null)
+        };
+        for (RunLog log : logs) {
+            Assert.assertEquals(parser.parse(reflective.toJson(log)),
+                    parser.parse(Json.getGson().toJson(log)));
+        }
+    }
+
+    @Test
+    public void runLogRead_matchesReflection() {
+        final RunLog log = RunLogCodecTest.createLog(3, 2000);
+        final String json = reflective.toJson(log);
+        final RunLog copy = Json.getGson().fromJson(json, RunLog.class);
+
+        Assert.assertEquals(json, reflective.toJson(copy));
+    }
+
+    @Test
+    public void runLogRead_skipsUnknownAndNullFields() {
+        final RunLog log = Json.getGson().fromJson("{\"id\": 9, \"user-id\": 4, "
+                + "\"polyline\": null, \"splits\": [1.5, 2], \"extra\": {\"a\": [1]}}", RunLog.class);
+
+        Assert.assertEquals(9, log.getId());
+        Assert.assertNull(log.getPolylinePath());
+        Assert.assertEquals(2, log.getSplits().length);
+        Assert.assertEquals(1.5, log.getSplits()[0]);
+    }
+
+    @Test
+    public void runLogRead_skipsDetailsThatFilterDeclines() throws IOException {
+        List<RunLog> logs = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) logs.add(RunLogCodecTest.createLog(i, 1000));
+        final byte[] json = Json.getGson().toJson(logs).getBytes(StandardCharsets.UTF_8);
+
+        List<Long> asked = new ArrayList<>();
+        RunLogStreamReader reader = new RunLogStreamReader(new ByteArrayInputStream(json));
+        RunLog.GsonAdapter.DetailFilter filter = (id, startTimestampTz) -> {
+            asked.add(id);
+            return id == 2;
+        };
+
+        final RunLog skipped = reader.next(filter);
+        Assert.assertNull(skipped.getPolylinePath());
+        Assert.assertNull(skipped.getSplits());
+        Assert.assertEquals(logs.get(0).getDistanceValue(), skipped.getDistanceValue());
+        Assert.assertEquals(logs.get(0).getComment(), skipped.getComment());
+
+        final RunLog read = reader.next(filter);
+        Assert.assertEquals(logs.get(1).getPolylinePath(), read.getPolylinePath());
+        Assert.assertEquals(logs.get(1).getSplits().length, read.getSplits().length);
+        Assert.assertNull(reader.next(filter));
+        Assert.assertEquals(Arrays.asList(1L, 2L), asked);
+    }
+
+    @Test
+    public void runLogList_roundTrips() {
+        List<RunLog> logs = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) logs.add(RunLogCodecTest.createLog(i, 100));
+        final String json = Json.getGson().toJson(logs);
+
+        final List<RunLog> copy = Json.getGson().fromJson(json,
+                new TypeToken<List<RunLog>>() {}.getType());
+        Assert.assertEquals(json, Json.getGson().toJson(copy));
+        Assert.assertEquals(parser.parse(reflective.toJson(logs)), parser.parse(json));
+    }
+
+    @Test
+    public void account_matchesReflection() {
+        final String json = "{\"id\":12,\"email\":\"runner@example.com\",\"name\":\"Runner\","
+                + "\"avatar\":\"https://example.com/a.png\",\"since\":\"2017-08-01T00:00:00Z\","
+                + "\"country\":\"USA\"}";
+        final Account account = Json.getGson().fromJson(json, Account.class);
+
+        Assert.assertEquals(parser.parse(json), parser.parse(Json.getGson().toJson(account)));
+        Assert.assertEquals(parser.parse(reflective.toJson(reflective.fromJson(json,
+                Account.class))), parser.parse(Json.getGson().toJson(account)));
+    }
+}
@@ -0,0 +1,103 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.RunLogCodec;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A local stand-in for POST /api/v1/users/me/logs/batch
+ *
+ * It accepts binary logs, gzipped or not, and answers as the real server
+ * does: one result per log, with 400 for a log that ends before it starts.
+ * Every request and the logs it held are kept for tests to inspect.
+ */
+class LogBatchStubServer implements AutoCloseable {
+    static final String kPath = "/api/v1/users/me/logs/batch";
+
+    /** A request that the server received */
+    static class Request {
+        String contentType;
+        String contentEncoding;
+        String transferEncoding;
+        String authorization;
+        final List<RunLog> logs = new ArrayList<>();
+    }
+
+    final List<Request> requests = new ArrayList<>();
+    private final HttpServer server;
+
+    LogBatchStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(kPath, this::handle);
+        server.start();
+    }
+
+    URI getUri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + kPath);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Request request = new Request();
+        request.contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        request.contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        request.transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+        request.authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        synchronized (requests) {
+            requests.add(request);
+        }
+
+        if (!"POST".equals(exchange.getRequestMethod())
+                || !RunLogCodec.kMediaType.equals(request.contentType)) {
+            respond(exchange, 400, "{\"message\": \"Malformed request body\"}");
+            return;
+        }
+
+        StringBuilder results = new StringBuilder("[");
+        InputStream body = exchange.getRequestBody();
+        if ("gzip".equals(request.contentEncoding)) body = new GZIPInputStream(body);
+        try (RunLogCodec.Reader reader = new RunLogCodec.Reader(body)) {
+            for (RunLog log = reader.next(); log != null; log = reader.next()) {
+                request.logs.add(log);
+                if (results.length() > 1) results.append(',');
+                final boolean isValid = !DateTime.parse(log.getEndTimestampTz())
+                        .isBefore(DateTime.parse(log.getStartTimestampTz()));
+                results.append(isValid
+                        ? "{\"status\": 201}"
+                        : "{\"status\": 400, \"message\": \"ended-at is before started-at\"}");
+            }
+        } catch (IOException e) {
+            respond(exchange, 400, "{\"message\": \"Malformed request body\"}");
+            return;
+        }
+        respond(exchange, 200, results.append(']').toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
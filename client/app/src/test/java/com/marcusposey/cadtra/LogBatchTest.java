@@ -0,0 +1,101 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.LogResult;
+import com.marcusposey.cadtra.net.RequestFactory;
+import com.marcusposey.cadtra.net.RunLogCodec;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for com.marcusposey.cadtra.net.RequestFactory.runLogBatchPost and
+ * com.marcusposey.cadtra.net.LogResult against LogBatchStubServer
+ */
+public class LogBatchTest {
+    @Test
+    public void runLogBatchPost_sendsEveryLog() throws IOException {
+        List<RunLog> logs = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) logs.add(RunLogCodecTest.createLog(i, 1000));
+
+        try (LogBatchStubServer server = new LogBatchStubServer()) {
+            final List<LogResult> results = send(server, logs);
+
+            Assert.assertEquals(1, server.requests.size());
+            final LogBatchStubServer.Request request = server.requests.get(0);
+            Assert.assertEquals(RunLogCodec.kMediaType, request.contentType);
+            Assert.assertEquals("gzip", request.contentEncoding);
+            Assert.assertEquals("chunked", request.transferEncoding);
+            Assert.assertTrue(request.authorization.startsWith("Bearer "));
+
+            Assert.assertEquals(logs.size(), request.logs.size());
+            Assert.assertEquals(logs.size(), results.size());
+            for (int i = 0; i < logs.size(); i++) {
+                Assert.assertEquals(logs.get(i).getPolylinePath(),
+                        request.logs.get(i).getPolylinePath());
+                Assert.assertTrue(results.get(i).isCreated());
+                Assert.assertNull(results.get(i).message);
+            }
+        }
+    }
+
+    @Test
+    public void readAll_reportsEachLog() throws IOException {
+        List<RunLog> logs = new ArrayList<>();
+        logs.add(RunLogCodecTest.createLog(1, 100));
+        logs.add(new RunLog("2017-09-01T12:30:00Z", "2017-09-01T12:00:00Z", 1800, "", 1, 1,
+                null, null));
+        logs.add(RunLogCodecTest.createLog(3, 100));
+
+        try (LogBatchStubServer server = new LogBatchStubServer()) {
+            final List<LogResult> results = send(server, logs);
+
+            Assert.assertEquals(3, results.size());
+            Assert.assertTrue(results.get(0).isCreated());
+            Assert.assertEquals(400, results.get(1).status);
+            Assert.assertEquals("ended-at is before started-at", results.get(1).message);
+            Assert.assertTrue(results.get(1).isRejected());
+            Assert.assertTrue(results.get(2).isCreated());
+        }
+    }
+
+    @Test
+    public void isRejected_onlyForFaultsOfTheLog() {
+        Assert.assertFalse(new LogResult(201, null).isRejected());
+        Assert.assertTrue(new LogResult(400, "bad").isRejected());
+        Assert.assertTrue(new LogResult(422, "bad").isRejected());
+        Assert.assertFalse(new LogResult(408, "slow").isRejected());
+        Assert.assertFalse(new LogResult(429, "busy").isRejected());
+        Assert.assertFalse(new LogResult(500, "down").isRejected());
+    }
+
+    @Test
+    public void runLogBatchPost_sendsEmptyBatch() throws IOException {
+        try (LogBatchStubServer server = new LogBatchStubServer()) {
+            Assert.assertTrue(send(server, new ArrayList<>()).isEmpty());
+            Assert.assertEquals(0, server.requests.get(0).logs.size());
+        }
+    }
+
+    /** Sends a batch request built by RequestFactory to server and reads its results */
+    private static List<LogResult> send(LogBatchStubServer server, List<RunLog> logs)
+            throws IOException {
+        HttpPost req = (HttpPost) new RequestFactory().runLogBatchPost(logs);
+        req.setURI(server.getUri());
+
+        HttpResponse response = new DefaultHttpClient().execute(req);
+        Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+        try (InputStream body = response.getEntity().getContent()) {
+            return LogResult.readAll(body);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.PaceEstimator;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/** Tests for com.marcusposey.cadtra.model.PaceEstimator */
+public class PaceEstimatorTest {
+    private static final long kSecondNanos = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Adds a sample every second at a steady speed
+     * @return the distance covered at the end
+     */
+    private static double run(PaceEstimator estimator, double meters, long fromSecond,
+                              int seconds, double speed) {
+        for (long second = fromSecond + 1; second <= fromSecond + seconds; second++) {
+            meters += speed;
+            estimator.add(meters, second * kSecondNanos);
+        }
+        return meters;
+    }
+
+    @Test
+    public void getPace_followsLatestWindow() {
+        PaceEstimator estimator = new PaceEstimator();
+        Assert.assertTrue(Double.isNaN(estimator.getPace(0)));
+
+        double meters = run(estimator, 0, 0, 120, 4);
+        Assert.assertEquals(0.25, estimator.getPace(120 * kSecondNanos), 1e-9);
+
+        // The runner slows down; within a window, the old speed is forgotten.
+        run(estimator, meters, 120, 40, 2);
+        Assert.assertEquals(0.5, estimator.getPace(160 * kSecondNanos), 1e-9);
+        Assert.assertEquals(0.25, estimator.getFastestPace(), 1e-9);
+    }
+
+    @Test
+    public void getPace_unknownAfterFixesStop() {
+        PaceEstimator estimator = new PaceEstimator();
+        run(estimator, 0, 0, 60, 3);
+
+        final long windowEnd = 60 * kSecondNanos + PaceEstimator.kDefaultWindowNanos;
+        Assert.assertFalse(Double.isNaN(estimator.getPace(windowEnd)));
+        Assert.assertTrue(Double.isNaN(estimator.getPace(windowEnd + 1)));
+    }
+
+    @Test
+    public void getFastestPace_needsFullWindow() {
+        PaceEstimator estimator = new PaceEstimator();
+        // A short burst is not held long enough to count.
+        run(estimator, 0, 0, 20, 8);
+        Assert.assertFalse(Double.isNaN(estimator.getPace(20 * kSecondNanos)));
+        Assert.assertTrue(Double.isNaN(estimator.getFastestPace()));
+    }
+
+    @Test
+    public void add_dropsOldestWhenFull() {
+        PaceEstimator estimator = new PaceEstimator(PaceEstimator.kDefaultWindowNanos, 8);
+        double meters = run(estimator, 0, 0, 100, 4);
+        meters = run(estimator, meters, 100, 10, 2);
+
+        // Only the last seven seconds remain, all at the slower speed.
+        Assert.assertEquals(0.5, estimator.getPace(110 * kSecondNanos), 1e-9);
+        Assert.assertTrue(Double.isNaN(estimator.getFastestPace()));
+    }
+
+    @Test
+    public void overDistance_followsLatestMeters() {
+        PaceEstimator estimator = PaceEstimator.overDistance(400, 128);
+        // Two minutes at 4 m/s, then 50 seconds at 2 m/s: the last 400 meters
+        // are 100 at the slower speed and 300 at the faster one.
+        double meters = run(estimator, 0, 0, 120, 4);
+        Assert.assertEquals(0.25, estimator.getPace(120 * kSecondNanos), 1e-9);
+        run(estimator, meters, 120, 50, 2);
+        Assert.assertEquals((50 + 75) / 400.0, estimator.getPace(170 * kSecondNanos), 1e-9);
+        Assert.assertEquals(0.25, estimator.getFastestPace(), 1e-9);
+    }
+
+    @Test
+    public void overDistance_fastestNeedsFullDistance() {
+        PaceEstimator estimator = PaceEstimator.overDistance(400, 128);
+        run(estimator, 0, 0, 40, 8);
+        Assert.assertFalse(Double.isNaN(estimator.getPace(40 * kSecondNanos)));
+        Assert.assertTrue(Double.isNaN(estimator.getFastestPace()));
+        Assert.assertTrue(Double.isNaN(estimator.getPace(
+                40 * kSecondNanos + PaceEstimator.kDefaultWindowNanos + 1)));
+    }
+}
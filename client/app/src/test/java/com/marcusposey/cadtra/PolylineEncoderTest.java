@@ -0,0 +1,113 @@
+package com.marcusposey.cadtra;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.PolyUtil;
+import com.marcusposey.cadtra.model.PolylineEncoder;
+import com.marcusposey.cadtra.model.Route;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/** Tests for com.marcusposey.cadtra.model.PolylineEncoder */
+public class PolylineEncoderTest {
+    @Test
+    public void getEncodedPath_matchesPolyUtil() {
+        SyntheticTrack track = new SyntheticTrack(5000, 1.5, 3, 1);
+        PolylineEncoder encoder = new PolylineEncoder();
+        for (int i = 0; i < track.size(); i++) {
+            encoder.add(track.latitudes[i], track.longitudes[i]);
+        }
+
+        Assert.assertEquals(PolyUtil.encode(track.toLatLngs()), encoder.getEncodedPath());
+        Assert.assertEquals(track.size(), encoder.size());
+    }
+
+    @Test
+    public void getEncodedPath_isEmpty() {
+        Assert.assertEquals("", new PolylineEncoder(5).getEncodedPath());
+    }
+
+    @Test
+    public void getEncodedPath_allowsMorePoints() {
+        SyntheticTrack track = new SyntheticTrack(100, 1.5, 0, 2);
+        PolylineEncoder encoder = new PolylineEncoder(5);
+        for (int i = 0; i < track.size(); i++) {
+            encoder.add(track.latitudes[i], track.longitudes[i]);
+            List<LatLng> decoded = PolyUtil.decode(encoder.getEncodedPath());
+            Assert.assertEquals(encoder.size(), decoded.size());
+        }
+    }
+
+    @Test
+    public void simplify_keepsEndpoints() {
+        SyntheticTrack track = new SyntheticTrack(2000, 1.5, 1, 3);
+        PolylineEncoder encoder = new PolylineEncoder(5);
+        for (int i = 0; i < track.size(); i++) {
+            encoder.add(track.latitudes[i], track.longitudes[i]);
+        }
+
+        List<LatLng> simplified = PolyUtil.decode(encoder.getEncodedPath());
+        List<LatLng> original = PolyUtil.decode(PolyUtil.encode(track.toLatLngs()));
+        Assert.assertEquals(original.get(0), simplified.get(0));
+        Assert.assertEquals(original.get(original.size() - 1),
+                simplified.get(simplified.size() - 1));
+        Assert.assertTrue(simplified.size() < original.size() / 4);
+    }
+
+    @Test
+    public void simplify_staysWithinTolerance() {
+        final double tolerance = 5;
+        // Rounding coordinates to 1e-5 degrees can move each end of a segment.
+        final double roundingError = 1.2;
+
+        SyntheticTrack track = new SyntheticTrack(2000, 1.5, 4, 4);
+        PolylineEncoder encoder = new PolylineEncoder(tolerance);
+        for (int i = 0; i < track.size(); i++) {
+            encoder.add(track.latitudes[i], track.longitudes[i]);
+        }
+
+        List<LatLng> simplified = PolyUtil.decode(encoder.getEncodedPath());
+        for (int i = 0; i < track.size(); i++) {
+            double nearest = Double.MAX_VALUE;
+            for (int j = 1; j < simplified.size(); j++) {
+                nearest = Math.min(nearest, distanceToSegment(track.latitudes[i],
+                        track.longitudes[i], simplified.get(j - 1), simplified.get(j)));
+            }
+            Assert.assertTrue("point " + i + " is " + nearest + "m away",
+                    nearest <= tolerance + roundingError);
+        }
+    }
+
+    @Test
+    public void route_measuresEveryPoint() {
+        SyntheticTrack track = new SyntheticTrack(1000, 1.5, 2, 5);
+        Route exact = new Route(0);
+        Route simplified = new Route(10);
+        for (int i = 0; i < track.size(); i++) {
+            exact.add(track.latitudes[i], track.longitudes[i], i, 0);
+            simplified.add(track.latitudes[i], track.longitudes[i], i, 0);
+        }
+
+        Assert.assertEquals(exact.getMeters(), simplified.getMeters());
+        Assert.assertTrue(simplified.getEncodedPath().length()
+                < exact.getEncodedPath().length());
+    }
+
+    /** Returns the distance in meters from a point to the segment a-b */
+    private static double distanceToSegment(double lat, double lng, LatLng a, LatLng b) {
+        final double metersPerDegree = 111195;
+        final double lngScale = metersPerDegree * Math.cos(Math.toRadians(a.latitude));
+        final double x = (lng - a.longitude) * lngScale;
+        final double y = (lat - a.latitude) * metersPerDegree;
+        final double endX = (b.longitude - a.longitude) * lngScale;
+        final double endY = (b.latitude - a.latitude) * metersPerDegree;
+        final double lengthSq = endX * endX + endY * endY;
+
+        double t = lengthSq == 0 ? 0 : (x * endX + y * endY) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(x - t * endX, y - t * endY);
+    }
+}
@@ -0,0 +1,121 @@
+package com.marcusposey.cadtra;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.marcusposey.cadtra.model.RouteBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tests for com.marcusposey.cadtra.model.RouteBuffer */
+public class RouteBufferTest {
+    // Roughly a marathon at two fixes per second
+    private static final int kFixCount = 30000;
+
+    @Test
+    public void add_storesEveryColumn() {
+        RouteBuffer buffer = new RouteBuffer();
+        for (int i = 0; i < kFixCount; i++) {
+            buffer.add(latitude(i), longitude(i), i * 500L, i % 20);
+        }
+
+        Assert.assertEquals(kFixCount, buffer.size());
+        for (int i = 0; i < kFixCount; i++) {
+            Assert.assertEquals(latitude(i), buffer.getLatitude(i));
+            Assert.assertEquals(longitude(i), buffer.getLongitude(i));
+            Assert.assertEquals(i * 500L, buffer.getTime(i));
+            Assert.assertEquals((float) (i % 20), buffer.getAccuracy(i));
+        }
+    }
+
+    @Test
+    public void get_isOutOfBounds() {
+        RouteBuffer buffer = new RouteBuffer();
+        buffer.add(1, 2, 3, 4);
+        for (int invalidIndex : new int[]{-1, 1}) {
+            try {
+                buffer.getLatitude(invalidIndex);
+                Assert.fail("Expected IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException e) {
+                // We want this to happen.
+            }
+        }
+    }
+
+    @Test
+    public void asLatLngList_reflectsLaterFixes() {
+        RouteBuffer buffer = new RouteBuffer();
+        List<LatLng> view = buffer.asLatLngList();
+        Assert.assertTrue(view.isEmpty());
+
+        buffer.add(latitude(0), longitude(0), 0, 0);
+        buffer.add(latitude(1), longitude(1), 0, 0);
+
+        Assert.assertEquals(2, view.size());
+        Assert.assertEquals(new LatLng(latitude(1), longitude(1)), view.get(1));
+        Assert.assertSame(view, buffer.asLatLngList());
+    }
+
+    @Test
+    public void add_allocatesLessThanLatLngPath() {
+        final com.sun.management.ThreadMXBean threads = threadBean();
+        Assume.assumeTrue(threads != null);
+
+        // Warm up both paths so that class loading is not counted.
+        fillBuffer();
+        fillPath();
+
+        final long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        fillBuffer();
+        final long bufferBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        fillPath();
+        final long pathBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+        Assert.assertTrue(bufferBytes < pathBytes);
+    }
+
+    private static RouteBuffer fillBuffer() {
+        RouteBuffer buffer = new RouteBuffer();
+        for (int i = 0; i < kFixCount; i++) {
+            buffer.add(latitude(i), longitude(i), i * 500L, 5);
+        }
+        return buffer;
+    }
+
+    /** Stores fixes the way PolylineOptions.add does */
+    private static List<LatLng> fillPath() {
+        List<LatLng> path = new ArrayList<>();
+        for (int i = 0; i < kFixCount; i++) {
+            path.add(new LatLng(latitude(i), longitude(i)));
+        }
+        return path;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            Object bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                return (com.sun.management.ThreadMXBean) bean;
+            }
+        } catch (NoClassDefFoundError e) {
+            // The JVM does not report allocations.
+        }
+        return null;
+    }
+
+    private static double latitude(int i) {
+        return 36.15 + i * 1e-5;
+    }
+
+    private static double longitude(int i) {
+        return -95.99 + i * 1e-5;
+    }
+}
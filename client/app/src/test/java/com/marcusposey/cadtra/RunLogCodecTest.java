@@ -0,0 +1,108 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.PolylineEncoder;
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.net.RunLogCodec;
+
+import junit.framework.Assert;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Tests for com.marcusposey.cadtra.net.RunLogCodec */
+public class RunLogCodecTest {
+    /** Creates a log whose route is simplified from the given number of fixes */
+    static RunLog createLog(long id, int points) {
+        SyntheticTrack track = new SyntheticTrack(points, 3, 2, id);
+        PolylineEncoder encoder = new PolylineEncoder(PolylineEncoder.kDefaultTolerance);
+        for (int i = 0; i < points; i++) encoder.add(track.latitudes[i], track.longitudes[i]);
+
+        final double[] splits = new double[points / 500];
+        for (int i = 0; i < splits.length; i++) splits[i] = 480.123 + i;
+        return new RunLog(id, "2017-09-01T07:30:00.250-05:00", "2017-09-01T08:01:12.750-05:00",
+                1745.5, encoder.getEncodedPath(), points * 3 / 1609.344, 421.25, 1.0, splits,
+                "Easy run \u2014 windy");
+    }
+
+    @Test
+    public void decode_returnsEncodedLog() throws IOException {
+        final RunLog log = createLog(42, 1200);
+        final RunLog copy = RunLogCodec.decode(RunLogCodec.encode(log));
+
+        Assert.assertEquals(log.getId(), copy.getId());
+        assertSameInstant(log.getStartTimestampTz(), copy.getStartTimestampTz());
+        assertSameInstant(log.getEndTimestampTz(), copy.getEndTimestampTz());
+        Assert.assertEquals(log.getDurationSec(), copy.getDurationSec(), 1e-3);
+        Assert.assertEquals(log.getDistanceValue(), copy.getDistanceValue(), 1e-5);
+        Assert.assertEquals(log.getFastestPaceValue(), copy.getFastestPaceValue(), 1e-3);
+        Assert.assertEquals(log.getSplitInterval(), copy.getSplitInterval(), 1e-5);
+        Assert.assertEquals(log.getSplits().length, copy.getSplits().length);
+        for (int i = 0; i < log.getSplits().length; i++) {
+            Assert.assertEquals(log.getSplits()[i], copy.getSplits()[i], 1e-3);
+        }
+        Assert.assertEquals(log.getPolylinePath(), copy.getPolylinePath());
+        Assert.assertEquals(log.getComment(), copy.getComment());
+    }
+
+    @Test
+    public void decode_handlesMissingFields() throws IOException {
+        final RunLog log = new RunLog("2017-09-01T12:00:00Z", "2017-09-01T12:00:00Z", 0, null,
+                0, 0, null, null);
+        final RunLog copy = RunLogCodec.decode(RunLogCodec.encode(log));
+
+        Assert.assertEquals("", copy.getPolylinePath());
+        Assert.assertEquals("", copy.getComment());
+        Assert.assertEquals(0, copy.getSplits().length);
+    }
+
+    @Test
+    public void next_readsOneLogAtATime() throws IOException {
+        // Long enough to cross the reader's buffer several times
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int id = 1; id <= 3; id++) RunLogCodec.write(createLog(id, id * 10000), out);
+
+        RunLogCodec.Reader reader = new RunLogCodec.Reader(
+                new ByteArrayInputStream(out.toByteArray()));
+        for (int id = 1; id <= 3; id++) {
+            final RunLog log = reader.next();
+            Assert.assertEquals(id, log.getId());
+            Assert.assertEquals(createLog(id, id * 10000).getPolylinePath(),
+                    log.getPolylinePath());
+        }
+        Assert.assertNull(reader.next());
+    }
+
+    @Test
+    public void decode_rejectsMalformedData() {
+        final byte[] bytes = RunLogCodec.encode(createLog(7, 100));
+        final byte[][] malformed = {
+                Arrays.copyOf(bytes, bytes.length - 1),
+                Arrays.copyOf(bytes, 5),
+                Arrays.copyOf(bytes, bytes.length + 1),
+                {99, 0, 0}
+        };
+        for (byte[] data : malformed) {
+            try {
+                RunLogCodec.decode(data);
+                Assert.fail();
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encode_rejectsMalformedPolyline() {
+        RunLogCodec.encode(new RunLog("2017-09-01T12:00:00Z", "2017-09-01T12:00:00Z", 0, "_p~i",
+                0, 0, null, null));
+    }
+
+    private static void assertSameInstant(String expected, String actual) {
+        Assert.assertEquals(DateTime.parse(expected).getMillis(), DateTime.parse(actual).getMillis());
+    }
+}
@@ -0,0 +1,73 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.SamplingPolicy;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/** Tests for com.marcusposey.cadtra.model.SamplingPolicy */
+public class SamplingPolicyTest {
+    @Test
+    public void setState_changesPriority() {
+        SamplingPolicy policy = new SamplingPolicy();
+        Assert.assertEquals(SamplingPolicy.State.IDLE, policy.getSettings().state);
+        Assert.assertFalse(policy.setState(SamplingPolicy.State.IDLE));
+
+        Assert.assertTrue(policy.setState(SamplingPolicy.State.RUNNING));
+        Assert.assertEquals(SamplingPolicy.Priority.HIGH_ACCURACY, policy.getSettings().priority);
+        Assert.assertEquals(SamplingPolicy.kMinRunningIntervalMs, policy.getSettings().intervalMs);
+
+        Assert.assertTrue(policy.setState(SamplingPolicy.State.PAUSED));
+        Assert.assertEquals(SamplingPolicy.Priority.BALANCED_POWER_ACCURACY,
+                policy.getSettings().priority);
+        Assert.assertTrue(policy.getSettings().intervalMs > SamplingPolicy.kMaxRunningIntervalMs);
+    }
+
+    @Test
+    public void onSpeed_spacesUpdatesByDistance() {
+        SamplingPolicy policy = new SamplingPolicy();
+        policy.setState(SamplingPolicy.State.RUNNING);
+
+        // A slow jog covers kTargetSpacing in about 2.5 s.
+        Assert.assertTrue(policy.onSpeed(SamplingPolicy.kTargetSpacing / 2.5));
+        Assert.assertEquals(2500, policy.getSettings().intervalMs);
+
+        // A walker is bounded by the longest interval.
+        policy.setState(SamplingPolicy.State.PAUSED);
+        policy.setState(SamplingPolicy.State.RUNNING);
+        policy.onSpeed(0.5);
+        Assert.assertEquals(SamplingPolicy.kMaxRunningIntervalMs, policy.getSettings().intervalMs);
+
+        // A sprinter is bounded by the shortest.
+        policy.setState(SamplingPolicy.State.PAUSED);
+        policy.setState(SamplingPolicy.State.RUNNING);
+        policy.onSpeed(10);
+        Assert.assertEquals(SamplingPolicy.kMinRunningIntervalMs, policy.getSettings().intervalMs);
+    }
+
+    @Test
+    public void onSpeed_ignoresSmallChanges() {
+        SamplingPolicy policy = new SamplingPolicy();
+        policy.setState(SamplingPolicy.State.RUNNING);
+        final double speed = SamplingPolicy.kTargetSpacing / 2.5;
+        policy.onSpeed(speed);
+
+        for (int i = 0; i < 20; i++) {
+            Assert.assertFalse(policy.onSpeed(speed * (i % 2 == 0 ? 1.05 : 0.95)));
+        }
+        Assert.assertEquals(2500, policy.getSettings().intervalMs);
+    }
+
+    @Test
+    public void onSpeed_ignoredUnlessRunning() {
+        SamplingPolicy policy = new SamplingPolicy();
+        Assert.assertFalse(policy.onSpeed(3));
+        Assert.assertFalse(policy.onSpeed(Double.NaN));
+        Assert.assertEquals(SamplingPolicy.State.IDLE, policy.getSettings().state);
+
+        // Speed measured before the session is forgotten once it starts.
+        policy.setState(SamplingPolicy.State.RUNNING);
+        Assert.assertTrue(policy.getSpeed() < 0);
+    }
+}
@@ -0,0 +1,129 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.Fix;
+import com.marcusposey.cadtra.model.Route;
+import com.marcusposey.cadtra.model.SplitTracker;
+import com.marcusposey.cadtra.storage.SessionJournal;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/** Tests for com.marcusposey.cadtra.storage.SessionJournal */
+public class SessionJournalTest {
+    private static final long kStartMs = 1500000000000L;
+    private static final long kSecondNanos = 1000000000L;
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("session", ".journal");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Journals a fix every second, adding each to route and splits too
+     * @param second the elapsed time of the first fix, in seconds
+     * @param pausedMs the time spent paused before the first fix
+     */
+    private static void addFixes(SessionJournal journal, SyntheticTrack track, int first,
+                                 int count, long second, long pausedMs, Route route,
+                                 SplitTracker splits) {
+        Fix fix = new Fix();
+        for (int i = first; i < first + count; i++, second++) {
+            fix.set(track.latitudes[i], track.longitudes[i], kStartMs + pausedMs + second * 1000,
+                    second * kSecondNanos, 5);
+            journal.addFix(fix, second * kSecondNanos);
+            route.add(fix.latitude, fix.longitude, fix.time, fix.accuracy);
+            splits.add(route.getMeters(), second * kSecondNanos);
+        }
+    }
+
+    @Test
+    public void restore_rebuildsSession() throws Exception {
+        final SyntheticTrack track = new SyntheticTrack(2000, 3, 0, 1);
+        Route route = new Route();
+        SplitTracker splits = new SplitTracker();
+
+        SessionJournal journal = new SessionJournal(file);
+        journal.start(kStartMs);
+        addFixes(journal, track, 0, 1000, 1, 0, route, splits);
+        journal.pause(1000 * kSecondNanos, kStartMs + 1000 * 1000);
+        journal.resume(1000 * kSecondNanos, kStartMs + 1100 * 1000);
+        addFixes(journal, track, 1000, 1000, 1001, 100 * 1000, route, splits);
+        journal.sync().get();
+
+        // The app was killed 10 s after the last fix.
+        final long nowMs = kStartMs + 2100 * 1000 + 10 * 1000;
+        SessionJournal.Session session = new SessionJournal(file).restore(nowMs);
+        Assert.assertNotNull(session);
+        Assert.assertEquals(kStartMs, session.startedAtMs);
+        Assert.assertTrue(session.isRunning);
+        Assert.assertEquals(2010 * kSecondNanos, session.elapsedNanos);
+        Assert.assertEquals(route.size(), session.route.size());
+        Assert.assertEquals(route.getMeters(), session.route.getMeters(), 1e-6);
+        Assert.assertEquals(route.getEncodedPath(), session.route.getEncodedPath());
+        Assert.assertEquals(splits.size(), session.splitTracker.size());
+    }
+
+    @Test
+    public void restore_keepsPausedTime() throws Exception {
+        SessionJournal journal = new SessionJournal(file);
+        journal.start(kStartMs);
+        journal.pause(30 * kSecondNanos, kStartMs + 30 * 1000);
+        journal.sync().get();
+
+        SessionJournal.Session session = new SessionJournal(file).restore(kStartMs + 3600 * 1000);
+        Assert.assertFalse(session.isRunning);
+        Assert.assertEquals(30 * kSecondNanos, session.elapsedNanos);
+        Assert.assertEquals(0, session.route.size());
+    }
+
+    @Test
+    public void restore_dropsTornRecord() throws Exception {
+        final SyntheticTrack track = new SyntheticTrack(20, 3, 0, 2);
+        SessionJournal journal = new SessionJournal(file);
+        journal.start(kStartMs);
+        addFixes(journal, track, 0, 10, 1, 0, new Route(), new SplitTracker());
+        journal.sync().get();
+        final long validLength = file.length();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] {2, 0, 0, 1});
+        }
+
+        journal = new SessionJournal(file);
+        Assert.assertEquals(10, journal.restore(kStartMs).route.size());
+        Assert.assertEquals(validLength, file.length());
+
+        // New records follow the valid ones.
+        addFixes(journal, track, 10, 10, 11, 0, new Route(), new SplitTracker());
+        journal.sync().get();
+        Assert.assertEquals(20, new SessionJournal(file).restore(kStartMs).route.size());
+    }
+
+    @Test
+    public void finish_discardsSession() throws Exception {
+        SessionJournal journal = new SessionJournal(file);
+        Assert.assertNull(journal.restore(kStartMs));
+
+        journal.start(kStartMs);
+        journal.sync().get();
+        Assert.assertNotNull(journal.restore(kStartMs));
+
+        journal.finish();
+        Assert.assertNull(journal.restore(kStartMs));
+        Assert.assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,97 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.Route;
+import com.marcusposey.cadtra.model.SplitTracker;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tests for com.marcusposey.cadtra.model.SplitTracker */
+public class SplitTrackerTest {
+    private static final long kNanosPerSecond = 1000000000L;
+
+    @Test
+    public void add_interpolatesBoundaries() {
+        // 4 m/s with a fix every 10 s, so no fix lands on a mile
+        SplitTracker tracker = new SplitTracker();
+        for (int i = 0; i <= 500; i++) tracker.add(i * 40.0, i * 10 * kNanosPerSecond);
+
+        final double[] splits = tracker.getSplits();
+        Assert.assertEquals(12, splits.length);
+        for (double split : splits) {
+            Assert.assertEquals(SplitTracker.kMetersPerMile / 4, split, 1e-6);
+        }
+    }
+
+    @Test
+    public void add_crossesSeveralBoundariesAtOnce() {
+        SplitTracker tracker = new SplitTracker(1000);
+        tracker.add(0, 0);
+        tracker.add(3500, 700 * kNanosPerSecond);
+
+        final double[] splits = tracker.getSplits();
+        Assert.assertEquals(3, splits.length);
+        for (double split : splits) Assert.assertEquals(200, split, 1e-6);
+    }
+
+    @Test
+    public void add_ignoresTimeWithoutDistance() {
+        SplitTracker tracker = new SplitTracker(1000);
+        tracker.add(500, 100 * kNanosPerSecond);
+        // Standing still for a minute
+        tracker.add(500, 160 * kNanosPerSecond);
+        tracker.add(1500, 360 * kNanosPerSecond);
+
+        Assert.assertEquals(1, tracker.size());
+        Assert.assertEquals(260, tracker.getSplits()[0], 1e-6);
+    }
+
+    @Test
+    public void add_matchesWholeRouteComputation() {
+        // An hour at about 3 m/s with GPS noise
+        SyntheticTrack track = new SyntheticTrack(3600, 3, 3, 13);
+        Route route = new Route();
+        SplitTracker tracker = new SplitTracker();
+        final double[] meters = new double[track.size()];
+        final long[] nanos = new long[track.size()];
+        for (int i = 0; i < track.size(); i++) {
+            route.add(track.latitudes[i], track.longitudes[i], i * 1000L, 5);
+            meters[i] = route.getMeters();
+            nanos[i] = (i + 1) * kNanosPerSecond;
+            tracker.add(meters[i], nanos[i]);
+        }
+
+        final List<Double> expected = computeSplits(meters, nanos, SplitTracker.kMetersPerMile);
+        final double[] actual = tracker.getSplits();
+        Assert.assertEquals(expected.size(), actual.length);
+        Assert.assertTrue(actual.length >= 6);
+        double total = 0;
+        for (int i = 0; i < actual.length; i++) {
+            Assert.assertEquals(expected.get(i), actual[i], 1e-6);
+            total += actual[i];
+        }
+        Assert.assertTrue(total <= nanos[nanos.length - 1] / 1e9);
+    }
+
+    /** Finds every boundary by searching the finished route, as a run could be split after it ends */
+    private static List<Double> computeSplits(double[] meters, long[] nanos, double interval) {
+        List<Double> splits = new ArrayList<>();
+        double splitStart = 0;
+        for (int n = 1; n * interval <= meters[meters.length - 1]; n++) {
+            final double boundary = n * interval;
+            int i = 0;
+            while (meters[i] < boundary) i++;
+            final double prevMeters = i == 0 ? 0 : meters[i - 1];
+            final double prevSeconds = i == 0 ? 0 : nanos[i - 1] / 1e9;
+            final double fraction = (boundary - prevMeters) / (meters[i] - prevMeters);
+            final double crossedAt = prevSeconds + fraction * (nanos[i] / 1e9 - prevSeconds);
+            splits.add(crossedAt - splitStart);
+            splitStart = crossedAt;
+        }
+        return splits;
+    }
+}
@@ -0,0 +1,77 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.Stopwatch;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Tests for com.marcusposey.cadtra.model.Stopwatch */
+public class StopwatchTest {
+    /** A clock that only moves when told to */
+    private static class FakeClock implements Stopwatch.Clock {
+        private volatile long now = 1234567;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        void advance(long millis) {
+            now += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    @Test
+    public void elapsedNanos_excludesPauses() {
+        FakeClock clock = new FakeClock();
+        Stopwatch stopwatch = new Stopwatch(clock);
+
+        stopwatch.start();
+        clock.advance(1500);
+        stopwatch.stop();
+        clock.advance(60000);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1500), stopwatch.elapsedNanos());
+
+        stopwatch.start();
+        clock.advance(250);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1750), stopwatch.elapsedNanos());
+        Assert.assertEquals(1, stopwatch.elapsedSeconds());
+        stopwatch.stop();
+    }
+
+    @Test
+    public void reset_clearsTime() {
+        FakeClock clock = new FakeClock();
+        Stopwatch stopwatch = new Stopwatch(clock);
+
+        stopwatch.start();
+        clock.advance(5000);
+        stopwatch.reset();
+
+        Assert.assertFalse(stopwatch.isRunning());
+        Assert.assertEquals(0, stopwatch.elapsedNanos());
+    }
+
+    @Test
+    public void start_ticksListeners() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        clock.advance(3000);
+        Stopwatch stopwatch = new Stopwatch(clock);
+
+        final CountDownLatch ticked = new CountDownLatch(1);
+        final long[] tickNanos = new long[1];
+        stopwatch.addListener(elapsedNanos -> {
+            tickNanos[0] = elapsedNanos;
+            ticked.countDown();
+        });
+        stopwatch.start();
+
+        Assert.assertTrue(ticked.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, tickNanos[0]);
+        stopwatch.stop();
+    }
+}
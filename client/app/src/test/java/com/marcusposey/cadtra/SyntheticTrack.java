@@ -0,0 +1,54 @@
+package com.marcusposey.cadtra;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Generates repeatable runner-like routes for tests */
+class SyntheticTrack {
+    // Meters per degree of latitude
+    private static final double kMetersPerDegree = 111195;
+
+    final double[] latitudes;
+    final double[] longitudes;
+
+    /**
+     * Creates a track that wanders from a fixed start point
+     * @param points the number of fixes in the track
+     * @param stepMeters how far the runner moves between fixes
+     * @param noiseMeters the largest random error added to each fix
+     */
+    SyntheticTrack(int points, double stepMeters, double noiseMeters, long seed) {
+        latitudes = new double[points];
+        longitudes = new double[points];
+
+        Random random = new Random(seed);
+        double lat = 36.1540, lng = -95.9928;
+        double heading = 0;
+        final double lngScale = Math.cos(Math.toRadians(lat));
+        for (int i = 0; i < points; i++) {
+            // Turn gently most of the time and sharply at the occasional corner.
+            heading += random.nextDouble() < 0.01
+                    ? (random.nextBoolean() ? 1 : -1) * Math.PI / 2
+                    : (random.nextDouble() - 0.5) * 0.1;
+            lat += stepMeters * Math.cos(heading) / kMetersPerDegree;
+            lng += stepMeters * Math.sin(heading) / (kMetersPerDegree * lngScale);
+
+            latitudes[i] = lat + (random.nextDouble() - 0.5) * 2 * noiseMeters / kMetersPerDegree;
+            longitudes[i] = lng + (random.nextDouble() - 0.5) * 2 * noiseMeters
+                    / (kMetersPerDegree * lngScale);
+        }
+    }
+
+    int size() {
+        return latitudes.length;
+    }
+
+    List<LatLng> toLatLngs() {
+        List<LatLng> points = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) points.add(new LatLng(latitudes[i], longitudes[i]));
+        return points;
+    }
+}
@@ -0,0 +1,292 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.net.TokenStore;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Tests for com.marcusposey.cadtra.net.TokenStore */
+public class TokenStoreTest {
+    private static final long kHourMs = 60 * 60 * 1000;
+
+    /** Holds scheduled tasks until the test runs them */
+    private static class ManualScheduler extends AbstractExecutorService
+            implements ScheduledExecutorService {
+        private class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+            final long delayMs;
+
+            Task(Callable<V> callable, long delayMs) {
+                super(callable);
+                this.delayMs = delayMs;
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return unit.convert(delayMs, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                return Long.compare(delayMs, other.getDelay(TimeUnit.MILLISECONDS));
+            }
+        }
+
+        private final List<Task<?>> tasks = new ArrayList<>();
+
+        /** Returns the delays of the tasks that are waiting to run, in milliseconds */
+        synchronized List<Long> getPendingDelays() {
+            List<Long> delays = new ArrayList<>();
+            for (Task<?> task : tasks) if (!task.isDone()) delays.add(task.delayMs);
+            return delays;
+        }
+
+        /** Runs the tasks that are waiting, as if their delays had passed */
+        void runPending() {
+            final List<Task<?>> due;
+            synchronized (this) {
+                due = new ArrayList<>(tasks);
+                tasks.clear();
+            }
+            for (Task<?> task : due) task.run();
+        }
+
+        @Override
+        public synchronized ScheduledFuture<?> schedule(Runnable command, long delay,
+                                                        TimeUnit unit) {
+            return schedule(Executors.callable(command), delay, unit);
+        }
+
+        @Override
+        public synchronized <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay,
+                                                            TimeUnit unit) {
+            Task<V> task = new Task<>(callable, unit.toMillis(delay));
+            tasks.add(task);
+            return task;
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+                                                      long period, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+                                                         long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            schedule(command, 0, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+
+    // The fake time, in epoch milliseconds
+    private final AtomicLong now = new AtomicLong(1500000000000L);
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final TokenStore tokenStore = new TokenStore(now::get, scheduler);
+
+    /** Creates an unsigned JWT that expires at expiresAt, in epoch milliseconds */
+    private static String createJwt(String subject, long expiresAt) {
+        final String payload = "{\"sub\":\"" + subject + "\",\"exp\":" + expiresAt / 1000 + "}";
+        return "e30." + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".c2ln";
+    }
+
+    @Test
+    public void parseExpiry_readsExpClaim() {
+        Assert.assertEquals(1500003600000L, TokenStore.parseExpiry(createJwt("a", 1500003600000L)));
+        Assert.assertEquals(0, TokenStore.parseExpiry("not a token"));
+        Assert.assertEquals(0, TokenStore.parseExpiry("e30.*.c2ln"));
+        Assert.assertEquals(0, TokenStore.parseExpiry("e30.e30.c2ln"));
+    }
+
+    @Test
+    public void getFreshIdToken_skipsRenewalOfFreshToken() throws IOException {
+        final AtomicInteger renewals = new AtomicInteger();
+        tokenStore.setIdToken("a", now.get() + kHourMs);
+        tokenStore.setRefresher(() -> {
+            renewals.incrementAndGet();
+            return createJwt("b", now.get() + kHourMs);
+        });
+
+        Assert.assertEquals("a", tokenStore.getFreshIdToken());
+        Assert.assertEquals(0, renewals.get());
+
+        // Within the margin, the token is renewed ahead of its expiry.
+        now.addAndGet(kHourMs - TokenStore.kRefreshMarginMs);
+        Assert.assertTrue(tokenStore.getFreshIdToken().startsWith("e30."));
+        Assert.assertEquals(1, renewals.get());
+    }
+
+    @Test
+    public void getFreshIdToken_coalescesConcurrentRenewals() throws Exception {
+        final AtomicInteger renewals = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        tokenStore.setRefresher(() -> {
+            renewals.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return createJwt("b", now.get() + kHourMs);
+        });
+
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable);
+            threads.add(thread);
+            return thread;
+        });
+        try {
+            List<Future<String>> tokens = new ArrayList<>();
+            tokens.add(executor.submit(tokenStore::getFreshIdToken));
+            started.await();
+            for (int i = 0; i < 3; i++) tokens.add(executor.submit(tokenStore::getFreshIdToken));
+
+            // Hold the renewal until every caller waits, on it or on a renewal of its own.
+            for (Thread thread : threads) {
+                while (thread.getState() != Thread.State.WAITING
+                        && thread.getState() != Thread.State.TIMED_WAITING) {
+                    Thread.yield();
+                }
+            }
+            release.countDown();
+
+            final String expected = createJwt("b", now.get() + kHourMs);
+            for (Future<String> token : tokens) Assert.assertEquals(expected, token.get());
+            Assert.assertEquals(1, renewals.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getFreshIdToken_fallsBackToUnexpiredToken() throws IOException {
+        tokenStore.setIdToken("a", now.get() + 60 * 1000);
+        tokenStore.setRefresher(() -> {
+            throw new IOException("offline");
+        });
+
+        Assert.assertEquals("a", tokenStore.getFreshIdToken());
+        now.addAndGet(TokenStore.kMinRetryDelayMs);
+        Assert.assertEquals("a", tokenStore.getFreshIdToken());
+
+        now.addAndGet(60 * 1000);
+        try {
+            tokenStore.getFreshIdToken();
+            Assert.fail("An expired token was returned");
+        } catch (IOException e) {
+            Assert.assertEquals("offline", e.getMessage());
+        }
+    }
+
+    @Test
+    public void invalidate_forcesRenewal() throws IOException {
+        tokenStore.setIdToken("a", now.get() + kHourMs);
+        tokenStore.setRefresher(() -> "b");
+
+        tokenStore.invalidate("b");
+        Assert.assertEquals("a", tokenStore.getFreshIdToken());
+
+        tokenStore.invalidate("a");
+        Assert.assertEquals("b", tokenStore.getFreshIdToken());
+    }
+
+    @Test
+    public void getFreshIdToken_backsOffFromDueTokens() throws Exception {
+        final AtomicInteger renewals = new AtomicInteger();
+        // Like silent sign-in, the refresher hands back a cached token that is already due.
+        final String cached = createJwt("b", now.get() + 4 * 60 * 1000);
+        tokenStore.setRefresher(() -> {
+            renewals.incrementAndGet();
+            return cached;
+        });
+
+        Assert.assertEquals(cached, tokenStore.getFreshIdToken());
+        Assert.assertEquals(Arrays.asList(TokenStore.kMinRetryDelayMs),
+                scheduler.getPendingDelays());
+        for (int i = 0; i < 10; i++) tokenStore.getFreshIdToken();
+        Assert.assertEquals(1, renewals.get());
+
+        // Once the wait is over, one request tries again; the next wait is longer.
+        now.addAndGet(TokenStore.kMinRetryDelayMs);
+        for (int i = 0; i < 10; i++) tokenStore.getFreshIdToken();
+        Assert.assertEquals(2, renewals.get());
+        now.addAndGet(TokenStore.kMinRetryDelayMs);
+        tokenStore.getFreshIdToken();
+        Assert.assertEquals(2, renewals.get());
+    }
+
+    @Test
+    public void setIdToken_trustsTokenWithoutExpiryForLimitedTime() throws Exception {
+        final AtomicInteger renewals = new AtomicInteger();
+        tokenStore.setRefresher(() -> {
+            renewals.incrementAndGet();
+            return "b";
+        });
+
+        tokenStore.setIdToken("a");
+        final long renewalDelay = TokenStore.kUnknownExpiryTtlMs - TokenStore.kRefreshMarginMs;
+        Assert.assertEquals(Arrays.asList(renewalDelay), scheduler.getPendingDelays());
+        Assert.assertEquals("a", tokenStore.getFreshIdToken());
+        Assert.assertEquals(0, renewals.get());
+
+        // The renewal runs in the background before any request needs it.
+        now.addAndGet(renewalDelay);
+        scheduler.runPending();
+        Assert.assertEquals(1, renewals.get());
+        Assert.assertEquals("b", tokenStore.getFreshIdToken());
+        Assert.assertEquals(1, renewals.get());
+    }
+}
@@ -0,0 +1,140 @@
+package com.marcusposey.cadtra;
+
+import com.marcusposey.cadtra.model.Fix;
+import com.marcusposey.cadtra.model.RunLog;
+import com.marcusposey.cadtra.model.SamplingPolicy;
+import com.marcusposey.cadtra.model.Stopwatch;
+import com.marcusposey.cadtra.service.SessionSnapshot;
+import com.marcusposey.cadtra.service.TrackingEngine;
+import com.marcusposey.cadtra.storage.SessionJournal;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Tests for com.marcusposey.cadtra.service.TrackingEngine */
+public class TrackingEngineTest {
+    private static final long kStartMs = 1500000000000L;
+
+    /** A clock that only moves when told to */
+    private static class FakeClock implements Stopwatch.Clock {
+        private volatile long now = 1234567;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        void advance(long millis) {
+            now += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+    private File file;
+    private SessionJournal journal;
+    private TrackingEngine engine;
+
+    @Before
+    public void createEngine() throws IOException {
+        file = File.createTempFile("session", ".journal");
+        file.delete();
+        journal = new SessionJournal(file);
+        engine = new TrackingEngine(new Stopwatch(clock), journal);
+    }
+
+    @After
+    public void deleteFile() {
+        engine.reset();
+        file.delete();
+    }
+
+    /** Reports a fix every second, advancing the clock with it */
+    private void addFixes(SyntheticTrack track, int first, int count) {
+        Fix fix = new Fix();
+        for (int i = first; i < first + count; i++) {
+            clock.advance(1000);
+            fix.set(track.latitudes[i], track.longitudes[i], kStartMs + i * 1000L,
+                    TimeUnit.SECONDS.toNanos(i), 5);
+            engine.onFix(fix, 3);
+        }
+    }
+
+    @Test
+    public void onFix_ignoredWhilePaused() {
+        final SyntheticTrack track = new SyntheticTrack(40, 10, 0, 1);
+        engine.start(kStartMs);
+        addFixes(track, 0, 20);
+        final int size = engine.getRoute().size();
+        Assert.assertTrue(size > 0);
+
+        engine.pause(kStartMs + 20 * 1000);
+        Assert.assertEquals(SamplingPolicy.State.PAUSED, engine.getState());
+        addFixes(track, 20, 20);
+        Assert.assertEquals(size, engine.getRoute().size());
+        // The runner's position is still known.
+        Assert.assertEquals(track.latitudes[39], engine.getLatitude(), 1e-9);
+    }
+
+    @Test
+    public void finish_buildsLog() {
+        final SyntheticTrack track = new SyntheticTrack(30, 10, 0, 2);
+        engine.start(kStartMs);
+        addFixes(track, 0, 30);
+
+        RunLog log = engine.finish(kStartMs + 30 * 1000);
+        Assert.assertNotNull(log);
+        Assert.assertEquals(30.0, log.getDurationSec(), 1e-9);
+        Assert.assertEquals(engine.getRoute().getEncodedPath(), log.getPolylinePath());
+        // The session stays in progress until its log is saved.
+        Assert.assertTrue(engine.isInProgress());
+
+        engine.reset();
+        Assert.assertFalse(engine.isInProgress());
+        Assert.assertNull(engine.finish(kStartMs));
+    }
+
+    @Test
+    public void restore_rejectedWhileInProgress() throws Exception {
+        final SyntheticTrack track = new SyntheticTrack(20, 10, 0, 3);
+        engine.start(kStartMs);
+        addFixes(track, 0, 20);
+        engine.pause(kStartMs + 20 * 1000);
+        journal.sync().get();
+
+        SessionJournal.Session session = new SessionJournal(file).restore(kStartMs + 60 * 1000);
+        Assert.assertFalse(engine.restore(session));
+
+        TrackingEngine restarted = new TrackingEngine(new Stopwatch(clock), journal);
+        Assert.assertTrue(restarted.restore(session));
+        Assert.assertEquals(SamplingPolicy.State.PAUSED, restarted.getState());
+        Assert.assertEquals(engine.getRoute().size(), restarted.getRoute().size());
+        Assert.assertEquals(engine.getStopwatch().elapsedNanos(),
+                restarted.getStopwatch().elapsedNanos());
+    }
+
+    @Test
+    public void snapshot_reportsPaces() {
+        // 10 m every second is 160.9 s per mile.
+        final SyntheticTrack track = new SyntheticTrack(200, 10, 0, 4);
+        engine.start(kStartMs);
+        SessionSnapshot snapshot = engine.snapshot();
+        Assert.assertTrue(Double.isNaN(snapshot.getAveragePace()));
+        Assert.assertTrue(Double.isNaN(snapshot.getLastSplit()));
+
+        addFixes(track, 0, 200);
+        snapshot = engine.snapshot();
+        Assert.assertEquals(SamplingPolicy.State.RUNNING, snapshot.getState());
+        Assert.assertEquals(1, snapshot.getSplitCount());
+        Assert.assertEquals(engine.getRoute().size(), snapshot.getRouteSize());
+        Assert.assertEquals(160.9, snapshot.getAveragePace(), 8);
+        Assert.assertEquals(160.9, snapshot.getCurrentPace(), 8);
+        Assert.assertEquals(160.9, snapshot.getLastSplit(), 8);
+    }
+}
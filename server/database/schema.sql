@@ -1,3 +1,6 @@
+-- This creates new databases. Existing ones are brought up to date by the
+-- migrations in src/model/migrate.go, which the api runs when it starts.
+
 CREATE TABLE users (
   id serial PRIMARY KEY,
   -- The api uses 'me' as a path and that could cause problems in the future
@@ -84,5 +87,9 @@ CREATE TABLE logs (
   distance real NOT NULL,
   split_interval real NOT NULL,
   splits real[] NOT NULL,
-  comment text
+  comment text,
+  -- Seconds per unit of distance over the fastest stretch; 0 if unknown
+  fastest_pace real NOT NULL DEFAULT 0,
+  -- Retried uploads of a run must not add it again.
+  CONSTRAINT logs_user_id_started_at_key UNIQUE (user_id, started_at)
 );
@@ -34,6 +34,9 @@ func init() {
 	if err != nil {
 		log.Fatal("Could not access database; ", err)
 	}
+	if err = database.Migrate(); err != nil {
+		log.Fatal("Could not migrate database; ", err)
+	}
 
 	gService, err = controller.NewService(database, "8080")
 	if err != nil {
@@ -0,0 +1,26 @@
+package controller
+
+import "testing"
+
+func TestAcceptsMediaType(t *testing.T) {
+	const mediaType = "application/vnd.cadtra.log"
+	cases := map[string]bool{
+		"":                                             false,
+		"application/json":                             false,
+		"*/*":                                          false,
+		"application/vnd.cadtra.log":                   true,
+		"Application/Vnd.Cadtra.Log":                   true,
+		"application/json, application/vnd.cadtra.log": true,
+		"application/vnd.cadtra.log;q=0.5":             true,
+		"application/vnd.cadtra.log; q=0":              false,
+		"application/vnd.cadtra.log;q=0.0, */*":        false,
+		"application/vnd.cadtra.log;q=zero":            false,
+		"application/vnd.cadtra.log+json":              false,
+		"application/vnd.cadtra.logs":                  false,
+	}
+	for header, expected := range cases {
+		if acceptsMediaType(header, mediaType) != expected {
+			t.Errorf("Expected acceptsMediaType(%q) to be %v", header, expected)
+		}
+	}
+}
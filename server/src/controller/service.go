@@ -2,11 +2,14 @@ package controller
 
 import (
 	"cadtra/server/src/model"
+	"crypto/sha1"
+	"encoding/hex"
 	"encoding/json"
 	"errors"
 	"log"
 	"net"
 	"net/http"
+	"strings"
 
 	"github.com/gorilla/mux"
 	"github.com/rs/cors"
@@ -74,7 +77,7 @@ func (service *Service) Start() error {
 		net.Dial("tcp", "localhost:"+service.port)
 		log.Println("And we're live.")
 	}()
-	corsHandler := cors.Default().Handler(service.Router)
+	corsHandler := cors.Default().Handler(Gzip(service.Router))
 	return http.ListenAndServe(":"+service.port, corsHandler)
 }
 
@@ -86,3 +89,49 @@ func WriteJSONResponse(w http.ResponseWriter, status int, respObj interface{}) {
 	encoder.Encode(respObj)
 	// TODO: Handle failed encoding with internal server error.
 }
+
+// WriteCacheableJSONResponse is like WriteJSONResponse, but it tags the body
+// with an ETag. If the If-None-Match header of r already names that tag, the
+// client's copy is current, so only 304 Not Modified is written.
+//
+// The tag is weak because Gzip may change the bytes that are sent.
+func WriteCacheableJSONResponse(w http.ResponseWriter, r *http.Request, status int,
+	respObj interface{}) {
+	body, err := json.MarshalIndent(respObj, "", "  ")
+	if err != nil {
+		log.Println(err)
+		model.WriteErrorResponse(w, http.StatusInternalServerError, 0,
+			"Could not encode response",
+			"Contact an administrator")
+		return
+	}
+	body = append(body, '\n')
+
+	sum := sha1.Sum(body)
+	etag := `W/"` + hex.EncodeToString(sum[:]) + `"`
+	w.Header().Set("ETag", etag)
+	// The body belongs to one user and must be revalidated before reuse.
+	w.Header().Set("Cache-Control", "private, no-cache")
+	if status == http.StatusOK && etagMatches(r.Header.Get("If-None-Match"), etag) {
+		w.WriteHeader(http.StatusNotModified)
+		return
+	}
+
+	w.Header().Set("Content-Type", "application/json")
+	w.WriteHeader(status)
+	w.Write(body)
+}
+
+// etagMatches reports whether an If-None-Match header names etag, comparing
+// tags weakly as RFC 7232 requires.
+func etagMatches(header, etag string) bool {
+	if strings.TrimSpace(header) == "*" {
+		return true
+	}
+	for _, tag := range strings.Split(header, ",") {
+		if strings.TrimPrefix(strings.TrimSpace(tag), "W/") == strings.TrimPrefix(etag, "W/") {
+			return true
+		}
+	}
+	return false
+}
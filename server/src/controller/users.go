@@ -1,15 +1,33 @@
 package controller
 
 import (
+	"bytes"
 	"cadtra/server/src/model"
 	"encoding/json"
+	"io"
+	"io/ioutil"
 	logger "log"
 	"net/http"
 	"strconv"
+	"strings"
 
 	"github.com/gorilla/mux"
 )
 
+// The most logs that GET /v1/users/me/logs returns in one response when a
+// limit is requested
+const maxLogPageSize = 100
+
+// The largest binary run log that POST /v1/users/me/logs accepts
+const maxLogBytes = 1 << 20
+
+// The most logs, and the largest body, that POST /v1/users/me/logs/batch
+// accepts
+const (
+	maxLogBatchSize  = 100
+	maxLogBatchBytes = 16 << 20
+)
+
 // Users is a Controller implementation that handles routes for the users resource.
 type Users struct {
 	db   model.Database
@@ -84,6 +102,12 @@ func (u *Users) Routes() []Route {
 			Method:      "GET",
 			Handler:     u.getLogs,
 			IsProtected: true,
+		}, { // POST /v1/users/me/logs/batch
+			Version:     "v1",
+			Path:        "/users/me/logs/batch",
+			Method:      "POST",
+			Handler:     u.postLogBatch,
+			IsProtected: true,
 		},
 	}
 }
@@ -102,7 +126,7 @@ func (u *Users) postUsers(w http.ResponseWriter, r *http.Request) {
 		// todo: do something witty and return
 	}
 
-	WriteJSONResponse(w, http.StatusCreated, user)
+	WriteCacheableJSONResponse(w, r, http.StatusCreated, user)
 }
 
 // GET /v1/users/{id:[0-9]+}
@@ -132,7 +156,7 @@ func (u *Users) getSelf(w http.ResponseWriter, r *http.Request) {
 		return
 	}
 
-	WriteJSONResponse(w, http.StatusOK, user)
+	WriteCacheableJSONResponse(w, r, http.StatusOK, user)
 }
 
 // GET /v1/users/me/preferences
@@ -202,8 +226,26 @@ func (u *Users) postLogs(w http.ResponseWriter, r *http.Request) {
 	}
 
 	log := &model.Log{}
-	json.NewDecoder(r.Body).Decode(log)
+	if isMediaType(r.Header.Get("Content-Type"), model.LogMediaType) {
+		body, err := ioutil.ReadAll(http.MaxBytesReader(w, r.Body, maxLogBytes))
+		if err == nil {
+			err = log.UnmarshalBinary(body)
+		}
+		if err != nil {
+			model.WriteErrorResponse(w, http.StatusBadRequest, 0,
+				"Malformed request body",
+				"The body is not a valid binary run log")
+			return
+		}
+	} else {
+		json.NewDecoder(r.Body).Decode(log)
+	}
 	log.UserId = user.Id
+	if problem := checkLog(log); problem != "" {
+		model.WriteErrorResponse(w, http.StatusBadRequest, 0,
+			"Invalid run log", problem)
+		return
+	}
 
 	err = u.db.AddRunLog(log)
 	if err != nil {
@@ -218,6 +260,87 @@ func (u *Users) postLogs(w http.ResponseWriter, r *http.Request) {
 	w.WriteHeader(http.StatusCreated)
 }
 
+// POST /v1/users/me/logs/batch
+func (u *Users) postLogBatch(w http.ResponseWriter, r *http.Request) {
+	email := u.auth.GetEmailClaim(w, r)
+	if email == "" {
+		return
+	}
+	user, err := u.db.GetUserByEmail(email)
+	if err != nil {
+		model.WriteUnregisteredAccountError(w)
+		return
+	}
+
+	logs, err := readLogBatch(w, r)
+	if err != nil {
+		model.WriteErrorResponse(w, http.StatusBadRequest, 0,
+			"Malformed request body",
+			"The body is not a list of run logs")
+		return
+	}
+	if len(logs) > maxLogBatchSize {
+		model.WriteErrorResponse(w, http.StatusBadRequest, 0,
+			"Too many run logs",
+			"A batch can hold at most "+strconv.Itoa(maxLogBatchSize)+" logs")
+		return
+	}
+
+	// Each log is added on its own, so one bad log does not fail the rest.
+	results := make([]model.LogResult, len(logs))
+	for i, log := range logs {
+		log.UserId = user.Id
+		if problem := checkLog(log); problem != "" {
+			results[i] = model.LogResult{Status: http.StatusBadRequest, Message: problem}
+			continue
+		}
+		if err := u.db.AddRunLog(log); err != nil {
+			logger.Println(err)
+			results[i] = model.LogResult{Status: http.StatusInternalServerError,
+				Message: "Could not add run log"}
+			continue
+		}
+		results[i] = model.LogResult{Status: http.StatusCreated}
+	}
+	WriteJSONResponse(w, http.StatusOK, results)
+}
+
+// checkLog returns why log cannot be added, or "" if it can.
+func checkLog(log *model.Log) string {
+	if log.EndedAt.Before(log.StartedAt) {
+		return "ended-at is before started-at"
+	}
+	return ""
+}
+
+// readLogBatch decodes the list of logs in the body of r, which may be JSON
+// or binary logs placed one after another.
+func readLogBatch(w http.ResponseWriter, r *http.Request) ([]*model.Log, error) {
+	body := http.MaxBytesReader(w, r.Body, maxLogBatchBytes)
+	var logs []*model.Log
+	if !isMediaType(r.Header.Get("Content-Type"), model.LogMediaType) {
+		err := json.NewDecoder(body).Decode(&logs)
+		return logs, err
+	}
+
+	data, err := ioutil.ReadAll(body)
+	if err != nil {
+		return nil, err
+	}
+	reader := bytes.NewReader(data)
+	for {
+		log := &model.Log{}
+		err := log.ReadBinary(reader)
+		if err == io.EOF {
+			return logs, nil
+		}
+		if err != nil {
+			return nil, err
+		}
+		logs = append(logs, log)
+	}
+}
+
 // GET /v1/users/me/logs
 func (u *Users) getLogs(w http.ResponseWriter, r *http.Request) {
 	email := u.auth.GetEmailClaim(w, r)
@@ -225,12 +348,103 @@ func (u *Users) getLogs(w http.ResponseWriter, r *http.Request) {
 		return
 	}
 
-	logs, err := u.db.GetRunLogs(email)
+	page, ok := parseLogPage(w, r)
+	if !ok {
+		return
+	}
+
+	logs, err := u.db.GetRunLogs(email, page)
 	if err != nil {
 		logger.Println(err)
 		model.WriteUnregisteredAccountError(w)
 		return
 	}
 
-	WriteJSONResponse(w, http.StatusOK, logs)
+	if !acceptsMediaType(r.Header.Get("Accept"), model.LogMediaType) {
+		WriteJSONResponse(w, http.StatusOK, logs)
+		return
+	}
+	var body []byte
+	for _, log := range logs {
+		if body, err = log.AppendBinary(body); err != nil {
+			logger.Println(err)
+			model.WriteErrorResponse(w, http.StatusInternalServerError, 0,
+				"Could not encode run logs",
+				"Contact an administrator")
+			return
+		}
+	}
+	w.Header().Set("Content-Type", model.LogMediaType)
+	w.WriteHeader(http.StatusOK)
+	w.Write(body)
+}
+
+// isMediaType reports whether a Content-Type header names mediaType,
+// ignoring any parameters.
+func isMediaType(header, mediaType string) bool {
+	if i := strings.Index(header, ";"); i >= 0 {
+		header = header[:i]
+	}
+	return strings.EqualFold(strings.TrimSpace(header), mediaType)
+}
+
+// acceptsMediaType reports whether an Accept header names mediaType with a
+// quality above zero. Wildcards do not count, so a client only receives a
+// media type other than JSON if it asks for it.
+func acceptsMediaType(header, mediaType string) bool {
+	for _, mediaRange := range strings.Split(header, ",") {
+		params := strings.Split(mediaRange, ";")
+		if !strings.EqualFold(strings.TrimSpace(params[0]), mediaType) {
+			continue
+		}
+		quality := 1.0
+		for _, param := range params[1:] {
+			name, value := param, ""
+			if i := strings.Index(param, "="); i >= 0 {
+				name, value = param[:i], param[i+1:]
+			}
+			if !strings.EqualFold(strings.TrimSpace(name), "q") {
+				continue
+			}
+			q, err := strconv.ParseFloat(strings.TrimSpace(value), 64)
+			if err != nil {
+				q = 0
+			}
+			quality = q
+		}
+		if quality > 0 {
+			return true
+		}
+	}
+	return false
+}
+
+// parseLogPage reads the after, before, and limit query parameters of r.
+// If one is not a positive integer, an error response is written to w and
+// ok is false.
+func parseLogPage(w http.ResponseWriter, r *http.Request) (page model.LogPage, ok bool) {
+	fields := map[string]*int{
+		"after":  &page.After,
+		"before": &page.Before,
+		"limit":  &page.Limit,
+	}
+	query := r.URL.Query()
+	for name, field := range fields {
+		value := query.Get(name)
+		if value == "" {
+			continue
+		}
+		n, err := strconv.Atoi(value)
+		if err != nil || n <= 0 {
+			model.WriteErrorResponse(w, http.StatusBadRequest, 0,
+				"Invalid query parameter",
+				name+" must be a positive integer")
+			return page, false
+		}
+		*field = n
+	}
+	if page.Limit > maxLogPageSize {
+		page.Limit = maxLogPageSize
+	}
+	return page, true
 }
@@ -24,7 +24,7 @@ type Database interface {
 	DeleteUserRelation(ctx UserRelationContext, relationId int) error
 
 	AddRunLog(*Log) error
-	GetRunLogs(email string) ([]*Log, error)
+	GetRunLogs(email string, page LogPage) ([]*Log, error)
 
 	AddClub(*Club) error
 	GetClub(clubId int) (*Club, error)
@@ -1,6 +1,7 @@
 package model
 
 import (
+	"fmt"
 	"time"
 	"github.com/lib/pq"
 )
@@ -15,33 +16,77 @@ type Log struct {
 	Duration      float64   `json:"duration"`
 	Polyline      string    `json:"polyline"`
 	Distance      float64   `json:"distance"`
+	// Seconds per unit of distance over the fastest stretch; 0 if unknown
+	FastestPace   float64   `json:"fastest-pace"`
 	SplitInterval float64   `json:"split-interval"`
 	Splits        []float64 `json:"splits"`
 	Comment       string    `json:"comment"`
 }
 
+// LogResult reports what happened to one log of a batch upload.
+type LogResult struct {
+	// The HTTP status that uploading the log alone would have received
+	Status  int    `json:"status"`
+	Message string `json:"message,omitempty"`
+}
+
 // AddRunLog creates a new run log for a user.
 // log should have values for every field except Id.
+// If the user already has a log with the same start time, e.g. because an
+// upload was retried, nothing is added and no error is returned.
 func (db *PsqlDB) AddRunLog(log *Log) error {
 	_, err := db.Exec(`
 		INSERT INTO logs (user_id, started_at, ended_at, duration, polyline,
-			distance, split_interval, splits, comment)
-		VALUES ($1, $2, $3, $4, $5, $6, $7, $8, $9)`,
+			distance, split_interval, splits, comment, fastest_pace)
+		VALUES ($1, $2, $3, $4, $5, $6, $7, $8, $9, $10)
+		ON CONFLICT (user_id, started_at) DO NOTHING`,
 		log.UserId, log.StartedAt, log.EndedAt, log.Duration, log.Polyline,
 		log.Distance, log.SplitInterval, pq.Float64Array(log.Splits), log.Comment,
+		log.FastestPace,
 	)
 	return err
 }
 
+// LogPage selects part of a user's run history by log id.
+// A zero field places no restriction on the selection.
+type LogPage struct {
+	// Only logs with a greater id are selected.
+	After int
+	// Only logs with a lesser id are selected.
+	Before int
+	// The maximum number of logs to select
+	Limit int
+}
+
 // GetRunLogs retrieves a list of runs completed by the user.
-func (db *PsqlDB) GetRunLogs(email string) ([]*Log, error) {
-	rows, err := db.Query(`
-		SELECT * FROM logs WHERE user_id = (
+// Logs are ordered from newest to oldest, i.e., by descending id.
+func (db *PsqlDB) GetRunLogs(email string, page LogPage) ([]*Log, error) {
+	query := `
+		SELECT id, user_id, started_at, ended_at, duration, polyline, distance,
+			split_interval, splits, comment, fastest_pace
+		FROM logs WHERE user_id = (
 			SELECT id FROM users WHERE email = $1
-		)`, email)
+		)`
+	args := []interface{}{email}
+	if page.After > 0 {
+		args = append(args, page.After)
+		query += fmt.Sprintf(" AND id > $%d", len(args))
+	}
+	if page.Before > 0 {
+		args = append(args, page.Before)
+		query += fmt.Sprintf(" AND id < $%d", len(args))
+	}
+	query += " ORDER BY id DESC"
+	if page.Limit > 0 {
+		args = append(args, page.Limit)
+		query += fmt.Sprintf(" LIMIT $%d", len(args))
+	}
+
+	rows, err := db.Query(query, args...)
 	if err != nil {
 		return nil, err
 	}
+	defer rows.Close()
 
 	var logs []*Log
 	for rows.Next() {
@@ -49,7 +94,7 @@ func (db *PsqlDB) GetRunLogs(email string) ([]*Log, error) {
 		log := &Log{}
 		err = rows.Scan(&log.Id, &log.UserId, &log.StartedAt, &log.EndedAt,
 			&log.Duration, &log.Polyline, &log.Distance, &log.SplitInterval,
-			&splits, &log.Comment)
+			&splits, &log.Comment, &log.FastestPace)
 
 		if err != nil {
 			return logs, err
@@ -0,0 +1,236 @@
+package model
+
+import (
+	"bytes"
+	"encoding/binary"
+	"errors"
+	"io"
+	"math"
+	"time"
+)
+
+// LogMediaType is the content type of the compact binary encoding of Log.
+//
+// A binary log is a version byte followed by varints. Signed values use
+// zigzag encoding, and fractional values are stored in fixed point:
+//	id
+//	started-at, in epoch milliseconds
+//	ended-at minus started-at, in milliseconds
+//	duration, in milliseconds
+//	distance, in units of 1e-5
+//	fastest pace, in milliseconds per unit of distance
+//	split interval, in units of 1e-5
+//	split count (unsigned), then each split in milliseconds
+//	polyline value count (unsigned), then each value (unsigned)
+//	comment length in bytes (unsigned), then the UTF-8 comment
+// The polyline values are the zigzag deltas that Google's polyline algorithm
+// spells out in 5-bit ASCII chunks, so the path survives exactly. A list of
+// logs is their encodings placed one after another.
+const LogMediaType = "application/vnd.cadtra.log"
+
+// The first byte of every binary log
+const logFormatVersion = 1
+
+// Units of 1e-5 per unit of distance
+const distanceScale = 1e5
+
+// ErrMalformedLog is returned when binary log data cannot be decoded.
+var ErrMalformedLog = errors.New("malformed binary log")
+
+// AppendBinary appends the binary encoding of log to b.
+func (log *Log) AppendBinary(b []byte) ([]byte, error) {
+	values, err := polylineValues(log.Polyline)
+	if err != nil {
+		return b, err
+	}
+
+	e := logEncoder{buf: append(b, logFormatVersion)}
+	startedAt := toEpochMillis(log.StartedAt)
+	e.putInt(int64(log.Id))
+	e.putInt(startedAt)
+	e.putInt(toEpochMillis(log.EndedAt) - startedAt)
+	e.putInt(round(log.Duration * 1000))
+	e.putInt(round(log.Distance * distanceScale))
+	e.putInt(round(log.FastestPace * 1000))
+	e.putInt(round(log.SplitInterval * distanceScale))
+	e.putUint(uint64(len(log.Splits)))
+	for _, split := range log.Splits {
+		e.putInt(round(split * 1000))
+	}
+	e.putUint(uint64(len(values)))
+	for _, value := range values {
+		e.putUint(value)
+	}
+	e.putUint(uint64(len(log.Comment)))
+	e.buf = append(e.buf, log.Comment...)
+	return e.buf, nil
+}
+
+// MarshalBinary returns the binary encoding of log.
+func (log *Log) MarshalBinary() ([]byte, error) {
+	return log.AppendBinary(nil)
+}
+
+// UnmarshalBinary replaces log with the single binary log in data.
+func (log *Log) UnmarshalBinary(data []byte) error {
+	r := bytes.NewReader(data)
+	if err := log.ReadBinary(r); err != nil {
+		return err
+	}
+	if r.Len() != 0 {
+		return ErrMalformedLog
+	}
+	return nil
+}
+
+// ReadBinary replaces log with the next binary log in r.
+// It returns io.EOF if r has no more logs.
+func (log *Log) ReadBinary(r *bytes.Reader) error {
+	version, err := r.ReadByte()
+	if err != nil {
+		return io.EOF
+	}
+	if version != logFormatVersion {
+		return ErrMalformedLog
+	}
+
+	d := logDecoder{r: r}
+	id := d.int()
+	startedAt := d.int()
+	endedAt := startedAt + d.int()
+	duration := d.int()
+	distance := d.int()
+	fastestPace := d.int()
+	splitInterval := d.int()
+	splits := make([]float64, d.count())
+	for i := range splits {
+		splits[i] = float64(d.int()) / 1000
+	}
+	var polyline []byte
+	for n := d.count(); n > 0; n-- {
+		polyline = appendPolylineValue(polyline, d.uint())
+	}
+	comment := make([]byte, d.count())
+	if _, err := io.ReadFull(r, comment); err != nil {
+		d.err = ErrMalformedLog
+	}
+	if d.err != nil {
+		return d.err
+	}
+
+	*log = Log{
+		Id:            int(id),
+		UserId:        log.UserId,
+		StartedAt:     fromEpochMillis(startedAt),
+		EndedAt:       fromEpochMillis(endedAt),
+		Duration:      float64(duration) / 1000,
+		Polyline:      string(polyline),
+		Distance:      float64(distance) / distanceScale,
+		FastestPace:   float64(fastestPace) / 1000,
+		SplitInterval: float64(splitInterval) / distanceScale,
+		Splits:        splits,
+		Comment:       string(comment),
+	}
+	return nil
+}
+
+// logEncoder appends varints to a buffer.
+type logEncoder struct {
+	buf     []byte
+	scratch [binary.MaxVarintLen64]byte
+}
+
+func (e *logEncoder) putInt(v int64) {
+	n := binary.PutVarint(e.scratch[:], v)
+	e.buf = append(e.buf, e.scratch[:n]...)
+}
+
+func (e *logEncoder) putUint(v uint64) {
+	n := binary.PutUvarint(e.scratch[:], v)
+	e.buf = append(e.buf, e.scratch[:n]...)
+}
+
+// logDecoder reads varints until one fails, after which it returns zeros
+// and err is set.
+type logDecoder struct {
+	r   *bytes.Reader
+	err error
+}
+
+func (d *logDecoder) int() int64 {
+	if d.err != nil {
+		return 0
+	}
+	v, err := binary.ReadVarint(d.r)
+	if err != nil {
+		d.err = ErrMalformedLog
+	}
+	return v
+}
+
+func (d *logDecoder) uint() uint64 {
+	if d.err != nil {
+		return 0
+	}
+	v, err := binary.ReadUvarint(d.r)
+	if err != nil {
+		d.err = ErrMalformedLog
+	}
+	return v
+}
+
+// count reads a number of items that follow, each of which takes at least
+// one byte, so that corrupt data cannot cause a huge allocation.
+func (d *logDecoder) count() int {
+	n := d.uint()
+	if n > uint64(d.r.Len()) {
+		d.err = ErrMalformedLog
+		return 0
+	}
+	return int(n)
+}
+
+// polylineValues splits an encoded polyline into its zigzag values.
+func polylineValues(path string) ([]uint64, error) {
+	values := make([]uint64, 0, len(path)/2)
+	var value uint64
+	var shift uint
+	for i := 0; i < len(path); i++ {
+		chunk := uint64(path[i]) - 63
+		if path[i] < 63 || chunk > 0x3f || shift > 60 {
+			return nil, ErrMalformedLog
+		}
+		value |= (chunk & 0x1f) << shift
+		if chunk < 0x20 {
+			values = append(values, value)
+			value, shift = 0, 0
+		} else {
+			shift += 5
+		}
+	}
+	if shift != 0 {
+		return nil, ErrMalformedLog
+	}
+	return values, nil
+}
+
+// appendPolylineValue appends a zigzag value to a polyline in 5-bit chunks.
+func appendPolylineValue(path []byte, value uint64) []byte {
+	for value >= 0x20 {
+		path = append(path, byte(0x20|(value&0x1f))+63)
+		value >>= 5
+	}
+	return append(path, byte(value)+63)
+}
+
+func toEpochMillis(t time.Time) int64 {
+	return t.UnixNano() / int64(time.Millisecond)
+}
+
+func fromEpochMillis(ms int64) time.Time {
+	return time.Unix(0, ms*int64(time.Millisecond)).UTC()
+}
+
+func round(v float64) int64 {
+	return int64(math.Floor(v + 0.5))
+}
@@ -0,0 +1,187 @@
+package model
+
+import (
+	"bytes"
+	"io"
+	"testing"
+	"time"
+)
+
+// javaLog is the log that RunLogCodec encoded to make javaLogBytes.
+var javaLog = Log{
+	Id:            7,
+	StartedAt:     time.Date(2017, 9, 1, 12, 0, 0, 250*int(time.Millisecond), time.UTC),
+	EndedAt:       time.Date(2017, 9, 1, 12, 30, 0, 0, time.UTC),
+	Duration:      1800.5,
+	Polyline:      "_p~iF~ps|U_ulLnnqC_mqNvxq`@",
+	Distance:      5.25,
+	FastestPace:   421.25,
+	SplitInterval: 1,
+	Splits:        []float64{480.125, 475.5},
+	Comment:       "Easy run — windy",
+}
+
+// javaLogBytes is the output of RunLogCodec.encode for javaLog, which keeps
+// the client and the server in agreement on the format.
+var javaLogBytes = []byte{
+	0x01, 0x0e, 0xf4, 0x9b, 0xff, 0xd4, 0xc7, 0x57, 0x8c, 0xd9, 0xdb, 0x01,
+	0xe8, 0xe4, 0xdb, 0x01, 0x90, 0x8b, 0x40, 0x84, 0xb6, 0x33, 0xc0, 0x9a,
+	0x0c, 0x02, 0xfa, 0xcd, 0x3a, 0xd8, 0x85, 0x3a, 0x06, 0xa0, 0xfc, 0xd5,
+	0x03, 0xbf, 0xa4, 0xbb, 0x0b, 0xc0, 0xed, 0x1a, 0xef, 0x93, 0x09, 0xc0,
+	0x93, 0x1f, 0xb7, 0x96, 0x43, 0x12, 0x45, 0x61, 0x73, 0x79, 0x20, 0x72,
+	0x75, 0x6e, 0x20, 0xe2, 0x80, 0x94, 0x20, 0x77, 0x69, 0x6e, 0x64, 0x79,
+}
+
+// checkSameLog emits an error on t for each field that differs between
+// expected and actual.
+func checkSameLog(t *testing.T, expected, actual *Log) {
+	t.Helper()
+	if actual.Id != expected.Id || actual.Polyline != expected.Polyline ||
+		actual.Comment != expected.Comment {
+		t.Errorf("Expected id, polyline, comment %v %q %q, got %v %q %q",
+			expected.Id, expected.Polyline, expected.Comment,
+			actual.Id, actual.Polyline, actual.Comment)
+	}
+	if !actual.StartedAt.Equal(expected.StartedAt) || !actual.EndedAt.Equal(expected.EndedAt) {
+		t.Errorf("Expected times %v to %v, got %v to %v",
+			expected.StartedAt, expected.EndedAt, actual.StartedAt, actual.EndedAt)
+	}
+	if actual.Duration != expected.Duration || actual.Distance != expected.Distance ||
+		actual.FastestPace != expected.FastestPace ||
+		actual.SplitInterval != expected.SplitInterval {
+		t.Errorf("Expected duration, distance, pace, interval %v %v %v %v, got %v %v %v %v",
+			expected.Duration, expected.Distance, expected.FastestPace, expected.SplitInterval,
+			actual.Duration, actual.Distance, actual.FastestPace, actual.SplitInterval)
+	}
+	if len(actual.Splits) != len(expected.Splits) {
+		t.Fatalf("Expected %d splits, got %d", len(expected.Splits), len(actual.Splits))
+	}
+	for i := range expected.Splits {
+		if actual.Splits[i] != expected.Splits[i] {
+			t.Errorf("Expected split %d to be %v, got %v", i, expected.Splits[i], actual.Splits[i])
+		}
+	}
+}
+
+func TestLogBinaryRoundTrip(t *testing.T) {
+	data, err := javaLog.MarshalBinary()
+	checkError(t, err)
+
+	var log Log
+	checkError(t, log.UnmarshalBinary(data))
+	checkSameLog(t, &javaLog, &log)
+}
+
+func TestLogBinaryMatchesJavaCodec(t *testing.T) {
+	var log Log
+	checkError(t, log.UnmarshalBinary(javaLogBytes))
+	checkSameLog(t, &javaLog, &log)
+
+	data, err := javaLog.MarshalBinary()
+	checkError(t, err)
+	if !bytes.Equal(data, javaLogBytes) {
+		t.Errorf("Expected the Java encoding\n%x\ngot\n%x", javaLogBytes, data)
+	}
+}
+
+func TestLogBinaryReadsList(t *testing.T) {
+	second := javaLog
+	second.Id = 8
+	second.Splits = nil
+	second.Comment = ""
+
+	data, err := javaLog.AppendBinary(nil)
+	checkError(t, err)
+	data, err = second.AppendBinary(data)
+	checkError(t, err)
+
+	r := bytes.NewReader(data)
+	for _, expected := range []*Log{&javaLog, &second} {
+		var log Log
+		checkError(t, log.ReadBinary(r))
+		checkSameLog(t, expected, &log)
+	}
+	var log Log
+	if err := log.ReadBinary(r); err != io.EOF {
+		t.Error("Expected io.EOF after the last log, got ", err)
+	}
+}
+
+func TestLogBinaryRejectsTruncatedData(t *testing.T) {
+	for n := 1; n < len(javaLogBytes); n++ {
+		var log Log
+		if err := log.UnmarshalBinary(javaLogBytes[:n]); err != ErrMalformedLog {
+			t.Errorf("Expected ErrMalformedLog for the first %d bytes, got %v", n, err)
+		}
+	}
+}
+
+func TestLogBinaryRejectsCorruptData(t *testing.T) {
+	withVersion := func(version byte) []byte {
+		data := append([]byte(nil), javaLogBytes...)
+		data[0] = version
+		return data
+	}
+	hugeCount := logEncoder{buf: []byte{logFormatVersion}}
+	for i := 0; i < 7; i++ {
+		hugeCount.putInt(0)
+	}
+	hugeCount.putUint(1 << 40)
+
+	cases := map[string][]byte{
+		"version 0":       withVersion(0),
+		"unknown version": withVersion(logFormatVersion + 1),
+		"trailing byte":   append(append([]byte(nil), javaLogBytes...), 0),
+		"huge count":      hugeCount.buf,
+		"overlong varint": append([]byte{logFormatVersion}, bytes.Repeat([]byte{0xff}, 11)...),
+	}
+	for name, data := range cases {
+		var log Log
+		if err := log.UnmarshalBinary(data); err != ErrMalformedLog {
+			t.Errorf("%s: expected ErrMalformedLog, got %v", name, err)
+		}
+	}
+}
+
+func TestPolylineValuesRoundTrip(t *testing.T) {
+	values, err := polylineValues(javaLog.Polyline)
+	checkError(t, err)
+	if len(values) != 6 {
+		t.Fatal("Expected 6 values, got ", len(values))
+	}
+
+	var path []byte
+	for _, value := range values {
+		path = appendPolylineValue(path, value)
+	}
+	if string(path) != javaLog.Polyline {
+		t.Errorf("Expected %q, got %q", javaLog.Polyline, path)
+	}
+}
+
+func TestPolylineValuesRejectsMalformedPaths(t *testing.T) {
+	paths := map[string]string{
+		"below the alphabet": "_p~iF ps|U",
+		"above the alphabet": "_p~iF\x7fps|U",
+		"unfinished value":   "_p~iF~ps|U_",
+		"value too long":     "______________?",
+	}
+	for name, path := range paths {
+		if _, err := polylineValues(path); err != ErrMalformedLog {
+			t.Errorf("%s: expected ErrMalformedLog, got %v", name, err)
+		}
+		log := javaLog
+		log.Polyline = path
+		if _, err := log.MarshalBinary(); err != ErrMalformedLog {
+			t.Errorf("%s: expected MarshalBinary to fail, got %v", name, err)
+		}
+	}
+}
+
+// checkError emits an error on t if e is not nil.
+func checkError(t *testing.T, e error) {
+	t.Helper()
+	if e != nil {
+		t.Error(e)
+	}
+}
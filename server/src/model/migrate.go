@@ -0,0 +1,56 @@
+package model
+
+// migrations bring databases created from an older schema.sql up to date.
+// They run in order each time the service starts, so each one must be safe
+// to run again. New statements go at the end, and schema.sql should be
+// changed to match them.
+var migrations = []string{
+	// Logs record the pace of their fastest stretch.
+	`ALTER TABLE logs ADD COLUMN IF NOT EXISTS fastest_pace real NOT NULL DEFAULT 0`,
+	// A user's logs are told apart by start time, so that retried uploads
+	// are not added twice. Copies that retries added before are identical in
+	// every column and are removed. Logs that only share a start time are
+	// left alone: the migration fails and names them, so that an operator
+	// can decide which to keep.
+	`DO $$
+	DECLARE
+		conflicts text;
+	BEGIN
+		IF NOT EXISTS (SELECT 1 FROM pg_class WHERE relname = 'logs_user_id_started_at_key') THEN
+			DELETE FROM logs a USING logs b
+			WHERE a.id > b.id
+				AND a.user_id = b.user_id
+				AND a.started_at = b.started_at
+				AND a.ended_at = b.ended_at
+				AND a.duration = b.duration
+				AND a.polyline = b.polyline
+				AND a.distance = b.distance
+				AND a.split_interval = b.split_interval
+				AND a.splits = b.splits
+				AND a.comment IS NOT DISTINCT FROM b.comment
+				AND a.fastest_pace = b.fastest_pace;
+
+			SELECT string_agg(ids, '; ') INTO conflicts FROM (
+				SELECT string_agg(id::text, ', ' ORDER BY id) AS ids
+				FROM logs GROUP BY user_id, started_at HAVING count(*) > 1
+			) AS duplicates;
+			IF conflicts IS NOT NULL THEN
+				RAISE EXCEPTION 'logs share a user and start time but differ: %', conflicts
+					USING HINT = 'Keep one log of each group and restart the service.';
+			END IF;
+
+			CREATE UNIQUE INDEX logs_user_id_started_at_key ON logs (user_id, started_at);
+		END IF;
+	END
+	$$`,
+}
+
+// Migrate applies any migrations that the database is missing.
+func (db *PsqlDB) Migrate() error {
+	for _, migration := range migrations {
+		if _, err := db.Exec(migration); err != nil {
+			return err
+		}
+	}
+	return nil
+}
@@ -16,6 +16,9 @@ func main() {
 	if e != nil {
 		log.Fatal("Could not access database; ", e)
 	}
+	if e = database.Migrate(); e != nil {
+		log.Fatal("Could not migrate database; ", e)
+	}
 
 	service, err := controller.NewService(database, "8080")
 	if err != nil {